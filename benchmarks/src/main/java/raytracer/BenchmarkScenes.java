@@ -0,0 +1,87 @@
+package raytracer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * BenchmarkScenes Class - scenes shared by the benchmarks. "scene.json"
+ * is the example scene shipped with the raytracer, "synthetic-N" is a
+ * reproducible scene of N objects: a light, a floor plane and spheres
+ * of mixed diffuse, mirror and glass materials
+ */
+public class BenchmarkScenes {
+	/** Viewport of synthetic scenes */
+	public static final int SYNTHETIC_WIDTH = 400;
+	public static final int SYNTHETIC_HEIGHT = 300;
+	public static final int SYNTHETIC_DEPTH = 5;
+
+	private BenchmarkScenes() {}
+
+	/**
+	 * @return scene with @param name, either "scene.json" or "synthetic-N"
+	 */
+	public static Scene load(String name) throws IOException {
+		if(name.equals("scene.json")) {
+			try (Reader reader = new InputStreamReader(
+					BenchmarkScenes.class.getResourceAsStream("/raytracer/scene.json"), StandardCharsets.UTF_8)) {
+				return Main.loadScene(reader);
+			}
+		}
+		if(name.startsWith("synthetic-")) {
+			return synthetic(Integer.parseInt(name.substring("synthetic-".length())), 42);
+		}
+		throw new IllegalArgumentException("Unknown benchmark scene: " + name);
+	}
+
+	/**
+	 * @return scene of @param count objects placed randomly in front of
+	 * the camera, the same for every @param seed
+	 */
+	public static Scene synthetic(int count, long seed) {
+		Random random = new Random(seed);
+		Object[] objects = new Object[Math.max(count, 2)];
+		objects[0] = new Sphere(new Vector(0, 30, -30), 3, new Vector(0), 0, 0, 1, new Vector(3));
+		objects[1] = new Plane(new Vector(0, -10, -40), new Vector(0, 1, 0), 80, 60, new Vector(0.5), 0.2);
+
+		// keep spheres about as dense as 1000 spheres of radius 1 in the volume
+		double radius = Math.cbrt(1000.0 / Math.max(1, count - 2));
+		for(int i = 2; i < objects.length; i++) {
+			Vector center = new Vector(random.nextDouble() * 40 - 20, random.nextDouble() * 20 - 9, 
+					-15 - random.nextDouble() * 50);
+			Vector color = new Vector(random.nextDouble(), random.nextDouble(), random.nextDouble());
+			double r = radius * (0.5 + random.nextDouble());
+			double material = random.nextDouble();
+			if(material < 0.7) {
+				objects[i] = new Sphere(center, r, color, 0, 0, 1);
+			} else if(material < 0.9) {
+				objects[i] = new Sphere(center, r, color, 0, 0.9, 1);
+			} else {
+				objects[i] = new Sphere(center, r, color, 0.8, 0.2, 1.1);
+			}
+		}
+		return new Scene(SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT, SYNTHETIC_DEPTH, 60, new Vector(0.7, 0.8, 1), objects);
+	}
+
+	/**
+	 * @return @param count normalized primary ray directions through
+	 * random points of the viewport of @param scene, as x, y, z triples
+	 */
+	public static double[] primaryDirections(Scene scene, int count, long seed) {
+		Random random = new Random(seed);
+		int aspectRatio = scene.getWidth() / scene.getHeight();
+		double tanFov = Math.tan(0.5 * Math.PI * scene.getFov() / 180);
+		double[] dirs = new double[count * 3];
+		for(int i = 0; i < count; i++) {
+			double x = (2 * random.nextDouble() - 1) * tanFov * aspectRatio;
+			double y = (1 - 2 * random.nextDouble()) * tanFov;
+			double mag = Math.sqrt(x * x + y * y + 1);
+			dirs[i * 3] = x / mag;
+			dirs[i * 3 + 1] = y / mag;
+			dirs[i * 3 + 2] = -1 / mag;
+		}
+		return dirs;
+	}
+}
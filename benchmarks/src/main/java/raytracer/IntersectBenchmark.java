@@ -0,0 +1,80 @@
+package raytracer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * IntersectBenchmark Class - ray-sphere and ray-plane intersection
+ * throughput. Every invocation tests RAYS rays, so the reported
+ * operations per second are rays per second
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IntersectBenchmark {
+	static final int RAYS = 1024;
+
+	private Sphere sphere;
+	private Plane plane;
+	private double[] dirs;
+	private Ray[] rays;
+
+	@Setup
+	public void setup() {
+		sphere = new Sphere(new Vector(0, 0, -20), 4, new Vector(1), 0.5, 0.9, 1.1);
+		plane = new Plane(new Vector(0, -1, -10), new Vector(0, 1, 0.1), 6, 8, new Vector(0.5, 0, 0), 0.9);
+		Scene scene = BenchmarkScenes.synthetic(2, 1);
+		dirs = BenchmarkScenes.primaryDirections(scene, RAYS, 7);
+		rays = new Ray[RAYS];
+		for(int i = 0; i < RAYS; i++) {
+			rays[i] = new Ray(new Vector(0), new Vector(dirs[i * 3], dirs[i * 3 + 1], dirs[i * 3 + 2]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void sphereHitDistance(Blackhole bh) {
+		for(int i = 0; i < RAYS * 3; i += 3) {
+			bh.consume(sphere.hitDistance(0, 0, 0, dirs[i], dirs[i + 1], dirs[i + 2]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void sphereIntersectRay(Blackhole bh) {
+		for(Ray ray : rays) {
+			bh.consume(sphere.intersect(ray));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void planeHitDistance(Blackhole bh) {
+		for(int i = 0; i < RAYS * 3; i += 3) {
+			bh.consume(plane.hitDistance(0, 0, 0, dirs[i], dirs[i + 1], dirs[i + 2]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void planeIntersectRay(Blackhole bh) {
+		for(Ray ray : rays) {
+			bh.consume(plane.intersect(ray));
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RenderBenchmark Class - full drawScene runs. Operations are frames;
+ * the primaryRays counter reports primary rays (pixels) per second
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+	@Param({ "scene.json", "synthetic-10", "synthetic-1000", "synthetic-100000" })
+	public String scene;
+
+	@Param({ "PRIMITIVE", "OBJECT", "PACKET", "FLOAT", "ITERATIVE", "WAVEFRONT" })
+	public Renderer.Kernel kernel;
+
+	@Param({ "1" })
+	public int threads;
+
+	private Renderer renderer;
+
+	/** Rays counted per iteration, reported by JMH as a rate */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long primaryRays;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			primaryRays = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		renderer = new Renderer(BenchmarkScenes.load(scene), threads);
+		renderer.setKernel(kernel);
+	}
+
+	@TearDown
+	public void tearDown() {
+		renderer.close();
+	}
+
+	@Benchmark
+	public FrameBuffer drawScene(Counters counters) {
+		renderer.drawScene();
+		counters.primaryRays += (long) renderer.getWidth() * renderer.getHeight();
+		return renderer.getImage();
+	}
+}
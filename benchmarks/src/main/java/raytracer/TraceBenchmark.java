@@ -0,0 +1,86 @@
+package raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * TraceBenchmark Class - trace of primary rays through scene.json at
+ * different maximum ray depths, for the object kernel and the primitive
+ * kernel in double and in single precision. Every invocation
+ * traces RAYS primary rays, so operations per second are primary rays
+ * per second
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceBenchmark {
+	static final int RAYS = 1024;
+
+	@Param({ "1", "5", "25" })
+	public int depth;
+
+	@Param({ "PRIMITIVE", "OBJECT", "FLOAT" })
+	public Renderer.Kernel kernel;
+
+	private Renderer renderer;
+	private PrimitiveTracer tracer;
+	private PrimitiveTracer.Scratch scratch;
+	private FloatTracer floatTracer;
+	private FloatTracer.Scratch floatScratch;
+	private RenderMetrics.Counters counters = new RenderMetrics.Counters();
+	private double[] dirs;
+
+	@Setup
+	public void setup() throws IOException {
+		Scene scene = BenchmarkScenes.load("scene.json");
+		Object[] objects = scene.getObjects();
+		renderer = new Renderer(scene.getWidth(), scene.getHeight(), depth, scene.getFov(), 
+				scene.getBackgroundColor(), objects, 1);
+		tracer = new PrimitiveTracer(depth, scene.getBackgroundColor(), objects, new BVH(objects), 
+				Renderer.findLights(objects));
+		scratch = tracer.getScratch();
+		floatTracer = new FloatTracer(depth, scene.getBackgroundColor(), objects, new BVH(objects), 
+				Renderer.findLights(objects));
+		floatScratch = floatTracer.getScratch();
+		floatScratch.counters = counters;
+		dirs = BenchmarkScenes.primaryDirections(scene, RAYS, 7);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public void trace(Blackhole bh) {
+		if(kernel == Renderer.Kernel.PRIMITIVE) {
+			for(int i = 0; i < RAYS * 3; i += 3) {
+				tracer.trace(0, 0, 0, dirs[i], dirs[i + 1], dirs[i + 2], 0, scratch);
+				bh.consume(scratch.colors[0]);
+			}
+		} else if(kernel == Renderer.Kernel.FLOAT) {
+			for(int i = 0; i < RAYS * 3; i += 3) {
+				floatTracer.trace(0, 0, 0, (float) dirs[i], (float) dirs[i + 1], (float) dirs[i + 2], 0, floatScratch);
+				bh.consume(floatScratch.colors[0]);
+			}
+		} else {
+			for(int i = 0; i < RAYS * 3; i += 3) {
+				Ray ray = new Ray(new Vector(0), new Vector(dirs[i], dirs[i + 1], dirs[i + 2]));
+				bh.consume(renderer.trace(ray, 0, counters));
+			}
+		}
+	}
+}
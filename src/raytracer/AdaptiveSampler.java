@@ -0,0 +1,289 @@
+package raytracer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * AdaptiveSampler Class - decides how many samples every pixel of an
+ * image is traced with. Each pixel starts with a few samples; after
+ * that, rounds of extra samples go only to pixels that still look
+ * uncertain. A pixel is uncertain while the standard error of its
+ * samples' luminance is above the threshold, or, after the first
+ * samples, while its mean differs from a neighbor's by more than the
+ * threshold, which is where edges alias. Every round doubles the
+ * samples of the pixels it picks, taking them to at least four, up to
+ * the maximum.
+ * Samples lie at fixed positions within the pixel: the first at its
+ * center, the others on a Halton sequence, so images do not depend on
+ * the number of threads or on the order tiles are traced in. A sampler
+ * may cover only a window of the image, addressed in image coordinates
+ */
+public class AdaptiveSampler {
+	/** Luminance difference and error above which pixels get more samples */
+	public static final double DEFAULT_THRESHOLD = 0.02;
+
+	/** Samples a pixel has at least after its first round of extra samples */
+	private static final int FIRST_ROUND = 4;
+
+	/** Window of the image covered */
+	private final int originX;
+	private final int originY;
+	private final int width;
+	private final int height;
+	private final int minSamples;
+	private final int maxSamples;
+	private final double threshold;
+
+	/** Number of samples, and sums of their luminance and its square, per pixel */
+	private final int[] counts;
+	private final double[] lumSums;
+	private final double[] lumSquares;
+
+	/** Sum of the luminance of the first minSamples samples per pixel, which contrast is judged by */
+	private final double[] firstSums;
+
+	/** Samples every pixel gets in the current round */
+	private final int[] pending;
+
+	/**
+	 * Creates sampler of a width x height image, tracing @param minSamples
+	 * samples per pixel first and at most @param maxSamples in total, and
+	 * adding samples where error or contrast is above @param threshold
+	 */
+	public AdaptiveSampler(int width, int height, int minSamples, int maxSamples, double threshold) {
+		this(0, 0, width, height, minSamples, maxSamples, threshold);
+	}
+
+	/**
+	 * Creates sampler of the width x height window of an image whose top
+	 * left pixel is (x, y), with samples and threshold as above. Pixels
+	 * on the window's border have no neighbors beyond it
+	 */
+	public AdaptiveSampler(int x, int y, int width, int height, int minSamples, int maxSamples, double threshold) {
+		checkSampling(minSamples, maxSamples, threshold);
+		this.originX = x;
+		this.originY = y;
+		this.width = width;
+		this.height = height;
+		this.minSamples = minSamples;
+		this.maxSamples = maxSamples;
+		this.threshold = threshold;
+		this.counts = new int[width * height];
+		this.lumSums = new double[width * height];
+		this.lumSquares = new double[width * height];
+		this.firstSums = new double[width * height];
+		this.pending = new int[width * height];
+	}
+
+	/**
+	 * Throws IllegalArgumentException unless 1 <= @param minSamples <= @param maxSamples
+	 * and @param threshold is not negative
+	 */
+	public static void checkSampling(int minSamples, int maxSamples, double threshold) {
+		if(minSamples < 1 || maxSamples < minSamples || !(threshold >= 0)) {
+			throw new IllegalArgumentException("Samples must satisfy 1 <= min_samples <= max_samples "
+					+ "and the anti-aliasing threshold must not be negative.");
+		}
+	}
+
+	/** @return number of samples every pixel is traced with first */
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	/** @return largest number of samples a pixel is traced with */
+	public int getMaxSamples() {
+		return maxSamples;
+	}
+
+	/** @return luminance difference and error above which pixels get more samples */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/** Forgets the samples of every pixel */
+	public void clear() {
+		Arrays.fill(counts, 0);
+		Arrays.fill(lumSums, 0);
+		Arrays.fill(lumSquares, 0);
+		Arrays.fill(firstSums, 0);
+		Arrays.fill(pending, 0);
+	}
+
+	/** Forgets the samples of pixel (x, y) */
+	public void clear(int x, int y) {
+		int pixel = index(x, y);
+		counts[pixel] = 0;
+		lumSums[pixel] = 0;
+		lumSquares[pixel] = 0;
+		firstSums[pixel] = 0;
+		pending[pixel] = 0;
+	}
+
+	/** @return x offset within its pixel of sample @param k */
+	public static double offsetX(int k) {
+		return k == 0 ? 0.5 : radicalInverse(k, 2);
+	}
+
+	/** @return y offset within its pixel of sample @param k */
+	public static double offsetY(int k) {
+		return k == 0 ? 0.5 : radicalInverse(k, 3);
+	}
+
+	/** @return @param k with its digits in @param base mirrored around the point */
+	private static double radicalInverse(int k, int base) {
+		double inverse = 0;
+		double digit = 1.0 / base;
+		for(int i = k; i > 0; i /= base) {
+			inverse += (i % base) * digit;
+			digit /= base;
+		}
+		return inverse;
+	}
+
+	/**
+	 * Records sample of color r, g, b traced for pixel (x, y). Safe to call
+	 * concurrently for different pixels
+	 */
+	public void addSample(int x, int y, double r, double g, double b) {
+		int pixel = index(x, y);
+		double lum = luminance(r, g, b);
+		if(++counts[pixel] <= minSamples) {
+			firstSums[pixel] += lum;
+		}
+		lumSums[pixel] += lum;
+		lumSquares[pixel] += lum * lum;
+	}
+
+	/** @return number of samples traced for pixel (x, y) */
+	public int getCount(int x, int y) {
+		return counts[index(x, y)];
+	}
+
+	/** @return number of samples pixel (x, y) gets in the current round */
+	public int getPending(int x, int y) {
+		return pending[index(x, y)];
+	}
+
+	/** @return bytes putTile writes for @param pixels pixels */
+	public static int tileBytes(int pixels) {
+		return pixels * (Integer.BYTES + 3 * Double.BYTES);
+	}
+
+	/**
+	 * Writes the samples of pixels [x0, x1) x [y0, y1), row by row, to
+	 * @param out, e.g. to checkpoint a tile; getTile reads them back.
+	 * Samples planned for the next round are not written, as they are planned again
+	 */
+	public void putTile(ByteBuffer out, int x0, int y0, int x1, int y1) {
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				int pixel = index(x, y);
+				out.putInt(counts[pixel]).putDouble(lumSums[pixel]).putDouble(lumSquares[pixel])
+						.putDouble(firstSums[pixel]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the samples of pixels [x0, x1) x [y0, y1) with those putTile
+	 * wrote to @param in; they get no samples in the current round
+	 */
+	public void getTile(ByteBuffer in, int x0, int y0, int x1, int y1) {
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				int pixel = index(x, y);
+				counts[pixel] = in.getInt();
+				lumSums[pixel] = in.getDouble();
+				lumSquares[pixel] = in.getDouble();
+				firstSums[pixel] = in.getDouble();
+				pending[pixel] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Picks the pixels of [x0, x1) x [y0, y1) that get more samples in
+	 * the next round. Contrast with neighbors is only looked at in the
+	 * @param first round after the initial samples; later rounds go on
+	 * while the samples of a pixel disagree. Reads neighbors outside the
+	 * tile, so samples must not be added while rounds are planned
+	 * @return number of pixels picked
+	 */
+	public int plan(int x0, int y0, int x1, int y1, boolean first) {
+		int picked = 0;
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				if(plan(x, y, first)) {
+					picked++;
+				}
+			}
+		}
+		return picked;
+	}
+
+	/**
+	 * Decides whether pixel (x, y) gets more samples in the next round,
+	 * as plan does for a range of pixels
+	 * @return true if pixel is picked
+	 */
+	public boolean plan(int x, int y, boolean first) {
+		int pixel = index(x, y);
+		int count = counts[pixel];
+		pending[pixel] = 0;
+		if(count == 0 || count >= maxSamples) {
+			return false;
+		}
+		boolean uncertain = standardError(pixel) > threshold;
+		if(!uncertain && first) {
+			double mean = firstMean(pixel);
+			uncertain = differs(mean, x - 1, y) || differs(mean, x + 1, y)
+					|| differs(mean, x, y - 1) || differs(mean, x, y + 1);
+		}
+		if(uncertain) {
+			// fewer samples say little about their spread, so go to a few at once
+			pending[pixel] = Math.min(Math.max(count, FIRST_ROUND - count), maxSamples - count);
+		}
+		return uncertain;
+	}
+
+	/** @return true if mean luminance of pixel (x, y) differs from @param mean by more than the threshold */
+	private boolean differs(double mean, int x, int y) {
+		if(x < originX || y < originY || x >= originX + width || y >= originY + height) {
+			return false;
+		}
+		int pixel = index(x, y);
+		return counts[pixel] > 0 && Math.abs(firstMean(pixel) - mean) > threshold;
+	}
+
+	/**
+	 * @return mean luminance of the first samples of @param pixel, so that
+	 * contrast is judged the same whether or not neighbors got more since
+	 */
+	private double firstMean(int pixel) {
+		return firstSums[pixel] / Math.min(counts[pixel], minSamples);
+	}
+
+	/** @return index in the arrays of pixel (x, y) of the image */
+	private int index(int x, int y) {
+		return (y - originY) * width + x - originX;
+	}
+
+	/** @return standard error of the mean luminance of @param pixel, 0 with fewer than two samples */
+	private double standardError(int pixel) {
+		int n = counts[pixel];
+		if(n < 2) {
+			return 0;
+		}
+		double mean = lumSums[pixel] / n;
+		double variance = Math.max(0, (lumSquares[pixel] - n * mean * mean) / (n - 1));
+		return Math.sqrt(variance / n);
+	}
+
+	/** @return luminance of color as displayed, with components clamped to [0, 1] */
+	private static double luminance(double r, double g, double b) {
+		return 0.2126 * Math.min(1, Math.max(0, r))
+				+ 0.7152 * Math.min(1, Math.max(0, g))
+				+ 0.0722 * Math.min(1, Math.max(0, b));
+	}
+}
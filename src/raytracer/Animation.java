@@ -0,0 +1,198 @@
+package raytracer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Animation Class - keyframes of the properties of a scene that change
+ * over a sequence of frames. A property holds the value of its first
+ * keyframe until then, moves linearly from one keyframe to the next and
+ * holds the value of its last keyframe after it. Properties of objects
+ * are addressed by the index of the object in the scene; properties of
+ * the scene itself, the camera, field of view and background color, by
+ * object SCENE. Every value is kept as a vector, numbers in its x
+ */
+public class Animation {
+	/** Object index of the properties of the scene itself */
+	public static final int SCENE = -1;
+
+	/** Properties of objects: spheres and lights */
+	public static final int CENTER = 0;
+	public static final int RADIUS = 1;
+	public static final int COLOR = 2;
+	public static final int EMISSION_COLOR = 3;
+	public static final int TRANSPARENCY = 4;
+	public static final int REFLECTIVITY = 5;
+	/** Properties of instances */
+	public static final int TRANSLATE = 6;
+	public static final int ROTATE = 7;
+	public static final int SCALE = 8;
+	/** Properties of the scene */
+	public static final int CAMERA = 9;
+	public static final int FIELD_OF_VIEW = 10;
+	public static final int BACKGROUND_COLOR = 11;
+
+	/** Names of the properties in scene description files */
+	private static final String[] NAMES = { "center", "radius", "color", "emission_color",
+			"transparency", "reflectivity", "translate", "rotate", "scale", "camera",
+			"field_of_view", "background_color" };
+
+	private static final int PROPERTIES = NAMES.length;
+
+	/** Keyframes by frame of every property animated, by object and property */
+	private final Map<Integer, TreeMap<Integer, Vector>> tracks = new HashMap<>();
+
+	/** Objects with animated properties, in the order their first keyframe was added */
+	private final List<Integer> animated = new ArrayList<>();
+
+	private int lastFrame;
+
+	/**
+	 * Sets @param property of @param object to @param value in @param frame
+	 */
+	public void addKeyframe(int frame, int object, int property, Vector value) {
+		if(property < 0 || property >= PROPERTIES) {
+			throw new IllegalArgumentException("Unknown animated property " + property + ".");
+		}
+		if(frame < 0 || object < SCENE || (object == SCENE) != (property >= CAMERA)) {
+			throw new IllegalArgumentException("Keyframe " + frame + " of " + NAMES[property]
+					+ (object == SCENE ? " of the scene" : " of object " + object) + " is invalid.");
+		}
+		int key = track(object, property);
+		if(!tracks.containsKey(key)) {
+			tracks.put(key, new TreeMap<>());
+			if(object != SCENE && !animated.contains(object)) {
+				animated.add(object);
+			}
+		}
+		tracks.get(key).put(frame, value);
+		lastFrame = Math.max(lastFrame, frame);
+	}
+
+	/** @return property called @param name in scene description files, or -1 if it cannot be animated */
+	public static int property(String name) {
+		for(int property = 0; property < PROPERTIES; property++) {
+			if(NAMES[property].equals(name)) {
+				return property;
+			}
+		}
+		return -1;
+	}
+
+	/** @return last frame with a keyframe */
+	public int getLastFrame() {
+		return lastFrame;
+	}
+
+	/**
+	 * Throws IllegalArgumentException if a keyframe addresses an object
+	 * that is not among @param objects or a property its object lacks
+	 */
+	public void check(Object[] objects) {
+		for(int object : animated) {
+			if(object >= objects.length) {
+				throw new IllegalArgumentException("Keyframe of object " + object + ", but the scene has "
+						+ objects.length + " objects.");
+			}
+			// build the object once to find properties it does not have
+			animate(objects[object], object, 0);
+		}
+	}
+
+	/**
+	 * @return @param scene as it is in @param frame; objects that are not
+	 * animated are shared with scene
+	 */
+	public Scene apply(Scene scene, int frame) {
+		Object[] objects = scene.getObjects().clone();
+		for(int object : animated) {
+			objects[object] = animate(objects[object], object, frame);
+		}
+		Scene result = new Scene(scene.getWidth(), scene.getHeight(), scene.getMaxRayDepth(),
+				value(SCENE, FIELD_OF_VIEW, frame, new Vector(scene.getFov())).getX(),
+				value(SCENE, BACKGROUND_COLOR, frame, scene.getBackgroundColor()), objects);
+		result.setSampling(scene.getMinSamples(), scene.getMaxSamples(), scene.getAaThreshold());
+		result.setCamera(value(SCENE, CAMERA, frame, scene.getCamera()));
+		return result;
+	}
+
+	/**
+	 * @return copy of @param base, which is object @param index, with its
+	 * animated properties as they are in @param frame
+	 */
+	private Object animate(Object base, int index, int frame) {
+		if(base instanceof Sphere) {
+			Sphere sphere = (Sphere) base;
+			only(index, CENTER, RADIUS, COLOR, EMISSION_COLOR, TRANSPARENCY, REFLECTIVITY);
+			return new Sphere(value(index, CENTER, frame, sphere.getCenter()),
+					value(index, RADIUS, frame, new Vector(sphere.getRadius())).getX(),
+					value(index, COLOR, frame, sphere.getSurfaceColor()),
+					value(index, TRANSPARENCY, frame, new Vector(sphere.getTransparency())).getX(),
+					value(index, REFLECTIVITY, frame, new Vector(sphere.getReflectivity())).getX(),
+					sphere.getIdxOfRefrac(),
+					value(index, EMISSION_COLOR, frame, sphere.getEmissionColor()));
+		} else if(base instanceof Plane) {
+			Plane plane = (Plane) base;
+			only(index, CENTER, COLOR, REFLECTIVITY);
+			return new Plane(value(index, CENTER, frame, plane.getCenter()), plane.getNormal(),
+					plane.getWidth(), plane.getHeight(), value(index, COLOR, frame, plane.getSurfaceColor()),
+					value(index, REFLECTIVITY, frame, new Vector(plane.getReflectivity())).getX());
+		} else if(base instanceof Instance) {
+			Instance instance = (Instance) base;
+			Transform transform = instance.getTransform();
+			only(index, TRANSLATE, ROTATE, SCALE);
+			// the group, and the hierarchy built over it, is shared by every frame
+			return new Instance(instance.getGroup(), new Transform(
+					value(index, TRANSLATE, frame, transform.getTranslate()),
+					value(index, ROTATE, frame, transform.getRotate()),
+					value(index, SCALE, frame, new Vector(transform.getScale())).getX()));
+		}
+		throw new IllegalArgumentException("Object " + index + " cannot be animated; "
+				+ "place meshes in a group and animate an instance of it.");
+	}
+
+	/** Throws IllegalArgumentException if @param object has animated properties other than @param allowed */
+	private void only(int object, int... allowed) {
+		for(int property = 0; property < PROPERTIES; property++) {
+			if(!tracks.containsKey(track(object, property))) {
+				continue;
+			}
+			boolean found = false;
+			for(int p : allowed) {
+				found |= p == property;
+			}
+			if(!found) {
+				throw new IllegalArgumentException("Object " + object + " has no " + NAMES[property] + " to animate.");
+			}
+		}
+	}
+
+	/**
+	 * @return value of @param property of @param object in @param frame,
+	 * or @param fallback if the property is not animated
+	 */
+	private Vector value(int object, int property, int frame, Vector fallback) {
+		TreeMap<Integer, Vector> keys = tracks.get(track(object, property));
+		if(keys == null) {
+			return fallback;
+		}
+		Map.Entry<Integer, Vector> before = keys.floorEntry(frame);
+		Map.Entry<Integer, Vector> after = keys.ceilingEntry(frame);
+		if(before == null) {
+			return after.getValue();
+		}
+		if(after == null || after.getKey().equals(before.getKey())) {
+			return before.getValue();
+		}
+		double t = (double) (frame - before.getKey()) / (after.getKey() - before.getKey());
+		return before.getValue().scalarMult(1 - t).add(after.getValue().scalarMult(t));
+	}
+
+	/** @return key of track of @param property of @param object */
+	private static int track(int object, int property) {
+		return (object + 1) * PROPERTIES + property;
+	}
+}
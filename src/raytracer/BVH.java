@@ -0,0 +1,270 @@
+package raytracer;
+
+import java.util.ArrayList;
+
+/**
+ * BVH Class - bounding volume hierarchy over the objects of a scene.
+ * The tree is built once with the surface area heuristic (SAH), see
+ * BVHNodes, and answers nearest-hit and shadow queries without testing
+ * every object.
+ */
+public class BVH {
+	/** Number of entries a traversal stack passed to the queries needs */
+	public static final int STACK_SIZE = BVHNodes.MAX_DEPTH + 2;
+
+	/** Objects of scene, in their original order */
+	private Object[] objects;
+
+	/** RenderMetrics kind of every object, to count its intersection tests */
+	private byte[] kinds;
+
+	/** Indices into objects, reordered so each leaf covers a contiguous range */
+	private int[] primIndices;
+
+	/** Indices of objects without finite bounds, tested for every ray */
+	private int[] unbounded;
+
+	/** Nodes of the tree over objects with finite bounds */
+	private BVHNodes nodes;
+
+	/** Node arrays of nodes, see BVHNodes */
+	private double[] nodeBounds;
+	private int[] nodeOffset;
+	private int[] nodeCount;
+	private int[] nodeAxis;
+
+	/**
+	 * True if subtree holds planes or instances of them, whose intersect test also reports
+	 * hits behind the ray origin. Such nodes are not clipped at t = 0
+	 * by nearest-hit queries
+	 */
+	private boolean[] nodeTwoSided;
+
+	/** Structure-of-arrays form of objects and tree, compiled on first use */
+	private CompiledScene compiled;
+
+	/**
+	 * Builds hierarchy over @param objects
+	 */
+	public BVH(Object[] objects) {
+		this.objects = objects;
+		this.kinds = new byte[objects.length];
+		double[] bounds = new double[objects.length * 6];
+		boolean[] twoSided = new boolean[objects.length];
+
+		ArrayList<Integer> bounded = new ArrayList<>();
+		ArrayList<Integer> infinite = new ArrayList<>();
+		for(int i = 0; i < objects.length; i++) {
+			kinds[i] = (byte) RenderMetrics.kindOf(objects[i]);
+			twoSided[i] = objects[i].isTwoSided();
+			BoundingBox box = objects[i].getBoundingBox();
+			if(box.isFinite()) {
+				for(int axis = 0; axis < 3; axis++) {
+					bounds[i * 6 + axis] = box.getMin(axis);
+					bounds[i * 6 + 3 + axis] = box.getMax(axis);
+				}
+				bounded.add(i);
+			} else {
+				infinite.add(i);
+			}
+		}
+
+		unbounded = new int[infinite.size()];
+		for(int i = 0; i < unbounded.length; i++) {
+			unbounded[i] = infinite.get(i);
+		}
+		int[] prims = new int[bounded.size()];
+		for(int i = 0; i < prims.length; i++) {
+			prims[i] = bounded.get(i);
+		}
+
+		nodes = new BVHNodes(prims, bounds, twoSided);
+		primIndices = nodes.primIndices;
+		nodeBounds = nodes.nodeBounds;
+		nodeOffset = nodes.nodeOffset;
+		nodeCount = nodes.nodeCount;
+		nodeAxis = nodes.nodeAxis;
+		nodeTwoSided = nodes.nodeTwoSided;
+	}
+
+	/** @return objects of scene, in their original order */
+	Object[] getObjects() {
+		return objects;
+	}
+
+	/** @return RenderMetrics kind of every object */
+	byte[] getKinds() {
+		return kinds;
+	}
+
+	/** @return indices of objects without finite bounds */
+	int[] getUnbounded() {
+		return unbounded;
+	}
+
+	/** @return nodes of the tree over objects with finite bounds */
+	BVHNodes getNodes() {
+		return nodes;
+	}
+
+	/** @return objects and tree compiled for the primitive kernels, compiling them on the first call */
+	synchronized CompiledScene getCompiled() {
+		if(compiled == null) {
+			compiled = new CompiledScene(this);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Finds nearest object hit by @param ray and stores its distance
+	 * as the ray's tnear. Ties are broken by order of objects, so the
+	 * result is the same as testing every object in turn. Intersection
+	 * tests are counted in @param counters
+	 * @return object hit or null if ray hits nothing
+	 */
+	public Object nearest(Ray ray, RenderMetrics.Counters counters) {
+		Vector origin = ray.getOrigin();
+		Vector dir = ray.getDirection();
+		double[] tnear = new double[1];
+		int hit = nearest(origin.getX(), origin.getY(), origin.getZ(), 
+				dir.getX(), dir.getY(), dir.getZ(), new int[STACK_SIZE], tnear, counters);
+		if(hit < 0) {
+			return null;
+		}
+		ray.setTNear(tnear[0]);
+		return objects[hit];
+	}
+
+	/**
+	 * Finds nearest object hit by ray with origin o and direction d
+	 * without allocating; @param stack must hold STACK_SIZE entries.
+	 * Ties are broken by order of objects, so the result is the same
+	 * as testing every object in turn. Intersection tests are counted
+	 * in @param counters
+	 * @return index of object hit, with its distance stored in tnear[0],
+	 * or -1 if ray hits nothing
+	 */
+	public int nearest(double ox, double oy, double oz, double dx, double dy, double dz, int[] stack, double[] tnear, 
+			RenderMetrics.Counters counters) 
+	{
+		long[] tests = counters.tests;
+		double best = Double.MAX_VALUE;
+		int hit = -1;
+
+		for(int i : unbounded) {
+			tests[kinds[i]]++;
+			double t = objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+			if(t < best || (t == best && i < hit)) {
+				best = t;
+				hit = i;
+			}
+		}
+
+		if(primIndices.length > 0) {
+			double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+			int top = 0;
+			stack[top++] = 0;
+			while(top > 0) {
+				int node = stack[--top];
+				double tMin = nodeTwoSided[node] ? Double.NEGATIVE_INFINITY : 0;
+				if(!nodes.hitsNode(node, ox, oy, oz, invX, invY, invZ, tMin, best)) {
+					continue;
+				}
+
+				if(nodeCount[node] > 0) {
+					int first = nodeOffset[node];
+					for(int k = first; k < first + nodeCount[node]; k++) {
+						int i = primIndices[k];
+						tests[kinds[i]]++;
+						double t = objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+						if(t < best || (t == best && i < hit)) {
+							best = t;
+							hit = i;
+						}
+					}
+				} else {
+					// visit child on the near side of the split first
+					int left = node + 1;
+					int right = nodeOffset[node];
+					double d = nodeAxis[node] == 0 ? dx : nodeAxis[node] == 1 ? dy : dz;
+					if(d < 0) {
+						stack[top++] = left;
+						stack[top++] = right;
+					} else {
+						stack[top++] = right;
+						stack[top++] = left;
+					}
+				}
+			}
+		}
+
+		tnear[0] = best;
+		return hit;
+	}
+
+	/**
+	 * Any-hit shadow query; @param ray is left unchanged. Intersection
+	 * tests are counted in @param counters
+	 * @return true if any object other than objects[@param ignore]
+	 * blocks @param ray before it travels @param maxDistance
+	 */
+	public boolean occluded(Ray ray, int ignore, double maxDistance, RenderMetrics.Counters counters) {
+		Vector origin = ray.getOrigin();
+		Vector dir = ray.getDirection();
+		return occluded(origin.getX(), origin.getY(), origin.getZ(), 
+				dir.getX(), dir.getY(), dir.getZ(), ignore, maxDistance, new int[STACK_SIZE], counters);
+	}
+
+	/**
+	 * Any-hit shadow query without allocating, returning on the first 
+	 * blocker found; @param stack must hold STACK_SIZE entries. 
+	 * Intersection tests are counted in @param counters
+	 * @return true if any object other than objects[@param ignore]
+	 * blocks ray with origin o and direction d before it travels @param maxDistance
+	 */
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz, 
+			int ignore, double maxDistance, int[] stack, RenderMetrics.Counters counters) 
+	{
+		long[] tests = counters.tests;
+		for(int i : unbounded) {
+			if(i == ignore) {
+				continue;
+			}
+			tests[kinds[i]]++;
+			if(objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance)) {
+				return true;
+			}
+		}
+		if(primIndices.length == 0) {
+			return false;
+		}
+
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			if(!nodes.hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, maxDistance)) {
+				continue;
+			}
+
+			if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					int i = primIndices[k];
+					if(i == ignore) {
+						continue;
+					}
+					tests[kinds[i]]++;
+					if(objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return true;
+					}
+				}
+			} else {
+				stack[top++] = nodeOffset[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,290 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * BVHNodes Class - nodes of a bounding volume hierarchy over primitives
+ * given only by their boxes, built with the binned surface area heuristic
+ * (SAH). Nodes are stored in flat arrays in depth first order, so the
+ * left child of an inner node always directly follows its parent. The
+ * scene's BVH and every Mesh traverse their own BVHNodes
+ */
+class BVHNodes {
+	/** Number of centroid bins evaluated per axis when choosing a split */
+	private static final int BINS = 16;
+
+	/** Leaves are only split further when SAH says so, or above this size */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	/** Relative cost of visiting a node compared to intersecting a primitive */
+	private static final double TRAVERSAL_COST = 1;
+
+	/** Deepest tree the builder creates; traversal stack is sized from it */
+	static final int MAX_DEPTH = 64;
+
+	/** Primitive indices, reordered so each leaf covers a contiguous range */
+	final int[] primIndices;
+
+	/** Node boxes as minX, minY, minZ, maxX, maxY, maxZ */
+	double[] nodeBounds;
+
+	/** Leaf: first entry in primIndices. Inner node: index of right child */
+	int[] nodeOffset;
+
+	/** Leaf: number of primitives. Inner node: 0 */
+	int[] nodeCount;
+
+	/** Inner node: axis the children were split along */
+	int[] nodeAxis;
+
+	/** True if subtree holds a primitive flagged two sided when built */
+	boolean[] nodeTwoSided;
+
+	/** Number of nodes; 0 if there are no primitives */
+	int nodesUsed;
+
+	/** Build data */
+	private double[] primBounds;
+	private boolean[] primTwoSided;
+
+	/**
+	 * Builds hierarchy over primitives @param prims, where the box of
+	 * primitive p is primBounds[p * 6 .. p * 6 + 5] and @param primTwoSided
+	 * (which may be null) flags primitives that are hit behind the ray origin
+	 */
+	BVHNodes(int[] prims, double[] primBounds, boolean[] primTwoSided) {
+		this.primIndices = prims;
+		this.primBounds = primBounds;
+		this.primTwoSided = primTwoSided;
+
+		int maxNodes = Math.max(1, 2 * prims.length - 1);
+		nodeBounds = new double[maxNodes * 6];
+		nodeOffset = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodeAxis = new int[maxNodes];
+		nodeTwoSided = new boolean[maxNodes];
+		if(prims.length > 0) {
+			build(0, prims.length, 0);
+		}
+
+		// trim arrays to the nodes created; build data is not needed for traversal
+		nodeBounds = Arrays.copyOf(nodeBounds, nodesUsed * 6);
+		nodeOffset = Arrays.copyOf(nodeOffset, nodesUsed);
+		nodeCount = Arrays.copyOf(nodeCount, nodesUsed);
+		nodeAxis = Arrays.copyOf(nodeAxis, nodesUsed);
+		nodeTwoSided = Arrays.copyOf(nodeTwoSided, nodesUsed);
+		this.primBounds = null;
+		this.primTwoSided = null;
+	}
+
+	/**
+	 * Creates node over primIndices[start, end) and its subtree
+	 * @return index of created node
+	 */
+	private int build(int start, int end, int depth) {
+		int node = nodesUsed++;
+		int count = end - start;
+
+		// bounds of primitives and of their centroids
+		double[] bounds = emptyBox();
+		double[] cMin = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double[] cMax = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		boolean twoSided = false;
+		for(int i = start; i < end; i++) {
+			int prim = primIndices[i];
+			include(bounds, 0, primBounds, prim * 6);
+			twoSided |= primTwoSided != null && primTwoSided[prim];
+			for(int axis = 0; axis < 3; axis++) {
+				double centroid = centroid(prim, axis);
+				cMin[axis] = Math.min(cMin[axis], centroid);
+				cMax[axis] = Math.max(cMax[axis], centroid);
+			}
+		}
+		System.arraycopy(bounds, 0, nodeBounds, node * 6, 6);
+		nodeTwoSided[node] = twoSided;
+
+		if(count <= 2 || depth >= MAX_DEPTH) {
+			return makeLeaf(node, start, count);
+		}
+
+		// find cheapest split plane over binned centroids
+		double parentArea = surfaceArea(bounds, 0);
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestAxis = -1;
+		int bestBin = -1;
+		int[] binCount = new int[BINS];
+		double[] binBox = new double[BINS * 6];
+		double[] rightArea = new double[BINS];
+		int[] rightCount = new int[BINS];
+		double[] acc = new double[6];
+		for(int axis = 0; axis < 3; axis++) {
+			double extent = cMax[axis] - cMin[axis];
+			if(extent <= 0) {
+				continue;
+			}
+			Arrays.fill(binCount, 0);
+			for(int bin = 0; bin < BINS; bin++) {
+				setEmpty(binBox, bin * 6);
+			}
+			for(int i = start; i < end; i++) {
+				int prim = primIndices[i];
+				int bin = binOf(centroid(prim, axis), cMin[axis], extent);
+				binCount[bin]++;
+				include(binBox, bin * 6, primBounds, prim * 6);
+			}
+
+			// sweep from the right to get area and count of every right half
+			setEmpty(acc, 0);
+			int accCount = 0;
+			for(int bin = BINS - 1; bin > 0; bin--) {
+				accCount += binCount[bin];
+				if(binCount[bin] > 0) {
+					include(acc, 0, binBox, bin * 6);
+				}
+				rightArea[bin] = accCount == 0 ? 0 : surfaceArea(acc, 0);
+				rightCount[bin] = accCount;
+			}
+
+			// sweep from the left and evaluate split after each bin
+			setEmpty(acc, 0);
+			accCount = 0;
+			for(int bin = 0; bin < BINS - 1; bin++) {
+				accCount += binCount[bin];
+				if(binCount[bin] > 0) {
+					include(acc, 0, binBox, bin * 6);
+				}
+				if(accCount == 0 || rightCount[bin + 1] == 0) {
+					continue;
+				}
+				double cost = surfaceArea(acc, 0) * accCount + rightArea[bin + 1] * rightCount[bin + 1];
+				if(cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = bin;
+				}
+			}
+		}
+
+		// all centroids coincide; no split can separate the primitives
+		if(bestAxis < 0) {
+			return makeLeaf(node, start, count);
+		}
+
+		double splitCost = TRAVERSAL_COST + (parentArea > 0 ? bestCost / parentArea : count);
+		if(splitCost >= count && count <= MAX_LEAF_SIZE) {
+			return makeLeaf(node, start, count);
+		}
+
+		// partition primitives around chosen bin
+		double extent = cMax[bestAxis] - cMin[bestAxis];
+		int mid = start;
+		for(int i = start; i < end; i++) {
+			int prim = primIndices[i];
+			if(binOf(centroid(prim, bestAxis), cMin[bestAxis], extent) <= bestBin) {
+				primIndices[i] = primIndices[mid];
+				primIndices[mid] = prim;
+				mid++;
+			}
+		}
+
+		nodeAxis[node] = bestAxis;
+		nodeCount[node] = 0;
+		build(start, mid, depth + 1);
+		nodeOffset[node] = build(mid, end, depth + 1);
+		return node;
+	}
+
+	private int makeLeaf(int node, int start, int count) {
+		nodeOffset[node] = start;
+		nodeCount[node] = count;
+		return node;
+	}
+
+	private double centroid(int prim, int axis) {
+		return 0.5 * (primBounds[prim * 6 + axis] + primBounds[prim * 6 + 3 + axis]);
+	}
+
+	private static int binOf(double centroid, double min, double extent) {
+		int bin = (int) (BINS * (centroid - min) / extent);
+		return Math.min(BINS - 1, Math.max(0, bin));
+	}
+
+	private static double[] emptyBox() {
+		double[] box = new double[6];
+		setEmpty(box, 0);
+		return box;
+	}
+
+	private static void setEmpty(double[] box, int b) {
+		for(int axis = 0; axis < 3; axis++) {
+			box[b + axis] = Double.POSITIVE_INFINITY;
+			box[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/** Grows box at box[b] to enclose box at from[f] */
+	private static void include(double[] box, int b, double[] from, int f) {
+		for(int axis = 0; axis < 3; axis++) {
+			box[b + axis] = Math.min(box[b + axis], from[f + axis]);
+			box[b + 3 + axis] = Math.max(box[b + 3 + axis], from[f + 3 + axis]);
+		}
+	}
+
+	private static double surfaceArea(double[] box, int b) {
+		double dx = box[b + 3] - box[b];
+		double dy = box[b + 4] - box[b + 1];
+		double dz = box[b + 5] - box[b + 2];
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * @return for every node the index of the first node after its
+	 * subtree, so the tree can be walked without a stack: on a box hit
+	 * continue at node + 1, on a miss or after a leaf at the skip index
+	 */
+	int[] skipLinks() {
+		int[] skip = new int[nodesUsed];
+		if(nodesUsed > 0) {
+			skip[0] = nodesUsed;
+		}
+		// parents come before their children, so skip[node] is known here
+		for(int node = 0; node < nodesUsed; node++) {
+			if(nodeCount[node] == 0) {
+				// left child ends where right child starts
+				skip[node + 1] = nodeOffset[node];
+				skip[nodeOffset[node]] = skip[node];
+			}
+		}
+		return skip;
+	}
+
+	/**
+	 * @return true if ray with origin o and inverse direction inv passes
+	 * through box of @param node for some t between tMin and tMax
+	 */
+	boolean hitsNode(int node, double ox, double oy, double oz,
+			double invX, double invY, double invZ, double tMin, double tMax)
+	{
+		int b = node * 6;
+		double t1 = (nodeBounds[b] - ox) * invX;
+		double t2 = (nodeBounds[b + 3] - ox) * invX;
+		// NaN bounds come from rays parallel to a face and are ignored
+		if(t1 > t2) { double tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[b + 1] - oy) * invY;
+		t2 = (nodeBounds[b + 4] - oy) * invY;
+		if(t1 > t2) { double tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[b + 2] - oz) * invZ;
+		t2 = (nodeBounds[b + 5] - oz) * invZ;
+		if(t1 > t2) { double tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		return tMin <= tMax;
+	}
+}
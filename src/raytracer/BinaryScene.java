@@ -0,0 +1,406 @@
+package raytracer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * BinaryScene Class - compact, versioned binary form of a scene
+ * description. Files are memory-mapped when read, and numbers are read
+ * straight from the mapping without copying or parsing text.
+ * All values are little endian. The file starts with a HEADER_SIZE header:
+ *   "RSCN", int version, int width, int height, int max ray depth,
+ *   int flags (HAS_SCENE if a "scene" entry was given), double field of
+ *   view, double background r, g, b and long number of entries.
+ * Each entry then is an int type and an int that is unused except by
+ * entries that end in a string, followed by doubles:
+ *   LIGHT:  center x, y, z, radius, emission r, g, b
+ *   SPHERE: center x, y, z, radius, color r, g, b, transparency,
+ *           reflectivity, index of refraction
+ *   PLANE:  center x, y, z, normal x, y, z, width, height,
+ *           color r, g, b, reflectivity
+ *   MESH:     center x, y, z, scale, color r, g, b, transparency,
+ *             reflectivity, index of refraction; string absolute path
+ *             of the OBJ file
+ *   GROUP:    string name of group following entries belong to, or
+ *             no string (length -1) for entries of the scene itself
+ *   INSTANCE: translate x, y, z, rotate x, y, z, scale; string name of
+ *             group placed
+ *   SAMPLING: min samples, max samples, anti-aliasing threshold
+ *   CAMERA:   position x, y, z
+ *   FRAMES:   number of frames of sequence
+ *   KEYFRAME: frame, object, property, value x, y, z
+ * Strings are UTF-8 whose length in bytes is the entry's int, padded
+ * with zeros to a multiple of 8 bytes.
+ * Colors are stored as ratios, the same way Vector holds them. Files of
+ * earlier versions, which lack MESH (before 2), GROUP and INSTANCE
+ * (before 3), SAMPLING (before 4) or CAMERA, FRAMES and KEYFRAME entries
+ * (before 5), are read as well
+ */
+public class BinaryScene {
+	/** First four bytes of every binary scene file */
+	private static final byte[] MAGIC = { 'R', 'S', 'C', 'N' };
+
+	/** Version of the format written; files of newer versions are rejected */
+	public static final int VERSION = 5;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int HAS_SCENE = 1;
+
+	/** Entry types */
+	private static final int LIGHT = 1;
+	private static final int SPHERE = 2;
+	private static final int PLANE = 3;
+	private static final int MESH = 4;
+	private static final int GROUP = 5;
+	private static final int INSTANCE = 6;
+	private static final int SAMPLING = 7;
+	private static final int CAMERA = 8;
+	private static final int FRAMES = 9;
+	private static final int KEYFRAME = 10;
+
+	/** Size in bytes of the largest entry of fixed size */
+	private static final int MAX_ENTRY_SIZE = 8 + 13 * 8;
+
+	private BinaryScene() {}
+
+	/**
+	 * @return true if @param file starts with the binary scene magic number
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		if(!file.isFile()) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			while(magic.hasRemaining() && channel.read(magic) >= 0) {
+				// read until full or end of file
+			}
+			magic.flip();
+			return magic.remaining() == MAGIC.length && magic.equals(ByteBuffer.wrap(MAGIC));
+		}
+	}
+
+	/**
+	 * Memory-maps binary scene @param file and passes its entries to
+	 * @param listener in the order they were written
+	 */
+	public static void read(File file, SceneListener listener) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Binary scene larger than 2 GB: " + file.getName());
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			try {
+				read(map, listener);
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Truncated binary scene: " + file.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Passes entries of the binary scene in @param bytes to @param listener
+	 * in the order they were written, e.g. for a scene sent over a socket
+	 */
+	public static void read(byte[] bytes, SceneListener listener) throws IOException {
+		try {
+			read(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), listener);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated binary scene.", e);
+		}
+	}
+
+	/**
+	 * Reads only the header of the binary scene in @param bytes
+	 * @return width and height of the viewport, 0 x 0 without a "scene" entry
+	 */
+	public static int[] viewport(byte[] bytes) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		if(bytes.length < HEADER_SIZE || !ByteBuffer.wrap(bytes, 0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+			throw new IOException("Not a binary scene file.");
+		}
+		return new int[] { in.getInt(8), in.getInt(12) };
+	}
+
+	private static void read(ByteBuffer in, SceneListener listener) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.get(magic);
+		if(!ByteBuffer.wrap(magic).equals(ByteBuffer.wrap(MAGIC))) {
+			throw new IOException("Not a binary scene file.");
+		}
+		int version = in.getInt();
+		if(version < 1 || version > VERSION) {
+			throw new IOException("Unsupported binary scene version " + version + ".");
+		}
+		int width = in.getInt();
+		int height = in.getInt();
+		int maxRayDepth = in.getInt();
+		int flags = in.getInt();
+		double fov = in.getDouble();
+		Vector backgroundColor = getVector(in);
+		long entries = in.getLong();
+		if((flags & HAS_SCENE) != 0) {
+			listener.scene(width, height, maxRayDepth, fov, backgroundColor);
+		}
+
+		for(long i = 0; i < entries; i++) {
+			int type = in.getInt();
+			int length = in.getInt(); // unused except by MESH
+			if(type == LIGHT) {
+				listener.light(getVector(in), in.getDouble(), getVector(in));
+			} else if(type == SPHERE) {
+				listener.sphere(getVector(in), in.getDouble(), getVector(in),
+						in.getDouble(), in.getDouble(), in.getDouble());
+			} else if(type == PLANE) {
+				listener.plane(getVector(in), getVector(in), in.getDouble(), in.getDouble(),
+						getVector(in), in.getDouble());
+			} else if(type == MESH) {
+				Vector center = getVector(in);
+				double scale = in.getDouble();
+				Vector color = getVector(in);
+				double transparency = in.getDouble();
+				double reflectivity = in.getDouble();
+				double idxOfRefrac = in.getDouble();
+				listener.mesh(getString(in, length), center, scale, color,
+						transparency, reflectivity, idxOfRefrac);
+			} else if(type == GROUP) {
+				listener.group(length == -1 ? null : getString(in, length));
+			} else if(type == INSTANCE) {
+				Vector translate = getVector(in);
+				Vector rotate = getVector(in);
+				double scale = in.getDouble();
+				listener.instance(getString(in, length), translate, rotate, scale);
+			} else if(type == SAMPLING) {
+				listener.sampling((int) in.getDouble(), (int) in.getDouble(), in.getDouble());
+			} else if(type == CAMERA) {
+				listener.camera(getVector(in));
+			} else if(type == FRAMES) {
+				listener.frames((int) in.getDouble());
+			} else if(type == KEYFRAME) {
+				listener.keyframe((int) in.getDouble(), (int) in.getDouble(), (int) in.getDouble(), getVector(in));
+			} else {
+				throw new IOException("Unknown binary scene entry type " + type + ".");
+			}
+		}
+	}
+
+	/** @return number of zero bytes following @param length bytes to reach a multiple of 8 */
+	private static int padding(int length) {
+		return -length & 7;
+	}
+
+	/** @return padded string of @param length bytes read from @param in */
+	private static String getString(ByteBuffer in, int length) throws IOException {
+		if(length < 0) {
+			throw new IOException("Invalid binary scene string length " + length + ".");
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		in.position(in.position() + padding(length));
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Vector getVector(ByteBuffer in) {
+		double x = in.getDouble();
+		double y = in.getDouble();
+		double z = in.getDouble();
+		return new Vector(x, y, z);
+	}
+
+	/**
+	 * Writer Class - writes the entries it is passed to a binary scene
+	 * file as they arrive. The header is written when the writer is closed
+	 */
+	public static class Writer implements SceneListener, Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private final File baseDir;
+		private long entries;
+
+		/** Creates writer replacing @param file */
+		public Writer(File file) throws IOException {
+			this(file, null);
+		}
+
+		/**
+		 * Creates writer replacing @param file, which stores mesh files
+		 * relative to @param baseDir as absolute paths
+		 */
+		public Writer(File file, File baseDir) throws IOException {
+			this.baseDir = baseDir;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			channel.position(HEADER_SIZE);
+			// defaults used when no "scene" entry is passed
+			header.put(MAGIC).putInt(VERSION).putInt(0).putInt(0).putInt(0).putInt(0).putDouble(75);
+			putVector(header, new Vector(0));
+		}
+
+		@Override
+		public void scene(int width, int height, int maxRayDepth, double fov, Vector backgroundColor) {
+			header.position(8);
+			header.putInt(width).putInt(height).putInt(maxRayDepth).putInt(HAS_SCENE).putDouble(fov);
+			putVector(header, backgroundColor);
+		}
+
+		@Override
+		public void sampling(int minSamples, int maxSamples, double threshold) {
+			startEntry(SAMPLING);
+			buffer.putDouble(minSamples).putDouble(maxSamples).putDouble(threshold);
+		}
+
+		@Override
+		public void camera(Vector position) {
+			startEntry(CAMERA);
+			putVector(buffer, position);
+		}
+
+		@Override
+		public void frames(int frames) {
+			startEntry(FRAMES);
+			buffer.putDouble(frames);
+		}
+
+		@Override
+		public void keyframe(int frame, int object, int property, Vector value) {
+			startEntry(KEYFRAME);
+			buffer.putDouble(frame).putDouble(object).putDouble(property);
+			putVector(buffer, value);
+		}
+
+		@Override
+		public void light(Vector center, double radius, Vector emissionColor) {
+			startEntry(LIGHT);
+			putVector(buffer, center);
+			buffer.putDouble(radius);
+			putVector(buffer, emissionColor);
+		}
+
+		@Override
+		public void sphere(Vector center, double radius, Vector color, double transparency, double reflectivity, double idxOfRefrac) {
+			startEntry(SPHERE);
+			putVector(buffer, center);
+			buffer.putDouble(radius);
+			putVector(buffer, color);
+			buffer.putDouble(transparency).putDouble(reflectivity).putDouble(idxOfRefrac);
+		}
+
+		@Override
+		public void plane(Vector center, Vector normal, double width, double height, Vector color, double reflectivity) {
+			startEntry(PLANE);
+			putVector(buffer, center);
+			putVector(buffer, normal);
+			buffer.putDouble(width).putDouble(height);
+			putVector(buffer, color);
+			buffer.putDouble(reflectivity);
+		}
+
+		@Override
+		public void mesh(String file, Vector center, double scale, Vector color, double transparency, double reflectivity, double idxOfRefrac) {
+			byte[] path = SceneLoader.resolve(baseDir, file).getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+			startEntry(MESH, path, 10);
+			putVector(buffer, center);
+			buffer.putDouble(scale);
+			putVector(buffer, color);
+			buffer.putDouble(transparency).putDouble(reflectivity).putDouble(idxOfRefrac);
+			putString(path);
+		}
+
+		@Override
+		public void group(String name) {
+			if(name == null) {
+				startEntry(GROUP, -1, 8);
+			} else {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				startEntry(GROUP, bytes, 0);
+				putString(bytes);
+			}
+		}
+
+		@Override
+		public void instance(String group, Vector translate, Vector rotate, double scale) {
+			byte[] name = group.getBytes(StandardCharsets.UTF_8);
+			startEntry(INSTANCE, name, 7);
+			putVector(buffer, translate);
+			putVector(buffer, rotate);
+			buffer.putDouble(scale);
+			putString(name);
+		}
+
+		/** Starts entry of @param type with @param doubles doubles that ends in string @param bytes */
+		private void startEntry(int type, byte[] bytes, int doubles) {
+			int size = 8 + doubles * 8 + bytes.length + padding(bytes.length);
+			if(size > buffer.capacity()) {
+				throw new UncheckedIOException(new IOException("Binary scene string too long: "
+						+ new String(bytes, StandardCharsets.UTF_8)));
+			}
+			startEntry(type, bytes.length, size);
+		}
+
+		private void putString(byte[] bytes) {
+			buffer.put(bytes);
+			buffer.put(new byte[padding(bytes.length)]);
+		}
+
+		private void startEntry(int type) {
+			startEntry(type, 0, MAX_ENTRY_SIZE);
+		}
+
+		/** Starts entry of @param type whose int is @param value and that takes up to @param size bytes */
+		private void startEntry(int type, int value, int size) {
+			if(buffer.remaining() < size) {
+				flush();
+			}
+			buffer.putInt(type).putInt(value);
+			entries++;
+		}
+
+		/** Writes buffered entries, rethrowing failures unchecked as listeners cannot throw */
+		private void flush() {
+			try {
+				writeBuffer();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void writeBuffer() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/** Writes remaining entries and the header, then closes the file */
+		@Override
+		public void close() throws IOException {
+			try {
+				writeBuffer();
+				header.putLong(HEADER_SIZE - 8, entries);
+				header.clear();
+				while(header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		private static void putVector(ByteBuffer out, Vector v) {
+			out.putDouble(v.getX()).putDouble(v.getY()).putDouble(v.getZ());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package raytracer;
+
+/**
+ * BoundingBox Class - axis aligned box enclosing a scene object.
+ * Used to build the bounding volume hierarchy of the scene
+ */
+public class BoundingBox {
+	/** Box that encloses all of space, used for objects without finite bounds */
+	public static final BoundingBox INFINITE = new BoundingBox(
+			Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	
+	private double minX, minY, minZ;
+	private double maxX, maxY, maxZ;
+	
+	/**
+	 * Creates box with corners at the passed in minimum and maximum components
+	 */
+	public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+	
+	/**
+	 * Creates box centered at @param center with half-size @param extent along each axis
+	 */
+	public BoundingBox(Vector center, Vector extent) {
+		this(center.getX() - extent.getX(), center.getY() - extent.getY(), center.getZ() - extent.getZ(),
+				center.getX() + extent.getX(), center.getY() + extent.getY(), center.getZ() + extent.getZ());
+	}
+	
+	/** @return smallest box enclosing this box and @param b */
+	public BoundingBox union(BoundingBox b) {
+		return new BoundingBox(Math.min(minX, b.minX), Math.min(minY, b.minY), Math.min(minZ, b.minZ),
+				Math.max(maxX, b.maxX), Math.max(maxY, b.maxY), Math.max(maxZ, b.maxZ));
+	}
+	
+	/** @return box grown by @param pad on every side */
+	public BoundingBox expand(double pad) {
+		return new BoundingBox(minX - pad, minY - pad, minZ - pad, maxX + pad, maxY + pad, maxZ + pad);
+	}
+	
+	/** @return true if every component of the box is finite */
+	public boolean isFinite() {
+		return Double.isFinite(minX) && Double.isFinite(minY) && Double.isFinite(minZ)
+				&& Double.isFinite(maxX) && Double.isFinite(maxY) && Double.isFinite(maxZ);
+	}
+	
+	/** @return surface area of box, used by the surface area heuristic */
+	public double surfaceArea() {
+		double dx = maxX - minX;
+		double dy = maxY - minY;
+		double dz = maxZ - minZ;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+	
+	/** @return minimum of box along @param axis (0 = x, 1 = y, 2 = z) */
+	public double getMin(int axis) {
+		return axis == 0 ? minX : axis == 1 ? minY : minZ;
+	}
+	
+	/** @return maximum of box along @param axis (0 = x, 1 = y, 2 = z) */
+	public double getMax(int axis) {
+		return axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+	}
+	
+	/** @return center of box along @param axis */
+	public double getCentroid(int axis) {
+		return 0.5 * (getMin(axis) + getMax(axis));
+	}
+	
+	/**
+	 * @return String representation of box
+	 */
+	@Override
+	public String toString() {
+		return "[(" + minX + ", " + minY + ", " + minZ + "), (" + maxX + ", " + maxY + ", " + maxZ + ")]";
+	}
+}
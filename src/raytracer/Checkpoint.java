@@ -0,0 +1,239 @@
+package raytracer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint Class - append-only log of the tiles a render has finished,
+ * kept in a memory-mapped file so a render killed part way can resume.
+ * A record holds the round of the render a tile was finished in and the
+ * tile's pixels and samples as the renderer saved them, see
+ * Renderer.setCheckpoint. Render threads only copy a tile into a record;
+ * records are appended to the mapping by a writer thread of the
+ * checkpoint's own, which forces the mapping to disk at most once per
+ * flush interval. A record is checked against a CRC when the file is
+ * opened again, so records torn by a crash are dropped along with any
+ * after them, and the file is only resumed if its key, e.g. a hash of
+ * the scene and render options, is the one it was written with
+ */
+public class Checkpoint implements Closeable {
+	/** Default milliseconds between forcing appended records to disk */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/** Identifies checkpoint files, "RCKP" */
+	private static final int MAGIC = 0x52434B50;
+	private static final int VERSION = 1;
+
+	/** Bytes of keys, hexadecimal SHA-256 digests */
+	private static final int KEY_BYTES = 64;
+
+	/** Bytes of the file header: magic, version and key */
+	private static final int HEADER = 8 + KEY_BYTES;
+
+	/** Bytes of a record before its data: length of the data, CRC of round, tile and data, round, tile */
+	private static final int RECORD_HEADER = 16;
+
+	/** Bytes mapped at a time for appending */
+	private static final long CHUNK = 16 << 20;
+
+	private final FileChannel channel;
+	private final long flushInterval;
+
+	/** Data of the records read when the file was opened, by round and tile */
+	private final Map<Long, ByteBuffer> records = new HashMap<>();
+
+	/** Appends records in the order they are handed over */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "checkpoint-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Region of the file mapped for appending and where it starts; used by the writer thread only */
+	private MappedByteBuffer map;
+	private long mapStart;
+	/** End of the records in the file */
+	private long end;
+	private long forcedAt;
+
+	/** First error appending a record, reported by close */
+	private volatile IOException failure;
+
+	/**
+	 * Opens checkpoint @param file, creating it if needed, forcing records
+	 * appended to disk every DEFAULT_FLUSH_INTERVAL milliseconds. Records
+	 * already in it are resumed if it was written with @param key,
+	 * a hexadecimal SHA-256 digest; otherwise it is started over
+	 */
+	public Checkpoint(File file, String key) throws IOException {
+		this(file, key, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Opens checkpoint like the constructor above, forcing records to disk
+	 * every @param flushInterval milliseconds
+	 */
+	public Checkpoint(File file, String key, long flushInterval) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+		if(keyBytes.length != KEY_BYTES) {
+			throw new IllegalArgumentException("Checkpoint keys are SHA-256 digests: " + key);
+		}
+		this.flushInterval = flushInterval;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if(!resume(keyBytes)) {
+				records.clear();
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER);
+				header.putInt(MAGIC).putInt(VERSION).put(keyBytes).flip();
+				while(header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				end = HEADER;
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		forcedAt = System.nanoTime();
+	}
+
+	/**
+	 * Reads the records of the file up to the first one that is incomplete
+	 * or damaged, where appending then goes on
+	 * @return false if the file is not a checkpoint written with @param key
+	 */
+	private boolean resume(byte[] key) throws IOException {
+		long size = channel.size();
+		if(size < HEADER) {
+			return false;
+		}
+		MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+			return false;
+		}
+		for(int i = 0; i < KEY_BYTES; i++) {
+			if(data.get(8 + i) != key[i]) {
+				return false;
+			}
+		}
+		// positions in the mapping are ints, so resume what the first 2 GB hold
+		long limit = Math.min(size, Integer.MAX_VALUE);
+		int position = HEADER;
+		CRC32 crc = new CRC32();
+		while(position + RECORD_HEADER <= limit) {
+			int length = data.getInt(position);
+			if(length <= 0 || position + RECORD_HEADER + (long) length > limit) {
+				break;
+			}
+			crc.reset();
+			crc.update(data.slice(position + 8, 8 + length));
+			if((int) crc.getValue() != data.getInt(position + 4)) {
+				break;
+			}
+			records.put(recordKey(data.getInt(position + 8), data.getInt(position + 12)),
+					data.slice(position + RECORD_HEADER, length));
+			position += RECORD_HEADER + length;
+		}
+		end = position;
+		return true;
+	}
+
+	/** @return key of the record of @param tile finished in @param round */
+	private static long recordKey(int round, int tile) {
+		return (long) round << 32 | (tile & 0xffffffffL);
+	}
+
+	/** @return number of records read when the checkpoint was opened */
+	public int getResumedRecords() {
+		return records.size();
+	}
+
+	/**
+	 * @return data of the record of @param tile finished in @param round
+	 * read when the checkpoint was opened, or null if there is none
+	 */
+	public ByteBuffer get(int round, int tile) {
+		ByteBuffer data = records.get(recordKey(round, tile));
+		return data != null ? data.duplicate() : null;
+	}
+
+	/**
+	 * Hands record of @param tile finished in @param round holding
+	 * @param data to the writer thread and returns without waiting for it
+	 */
+	public void append(int round, int tile, byte[] data) {
+		writer.execute(() -> {
+			try {
+				write(round, tile, data);
+			} catch (IOException e) {
+				if(failure == null) {
+					failure = e;
+				}
+			}
+		});
+	}
+
+	/** Appends record to the file through the mapping, mapping the next region if it is full */
+	private void write(int round, int tile, byte[] data) throws IOException {
+		int length = RECORD_HEADER + data.length;
+		if(map == null || end + length > mapStart + map.capacity()) {
+			mapStart = end;
+			map = channel.map(FileChannel.MapMode.READ_WRITE, mapStart, Math.max(CHUNK, length));
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer ids = ByteBuffer.allocate(8).putInt(round).putInt(tile);
+		crc.update(ids.array());
+		crc.update(data);
+		map.position((int) (end - mapStart));
+		map.putInt(data.length).putInt((int) crc.getValue()).putInt(round).putInt(tile).put(data);
+		end += length;
+		if(System.nanoTime() - forcedAt > flushInterval * 1000000) {
+			map.force();
+			forcedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Waits for the records handed over to be appended, forces them to
+	 * disk and closes the file. Throws the first error appending a record
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if(map != null) {
+				map.force();
+			}
+			// the mapped region may reach past the records; readers stop at its zeros anyway
+			channel.truncate(end);
+		} catch (IOException e) {
+			if(failure == null) {
+				failure = e;
+			}
+		} finally {
+			channel.close();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,506 @@
+package raytracer;
+
+/**
+ * CompiledScene Class - the objects of a scene and their BVH compiled
+ * into structure-of-arrays form for the primitive kernels. Spheres and
+ * planes are copied into flat double arrays in the order the leaves of
+ * the hierarchy list them, and every leaf is split into a range of
+ * spheres, a range of planes and a range of other objects, so a leaf is
+ * intersected by loops that each test one kind of primitive, reading
+ * memory in order, without calls through Object. Plane frames are the
+ * ones the Plane computed, with their half extents. Colors and materials
+ * of all objects are kept in a table indexed by object. Meshes, instances
+ * and objects of other classes keep their own tests. Hits are the ones
+ * BVH gives, ties going to the lower object index.
+ * The Object classes stay what scenes are built from; a scene is
+ * compiled once, when its BVH is first traced by a PrimitiveTracer
+ */
+public class CompiledScene {
+	/** Doubles per sphere: center, radius */
+	static final int SPHERE = 4;
+
+	/** Doubles per plane: center, normal, axes along width and height, half width, half height */
+	static final int PLANE = 14;
+
+	/** Doubles per object in the material table: color, emission, transparency, reflectivity, refractive index */
+	static final int MATERIAL = 9;
+
+	/** Offsets of a material's values */
+	static final int COLOR = 0;
+	static final int EMISSION = 3;
+	static final int TRANSPARENCY = 6;
+	static final int REFLECTIVITY = 7;
+	static final int REFRACTION = 8;
+
+	/** Kinds of objects, as compiled */
+	static final byte TYPE_SPHERE = 0;
+	static final byte TYPE_PLANE = 1;
+	static final byte TYPE_OTHER = 2;
+
+	/** Ints per node of leafRanges: first and end of its spheres, planes and other objects */
+	private static final int RANGES = 6;
+
+	private final Object[] objects;
+	private final byte[] kinds;
+	private final int[] unbounded;
+	private final BVHNodes nodes;
+	private final int[] nodeOffset;
+	private final int[] nodeCount;
+	private final int[] nodeAxis;
+	private final boolean[] nodeTwoSided;
+
+	/** Kind of every object, TYPE_SPHERE, TYPE_PLANE or TYPE_OTHER */
+	private final byte[] types;
+
+	/** Where in spheres or planes every sphere or plane is */
+	private final int[] slots;
+
+	/** Leaf ranges of every node, RANGES ints each; only leaves have them */
+	private final int[] leafRanges;
+
+	/** Spheres and planes in leaf order, and the object each is */
+	private final double[] spheres;
+	private final int[] sphereObjects;
+	private final double[] planes;
+	private final int[] planeObjects;
+
+	/** Other objects in leaf order */
+	private final int[] others;
+
+	/** Material of every object, MATERIAL doubles each */
+	private final double[] materials;
+
+	/**
+	 * Compiles the objects of @param bvh and its hierarchy
+	 */
+	CompiledScene(BVH bvh) {
+		this.objects = bvh.getObjects();
+		this.kinds = bvh.getKinds();
+		this.unbounded = bvh.getUnbounded();
+		this.nodes = bvh.getNodes();
+		this.nodeOffset = nodes.nodeOffset;
+		this.nodeCount = nodes.nodeCount;
+		this.nodeAxis = nodes.nodeAxis;
+		this.nodeTwoSided = nodes.nodeTwoSided;
+
+		int n = objects.length;
+		types = new byte[n];
+		slots = new int[n];
+		materials = new double[n * MATERIAL];
+		int sphereCount = 0, planeCount = 0;
+		for(int i = 0; i < n; i++) {
+			Object object = objects[i];
+			// subclasses may intersect differently
+			if(object.getClass() == Sphere.class) {
+				types[i] = TYPE_SPHERE;
+				sphereCount++;
+			} else if(object.getClass() == Plane.class) {
+				types[i] = TYPE_PLANE;
+				planeCount++;
+			} else {
+				types[i] = TYPE_OTHER;
+			}
+			putMaterial(materials, i * MATERIAL, object);
+		}
+		spheres = new double[sphereCount * SPHERE];
+		sphereObjects = new int[sphereCount];
+		planes = new double[planeCount * PLANE];
+		planeObjects = new int[planeCount];
+		others = new int[nodes.primIndices.length];
+		leafRanges = new int[nodes.nodesUsed * RANGES];
+
+		// copy leaf by leaf, each leaf's spheres, then planes, then others
+		int[] next = new int[3];
+		for(int node = 0; node < nodes.nodesUsed; node++) {
+			if(nodeCount[node] == 0) {
+				continue;
+			}
+			int r = node * RANGES;
+			for(byte type = TYPE_SPHERE; type <= TYPE_OTHER; type++) {
+				leafRanges[r + type * 2] = next[type];
+				for(int k = nodeOffset[node]; k < nodeOffset[node] + nodeCount[node]; k++) {
+					int i = nodes.primIndices[k];
+					if(types[i] == type) {
+						add(i, next[type]++);
+					}
+				}
+				leafRanges[r + type * 2 + 1] = next[type];
+			}
+		}
+		// unbounded objects are in no leaf
+		for(int i : unbounded) {
+			if(types[i] == TYPE_SPHERE) {
+				add(i, next[TYPE_SPHERE]++);
+			} else if(types[i] == TYPE_PLANE) {
+				add(i, next[TYPE_PLANE]++);
+			}
+		}
+	}
+
+	/** Copies geometry of object @param i, a sphere or plane, to @param slot of its kind */
+	private void add(int i, int slot) {
+		slots[i] = slot;
+		if(types[i] == TYPE_SPHERE) {
+			Sphere sphere = (Sphere) objects[i];
+			int g = slot * SPHERE;
+			put(spheres, g, sphere.getCenter());
+			spheres[g + 3] = sphere.getRadius();
+			sphereObjects[slot] = i;
+		} else if(types[i] == TYPE_PLANE) {
+			Plane plane = (Plane) objects[i];
+			int g = slot * PLANE;
+			put(planes, g, plane.getCenter());
+			put(planes, g + 3, plane.getNormal());
+			put(planes, g + 6, plane.getAxisX());
+			put(planes, g + 9, plane.getAxisY());
+			planes[g + 12] = plane.getWidth() / 2;
+			planes[g + 13] = plane.getHeight() / 2;
+			planeObjects[slot] = i;
+		} else {
+			others[slot] = i;
+		}
+	}
+
+	/** Stores @param vector into @param values at @param offset, zeros if it is null */
+	private static void put(double[] values, int offset, Vector vector) {
+		values[offset] = vector != null ? vector.getX() : 0;
+		values[offset + 1] = vector != null ? vector.getY() : 0;
+		values[offset + 2] = vector != null ? vector.getZ() : 0;
+	}
+
+	/** Stores material of @param object into @param values at @param offset, laid out as in the table */
+	static void putMaterial(double[] values, int offset, Object object) {
+		put(values, offset + COLOR, object.getSurfaceColor());
+		put(values, offset + EMISSION, object.getEmissionColor());
+		values[offset + TRANSPARENCY] = object.getTransparency();
+		values[offset + REFLECTIVITY] = object.getReflectivity();
+		values[offset + REFRACTION] = object.getIdxOfRefrac();
+	}
+
+	/** @return objects of scene, in their original order */
+	Object[] getObjects() {
+		return objects;
+	}
+
+	/** @return material table, MATERIAL doubles per object */
+	double[] getMaterials() {
+		return materials;
+	}
+
+	/** @return kind of object @param i, TYPE_SPHERE, TYPE_PLANE or TYPE_OTHER */
+	byte getType(int i) {
+		return types[i];
+	}
+
+	/**
+	 * Writes normal of object @param i at point p into @param normal,
+	 * as the object's getNormal does
+	 */
+	void getNormal(int i, double px, double py, double pz, double[] normal) {
+		if(types[i] == TYPE_SPHERE) {
+			int g = slots[i] * SPHERE;
+			double x = px - spheres[g];
+			double y = py - spheres[g + 1];
+			double z = pz - spheres[g + 2];
+			double mag = Math.sqrt((x*x)+(y*y)+(z*z));
+			normal[0] = x/mag;
+			normal[1] = y/mag;
+			normal[2] = z/mag;
+		} else if(types[i] == TYPE_PLANE) {
+			int g = slots[i] * PLANE;
+			normal[0] = planes[g + 3];
+			normal[1] = planes[g + 4];
+			normal[2] = planes[g + 5];
+		} else {
+			objects[i].getNormal(px, py, pz, normal);
+		}
+	}
+
+	/**
+	 * Finds nearest object hit by ray with origin o and direction d, like
+	 * BVH.nearest; @param stack must hold BVH.STACK_SIZE entries.
+	 * Intersection tests are counted in @param counters
+	 * @return index of object hit, with its distance stored in tnear[0],
+	 * or -1 if ray hits nothing
+	 */
+	public int nearest(double ox, double oy, double oz, double dx, double dy, double dz, int[] stack, double[] tnear,
+			RenderMetrics.Counters counters)
+	{
+		long[] tests = counters.tests;
+		double best = Double.MAX_VALUE;
+		int hit = -1;
+
+		for(int i : unbounded) {
+			tests[kinds[i]]++;
+			double t = objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+			if(t < best || (t == best && i < hit)) {
+				best = t;
+				hit = i;
+			}
+		}
+
+		if(nodes.nodesUsed > 0) {
+			double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+			int top = 0;
+			stack[top++] = 0;
+			while(top > 0) {
+				int node = stack[--top];
+				double tMin = nodeTwoSided[node] ? Double.NEGATIVE_INFINITY : 0;
+				if(!nodes.hitsNode(node, ox, oy, oz, invX, invY, invZ, tMin, best)) {
+					continue;
+				}
+
+				if(nodeCount[node] > 0) {
+					int r = node * RANGES;
+
+					// spheres, as Sphere.hitDistance
+					int end = leafRanges[r + 1];
+					tests[RenderMetrics.KIND_SPHERE] += end - leafRanges[r];
+					for(int k = leafRanges[r]; k < end; k++) {
+						int g = k * SPHERE;
+						double lx = spheres[g] - ox;
+						double ly = spheres[g + 1] - oy;
+						double lz = spheres[g + 2] - oz;
+						double tCenter = lx*dx + ly*dy + lz*dz;
+						if(tCenter < 0) {
+							continue;
+						}
+						double radius = spheres[g + 3];
+						double d2 = (lx*lx + ly*ly + lz*lz) - tCenter*tCenter;
+						if(d2 > radius*radius) {
+							continue;
+						}
+						double tDiff = Math.sqrt(radius*radius - d2);
+						double t = tCenter - tDiff;
+						if(t < 0) {
+							t = tCenter + tDiff;
+						}
+						int i = sphereObjects[k];
+						if(t < best || (t == best && i < hit)) {
+							best = t;
+							hit = i;
+						}
+					}
+
+					// planes, as Plane.hitDistance
+					end = leafRanges[r + 3];
+					tests[RenderMetrics.KIND_PLANE] += end - leafRanges[r + 2];
+					for(int k = leafRanges[r + 2]; k < end; k++) {
+						double t = planeDistance(k * PLANE, ox, oy, oz, dx, dy, dz);
+						int i = planeObjects[k];
+						if(t < best || (t == best && i < hit)) {
+							best = t;
+							hit = i;
+						}
+					}
+
+					end = leafRanges[r + 5];
+					for(int k = leafRanges[r + 4]; k < end; k++) {
+						int i = others[k];
+						tests[kinds[i]]++;
+						double t = objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+						if(t < best || (t == best && i < hit)) {
+							best = t;
+							hit = i;
+						}
+					}
+				} else {
+					// visit child on the near side of the split first
+					int left = node + 1;
+					int right = nodeOffset[node];
+					double d = nodeAxis[node] == 0 ? dx : nodeAxis[node] == 1 ? dy : dz;
+					if(d < 0) {
+						stack[top++] = left;
+						stack[top++] = right;
+					} else {
+						stack[top++] = right;
+						stack[top++] = left;
+					}
+				}
+			}
+		}
+
+		tnear[0] = best;
+		return hit;
+	}
+
+	/**
+	 * Any-hit shadow query like BVH.occluded, returning on the first
+	 * blocker found; @param stack must hold BVH.STACK_SIZE entries.
+	 * Intersection tests are counted in @param counters
+	 * @return true if any object other than objects[@param ignore]
+	 * blocks ray with origin o and direction d before it travels @param maxDistance
+	 */
+	public boolean occluded(double ox, double oy, double oz, double dx, double dy, double dz,
+			int ignore, double maxDistance, int[] stack, RenderMetrics.Counters counters)
+	{
+		return occluder(ox, oy, oz, dx, dy, dz, ignore, maxDistance, stack, counters) >= 0;
+	}
+
+	/**
+	 * Any-hit shadow query like occluded
+	 * @return index of the first object other than objects[@param ignore]
+	 * found to block ray with origin o and direction d before it travels
+	 * @param maxDistance, or -1 if none does
+	 */
+	public int occluder(double ox, double oy, double oz, double dx, double dy, double dz,
+			int ignore, double maxDistance, int[] stack, RenderMetrics.Counters counters)
+	{
+		long[] tests = counters.tests;
+		for(int i : unbounded) {
+			if(i == ignore) {
+				continue;
+			}
+			tests[kinds[i]]++;
+			if(objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance)) {
+				return i;
+			}
+		}
+		if(nodes.nodesUsed == 0) {
+			return -1;
+		}
+
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			if(!nodes.hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, maxDistance)) {
+				continue;
+			}
+
+			if(nodeCount[node] > 0) {
+				int r = node * RANGES;
+				int end = leafRanges[r + 1];
+				for(int k = leafRanges[r]; k < end; k++) {
+					if(sphereObjects[k] == ignore) {
+						continue;
+					}
+					tests[RenderMetrics.KIND_SPHERE]++;
+					if(sphereOccludes(k * SPHERE, ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return sphereObjects[k];
+					}
+				}
+
+				end = leafRanges[r + 3];
+				for(int k = leafRanges[r + 2]; k < end; k++) {
+					if(planeObjects[k] == ignore) {
+						continue;
+					}
+					tests[RenderMetrics.KIND_PLANE]++;
+					if(planeOccludes(k * PLANE, ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return planeObjects[k];
+					}
+				}
+
+				end = leafRanges[r + 5];
+				for(int k = leafRanges[r + 4]; k < end; k++) {
+					int i = others[k];
+					if(i == ignore) {
+						continue;
+					}
+					tests[kinds[i]]++;
+					if(objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return i;
+					}
+				}
+			} else {
+				stack[top++] = nodeOffset[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Shadow query against object @param i alone, counted in @param counters
+	 * @return true if it blocks ray with origin o and direction d before
+	 * it travels @param maxDistance, as the object's occludes says
+	 */
+	public boolean occludes(int i, double ox, double oy, double oz, double dx, double dy, double dz,
+			double maxDistance, RenderMetrics.Counters counters)
+	{
+		counters.tests[kinds[i]]++;
+		if(types[i] == TYPE_SPHERE) {
+			return sphereOccludes(slots[i] * SPHERE, ox, oy, oz, dx, dy, dz, maxDistance);
+		}
+		if(types[i] == TYPE_PLANE) {
+			return planeOccludes(slots[i] * PLANE, ox, oy, oz, dx, dy, dz, maxDistance);
+		}
+		return objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance);
+	}
+
+	/**
+	 * @return true if the sphere at spheres[@param g] blocks ray with origin
+	 * o and direction d before it travels @param maxDistance, as Sphere.occludes
+	 */
+	private boolean sphereOccludes(int g, double ox, double oy, double oz, double dx, double dy, double dz,
+			double maxDistance) {
+		double lx = spheres[g] - ox;
+		double ly = spheres[g + 1] - oy;
+		double lz = spheres[g + 2] - oz;
+		double tCenter = lx*dx + ly*dy + lz*dz;
+		double radius = spheres[g + 3];
+		if(tCenter < 0 || tCenter - radius >= maxDistance) {
+			return false;
+		}
+		double d2 = (lx*lx + ly*ly + lz*lz) - tCenter*tCenter;
+		if(d2 > radius*radius) {
+			return false;
+		}
+		double tDiff = Math.sqrt(radius*radius - d2);
+		double t = tCenter - tDiff;
+		if(t < 0) {
+			t = tCenter + tDiff;
+		}
+		return t < maxDistance;
+	}
+
+	/**
+	 * @return true if the plane at planes[@param g] blocks ray with origin
+	 * o and direction d before it travels @param maxDistance, as Plane.occludes
+	 */
+	private boolean planeOccludes(int g, double ox, double oy, double oz, double dx, double dy, double dz,
+			double maxDistance) {
+		double nx = planes[g + 3], ny = planes[g + 4], nz = planes[g + 5];
+		double dotProduct = dx*nx + dy*ny + dz*nz;
+		if(dotProduct > 1e-6) {
+			return false;
+		}
+		double distance = ((planes[g] - ox)*nx + (planes[g + 1] - oy)*ny + (planes[g + 2] - oz)*nz) / dotProduct;
+		if(!(distance >= 0 && distance < maxDistance)) {
+			return false;
+		}
+		return !Double.isNaN(planeDistance(g, ox, oy, oz, dx, dy, dz));
+	}
+
+	/**
+	 * Intersects ray with origin o and direction d with the plane at
+	 * planes[@param g], as Plane.hitDistance
+	 * @return distance to hit within the plane's width and height, or NaN if it misses
+	 */
+	private double planeDistance(int g, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double nx = planes[g + 3], ny = planes[g + 4], nz = planes[g + 5];
+		double dotProduct = dx*nx + dy*ny + dz*nz;
+		if(dotProduct > 1e-6) { // ray is || to plane
+			return Double.NaN;
+		}
+		double cx = planes[g], cy = planes[g + 1], cz = planes[g + 2];
+
+		// Find point where ray intersects plane
+		double distance = ((cx - ox)*nx + (cy - oy)*ny + (cz - oz)*nz) / dotProduct;
+
+		// Transform from world- to plane-based coordinate systems
+		double relX = (dx*distance + ox) - cx;
+		double relY = (dy*distance + oy) - cy;
+		double relZ = (dz*distance + oz) - cz;
+		double newX = relX*planes[g + 6] + relY*planes[g + 7] + relZ*planes[g + 8];
+		double newY = relX*planes[g + 9] + relY*planes[g + 10] + relZ*planes[g + 11];
+
+		// Check if point is within rectangle
+		if(Math.abs(newX) < planes[g + 12] && Math.abs(newY) < planes[g + 13]) {
+			return distance;
+		}
+		return Double.NaN;
+	}
+}
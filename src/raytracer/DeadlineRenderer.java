@@ -0,0 +1,218 @@
+package raytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DeadlineRenderer Class - renders a scene within a wall-clock budget.
+ * The scene is traced at a ladder of quality levels, from a fraction of
+ * its resolution at a low ray depth up to full resolution and depth, then
+ * with anti-aliasing. A level is started whenever time is left and is
+ * stopped at the deadline if it is not done by then, so the budget is
+ * spent on trying the next level rather than on guessing whether it
+ * fits. The image of the best level traced completely is returned at
+ * full size with the quality it was traced at. Every level traces
+ * through one hierarchy, built once
+ */
+public class DeadlineRenderer {
+	/** Factors width and height are divided by at the levels before anti-aliasing */
+	private static final int[] SCALES = {8, 4, 2, 1};
+
+	/** Most samples per pixel anti-aliasing gives scenes that set none */
+	public static final int DEFAULT_MAX_SAMPLES = 4;
+
+	/** Resolution, ray depth and samples an image was traced with */
+	public static class Quality {
+		private final int scale;
+		private final int width;
+		private final int height;
+		private final int rayDepth;
+		private final int minSamples;
+		private final int maxSamples;
+		private final double aaThreshold;
+
+		Quality(int scale, int width, int height, int rayDepth, int minSamples, int maxSamples, double aaThreshold) {
+			this.scale = scale;
+			this.width = width;
+			this.height = height;
+			this.rayDepth = rayDepth;
+			this.minSamples = minSamples;
+			this.maxSamples = maxSamples;
+			this.aaThreshold = aaThreshold;
+		}
+
+		/** @return factor the scene's width and height were divided by */
+		public int getScale() {
+			return scale;
+		}
+
+		/** @return width image was traced at */
+		public int getWidth() {
+			return width;
+		}
+
+		/** @return height image was traced at */
+		public int getHeight() {
+			return height;
+		}
+
+		/** @return maximum number of times a ray was reflected/refracted */
+		public int getRayDepth() {
+			return rayDepth;
+		}
+
+		/** @return number of samples traced through every pixel */
+		public int getMinSamples() {
+			return minSamples;
+		}
+
+		/** @return largest number of samples traced through a pixel */
+		public int getMaxSamples() {
+			return maxSamples;
+		}
+
+		@Override
+		public String toString() {
+			String samples = minSamples == maxSamples ? Integer.toString(minSamples) : minSamples + "-" + maxSamples;
+			return "1/" + scale + " scale (" + width + "x" + height + "), ray depth " + rayDepth + ", "
+					+ samples + (maxSamples == 1 ? " sample" : " samples") + " per pixel";
+		}
+	}
+
+	/** Image traced within a budget and the quality it was traced at */
+	public static class Result {
+		private final FrameBuffer image;
+		private final Quality quality;
+		private final int levels;
+		private final double millis;
+
+		Result(FrameBuffer image, Quality quality, int levels, double millis) {
+			this.image = image;
+			this.quality = quality;
+			this.levels = levels;
+			this.millis = millis;
+		}
+
+		/** @return colors of the scene's pixels, at the scene's width and height */
+		public FrameBuffer getImage() {
+			return image;
+		}
+
+		/** @return quality of the best level traced completely */
+		public Quality getQuality() {
+			return quality;
+		}
+
+		/** @return number of levels traced completely */
+		public int getLevels() {
+			return levels;
+		}
+
+		/** @return wall-clock time rendering took in milliseconds */
+		public double getMillis() {
+			return millis;
+		}
+	}
+
+	private final Scene scene;
+	private final int threads;
+	private final BVH bvh;
+	private Renderer.Kernel kernel = Renderer.Kernel.PRIMITIVE;
+	private double cullThreshold = PrimitiveTracer.DEFAULT_CULL_THRESHOLD;
+
+	/**
+	 * Creates renderer of @param scene traced on @param threads threads,
+	 * building its hierarchy
+	 */
+	public DeadlineRenderer(Scene scene, int threads) {
+		this.scene = scene;
+		this.threads = threads;
+		this.bvh = new BVH(scene.getObjects());
+	}
+
+	/** Sets implementation of trace levels are traced with */
+	public void setKernel(Renderer.Kernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/** Sets weight at or below which the iterative kernel stops tracing */
+	public void setCullThreshold(double cullThreshold) {
+		this.cullThreshold = cullThreshold;
+	}
+
+	/**
+	 * @return quality levels the scene is traced at, in order: the ray
+	 * depth grows with the resolution up to the scene's at full size, and
+	 * the last level adds the scene's anti-aliasing, or up to
+	 * DEFAULT_MAX_SAMPLES samples if it sets none
+	 */
+	public List<Quality> getLevels() {
+		List<Quality> levels = new ArrayList<>();
+		int maxDepth = scene.getMaxRayDepth();
+		for(int i = 0; i < SCALES.length; i++) {
+			int scale = SCALES[i];
+			int depth = (maxDepth * (i + 1) + SCALES.length - 1) / SCALES.length;
+			levels.add(new Quality(scale, Math.max(1, (scene.getWidth() + scale - 1) / scale),
+					Math.max(1, (scene.getHeight() + scale - 1) / scale), depth, 1, 1, scene.getAaThreshold()));
+		}
+		if(scene.getMaxSamples() > 1) {
+			levels.add(new Quality(1, scene.getWidth(), scene.getHeight(), maxDepth, scene.getMinSamples(),
+					scene.getMaxSamples(), scene.getAaThreshold()));
+		} else {
+			levels.add(new Quality(1, scene.getWidth(), scene.getHeight(), maxDepth, 1, DEFAULT_MAX_SAMPLES,
+					AdaptiveSampler.DEFAULT_THRESHOLD));
+		}
+		return levels;
+	}
+
+	/**
+	 * Traces the scene at increasing quality until @param budgetMillis
+	 * milliseconds have passed or the last level is done. The first level
+	 * is always traced completely, so there is an image however small the
+	 * budget; later levels are started while time is left and stopped at
+	 * the deadline, which the render can overrun by the time a row of a
+	 * tile takes
+	 * @return best image traced completely, at the scene's size
+	 */
+	public Result render(long budgetMillis) {
+		long start = System.nanoTime();
+		long deadline = start + budgetMillis * 1000000;
+		Quality done = null;
+		FrameBuffer image = null;
+		int levels = 0;
+		for(Quality quality : getLevels()) {
+			if(done != null && System.nanoTime() - deadline >= 0) {
+				break;
+			}
+			try (Renderer renderer = createRenderer(quality)) {
+				if(done != null) {
+					renderer.setDeadline(deadline);
+				}
+				renderer.drawScene();
+				if(!renderer.isComplete()) {
+					break;
+				}
+				done = quality;
+				image = renderer.getImage();
+				levels++;
+			}
+		}
+		if(done.getScale() != 1) {
+			image = image.scaled(scene.getWidth(), scene.getHeight());
+		}
+		return new Result(image, done, levels, (System.nanoTime() - start) / 1e6);
+	}
+
+	/** @return renderer tracing the scene at @param quality */
+	private Renderer createRenderer(Quality quality) {
+		Renderer renderer = new Renderer(quality.getWidth(), quality.getHeight(), quality.getRayDepth(), scene.getFov(),
+				scene.getBackgroundColor(), scene.getObjects(), bvh, threads);
+		renderer.setSampling(quality.getMinSamples(), quality.getMaxSamples(), quality.aaThreshold);
+		renderer.setCamera(scene.getCamera());
+		// the ratio of the scene's size, which rounding the scaled size may change
+		renderer.setAspectRatio(scene.getHeight() > 0 ? scene.getWidth() / scene.getHeight() : 0);
+		renderer.setKernel(kernel);
+		renderer.setCullThreshold(cullThreshold);
+		return renderer;
+	}
+}
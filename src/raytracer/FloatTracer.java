@@ -0,0 +1,526 @@
+package raytracer;
+
+/**
+ * FloatTracer Class - single precision version of PrimitiveTracer's trace,
+ * for previews. The hierarchy, spheres, planes, materials and rays are
+ * kept in floats, so a node box or a sphere takes half the memory it does
+ * in doubles. Spheres and planes are intersected in float; other objects,
+ * meshes and instances, keep their double tests and only their distances
+ * are rounded to float. Images match the double kernels' but for rounding
+ * of colors and pixels along silhouettes.
+ * Rays leaving a surface cannot start a fixed distance off it as in the
+ * double kernels: 1e-4 is below the spacing of floats beyond coordinates
+ * of about a thousand, where such rays would hit the surface they leave.
+ * Their origins are moved off the surface by a number of ulps of the hit
+ * point instead, see offset
+ */
+public class FloatTracer {
+	/** Scratch space of one thread, reused for every ray it traces */
+	public static class Scratch {
+		/** BVH traversal stack */
+		final int[] stack = new int[BVH.STACK_SIZE];
+		/** Distance of nearest hit */
+		float tnear;
+		/** Normal at a hit point, from the double tests of other objects */
+		final double[] normal = new double[3];
+		/** Color returned by trace at each depth, as r, g, b triples */
+		final float[] colors;
+		/** Light reaching a diffuse hit point from all emitters, as r, g, b */
+		final float[] direct = new float[3];
+		/** Material of the surface of an instance hit, laid out as in materials; read before rays are spawned */
+		final float[] material = new float[MATERIAL];
+		/** Counters rays and intersection tests are counted in, set by the caller */
+		RenderMetrics.Counters counters;
+
+		Scratch(int maxRayDepth) {
+			colors = new float[(maxRayDepth + 2) * 3];
+		}
+	}
+
+	/**
+	 * Constants of offset: below ORIGIN coordinates are moved by FLOAT_SCALE
+	 * times the normal, above it by INT_SCALE times the normal in ulps
+	 */
+	private static final float ORIGIN = 1f / 32;
+	private static final float FLOAT_SCALE = 1f / 65536;
+	private static final float INT_SCALE = 256;
+
+	/** Relative padding of node boxes rounded to float */
+	private static final double BOX_PAD = 1e-6;
+
+	/** Objects intersected in float, others use their double tests */
+	private static final byte SPHERE = 0;
+	private static final byte PLANE = 1;
+	private static final byte OTHER = 2;
+
+	/**
+	 * Geometry per object. Sphere: center, radius. Plane: center, normal,
+	 * axes along width and height, half width and half height
+	 */
+	private static final int GEOMETRY = 14;
+
+	/** Material per object: color, emission, transparency, reflectivity, refractive index */
+	private static final int MATERIAL = 9;
+
+	private final int maxRayDepth;
+	private final float backgroundR, backgroundG, backgroundB;
+	private final Object[] objects;
+	private final int[] lights;
+	private final byte[] kinds;
+	private final int[] unbounded;
+	private final int[] primIndices;
+	private final float[] nodeBounds;
+	private final int[] nodeOffset;
+	private final int[] nodeCount;
+	private final int[] nodeAxis;
+	private final boolean[] nodeTwoSided;
+	private final byte[] types;
+	private final float[] geometry;
+	private final float[] materials;
+	private final ThreadLocal<Scratch> scratch;
+
+	/**
+	 * Creates tracer for objects of scene, their hierarchy, whose boxes
+	 * are rounded outwards to float, and the indices of the objects that
+	 * emit light
+	 */
+	public FloatTracer(int maxRayDepth, Vector backgroundColor, Object[] objects, BVH bvh, int[] lights) {
+		this.maxRayDepth = maxRayDepth;
+		this.backgroundR = (float) backgroundColor.getX();
+		this.backgroundG = (float) backgroundColor.getY();
+		this.backgroundB = (float) backgroundColor.getZ();
+		this.objects = objects;
+		this.lights = lights;
+		this.kinds = bvh.getKinds();
+		this.unbounded = bvh.getUnbounded();
+		BVHNodes nodes = bvh.getNodes();
+		this.primIndices = nodes.primIndices;
+		this.nodeOffset = nodes.nodeOffset;
+		this.nodeCount = nodes.nodeCount;
+		this.nodeAxis = nodes.nodeAxis;
+		this.nodeTwoSided = nodes.nodeTwoSided;
+		this.nodeBounds = new float[nodes.nodeBounds.length];
+		for(int b = 0; b < nodeBounds.length; b++) {
+			double bound = nodes.nodeBounds[b];
+			double pad = BOX_PAD * Math.max(1, Math.abs(bound));
+			nodeBounds[b] = (float) (b % 6 < 3 ? bound - pad : bound + pad);
+		}
+
+		int n = objects.length;
+		types = new byte[n];
+		geometry = new float[n * GEOMETRY];
+		materials = new float[n * MATERIAL];
+		for(int i = 0; i < n; i++) {
+			Object object = objects[i];
+			int g = i * GEOMETRY;
+			// subclasses may intersect differently
+			if(object.getClass() == Sphere.class) {
+				types[i] = SPHERE;
+				put(geometry, g, object.getCenter());
+				geometry[g + 3] = (float) ((Sphere) object).getRadius();
+			} else if(object.getClass() == Plane.class) {
+				Plane plane = (Plane) object;
+				types[i] = PLANE;
+				put(geometry, g, plane.getCenter());
+				put(geometry, g + 3, plane.getNormal());
+				put(geometry, g + 6, plane.getAxisX());
+				put(geometry, g + 9, plane.getAxisY());
+				geometry[g + 12] = (float) (plane.getWidth() / 2);
+				geometry[g + 13] = (float) (plane.getHeight() / 2);
+			} else {
+				types[i] = OTHER;
+			}
+			int m = i * MATERIAL;
+			put(materials, m, object.getSurfaceColor());
+			put(materials, m + 3, object.getEmissionColor());
+			materials[m + 6] = (float) object.getTransparency();
+			materials[m + 7] = (float) object.getReflectivity();
+			materials[m + 8] = (float) object.getIdxOfRefrac();
+		}
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(maxRayDepth));
+	}
+
+	/** Stores @param vector into @param values at @param offset */
+	private static void put(float[] values, int offset, Vector vector) {
+		values[offset] = (float) vector.getX();
+		values[offset + 1] = (float) vector.getY();
+		values[offset + 2] = (float) vector.getZ();
+	}
+
+	/** @return scratch space of calling thread */
+	public Scratch getScratch() {
+		return scratch.get();
+	}
+
+	/**
+	 * @return coordinate @param p of a point on a surface with normal
+	 * component @param n moved off the surface, to the side the normal
+	 * points to. Far from the origin the point moves by a fixed number of
+	 * ulps, so the distance grows with the rounding error of the point;
+	 * near it, where ulps are tiny, by a fixed distance
+	 */
+	static float offset(float p, float n) {
+		if(Math.abs(p) < ORIGIN) {
+			return p + FLOAT_SCALE * n;
+		}
+		int ulps = (int) (INT_SCALE * n);
+		return Float.intBitsToFloat(Float.floatToRawIntBits(p) + (p < 0 ? -ulps : ulps));
+	}
+
+	/**
+	 * Traces ray with origin o and direction d at @param depth and stores
+	 * its color in s.colors[depth * 3 .. depth * 3 + 2], like
+	 * PrimitiveTracer.trace in single precision
+	 */
+	public void trace(float ox, float oy, float oz, float dx, float dy, float dz, int depth, Scratch s) {
+		s.counters.reachedDepth(depth);
+		float[] col = s.colors;
+		int c = depth * 3;
+
+		// find nearest object hit by ray
+		int hit = nearest(ox, oy, oz, dx, dy, dz, s);
+		if(hit < 0) {
+			col[c] = backgroundR;
+			col[c + 1] = backgroundG;
+			col[c + 2] = backgroundB;
+			return;
+		}
+		float tnear = s.tnear;
+		float px = ox + dx * tnear;
+		float py = oy + dy * tnear;
+		float pz = oz + dz * tnear;
+		float nx, ny, nz;
+		int g = hit * GEOMETRY;
+		int m = hit * MATERIAL;
+		float[] material = materials;
+		if(types[hit] == SPHERE) {
+			nx = px - geometry[g];
+			ny = py - geometry[g + 1];
+			nz = pz - geometry[g + 2];
+			float mag = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			nx /= mag;
+			ny /= mag;
+			nz /= mag;
+		} else if(types[hit] == PLANE) {
+			nx = geometry[g + 3];
+			ny = geometry[g + 4];
+			nz = geometry[g + 5];
+		} else {
+			Object object = objects[hit];
+			object.getNormal(px, py, pz, s.normal);
+			nx = (float) s.normal[0];
+			ny = (float) s.normal[1];
+			nz = (float) s.normal[2];
+			// instances are shaded by the object of their group the point lies on
+			Object surface = object.surfaceAt(px, py, pz);
+			if(surface != object) {
+				material = s.material;
+				put(material, 0, surface.getSurfaceColor());
+				put(material, 3, surface.getEmissionColor());
+				material[6] = (float) surface.getTransparency();
+				material[7] = (float) surface.getReflectivity();
+				material[8] = (float) surface.getIdxOfRefrac();
+				m = 0;
+			}
+		}
+		boolean insideObj = false;
+
+		// true if normal and ray face same direction, inside object
+		if(dx * nx + dy * ny + dz * nz > 0) {
+			nx = -nx;
+			ny = -ny;
+			nz = -nz;
+			insideObj = true;
+		}
+
+		float r, gr, b;
+		float surfaceR = material[m], surfaceG = material[m + 1], surfaceB = material[m + 2];
+		float emissionR = material[m + 3], emissionG = material[m + 4], emissionB = material[m + 5];
+		float transparency = material[m + 6];
+		float reflectivity = material[m + 7];
+		float refrac = material[m + 8];
+		if((transparency > 0 || reflectivity > 0) && depth < maxRayDepth) {
+			// calculate incidence ratio and fresnel ratio
+			float incidenceAngleRatio = -dx * nx + -dy * ny + -dz * nz;
+			float facing = 1 - incidenceAngleRatio;
+			float fresneleffect = 0.1f + facing * facing * facing * (1 - 0.1f);
+
+			// reflect ray
+			float dn = dx * nx + dy * ny + dz * nz;
+			float rx = dx - nx * 2 * dn;
+			float ry = dy - ny * 2 * dn;
+			float rz = dz - nz * 2 * dn;
+			float mag = (float) Math.sqrt((rx * rx) + (ry * ry) + (rz * rz));
+			s.counters.reflectionRays++;
+			trace(offset(px, nx), offset(py, ny), offset(pz, nz), rx / mag, ry / mag, rz / mag, depth + 1, s);
+			float reflR = col[c + 3], reflG = col[c + 4], reflB = col[c + 5];
+			float refrR = 0, refrG = 0, refrB = 0;
+
+			// if object is transparent
+			if(transparency > 0) {
+				float indRefrac = (insideObj) ? refrac : 1 / refrac;
+
+				float cosInd = -nx * dx + -ny * dy + -nz * dz;
+				float k = 1 - indRefrac * indRefrac * (1 - cosInd * cosInd);
+				float scale = indRefrac * cosInd - (float) Math.sqrt(k);
+				float tx = dx * indRefrac + nx * scale;
+				float ty = dy * indRefrac + ny * scale;
+				float tz = dz * indRefrac + nz * scale;
+				mag = (float) Math.sqrt((tx * tx) + (ty * ty) + (tz * tz));
+				s.counters.refractionRays++;
+				trace(offset(px, -nx), offset(py, -ny), offset(pz, -nz), tx / mag, ty / mag, tz / mag, depth + 1, s);
+				refrR = col[c + 3];
+				refrG = col[c + 4];
+				refrB = col[c + 5];
+			}
+			r = (reflR * fresneleffect * reflectivity + refrR * (1 - fresneleffect) * transparency) * surfaceR;
+			gr = (reflG * fresneleffect * reflectivity + refrG * (1 - fresneleffect) * transparency) * surfaceG;
+			b = (reflB * fresneleffect * reflectivity + refrB * (1 - fresneleffect) * transparency) * surfaceB;
+		} else { // object is opaque and diffuse or maximum ray tracing reached
+			directLight(px, py, pz, nx, ny, nz, surfaceR, surfaceG, surfaceB, s);
+			r = s.direct[0];
+			gr = s.direct[1];
+			b = s.direct[2];
+		}
+		col[c] = r + emissionR;
+		col[c + 1] = gr + emissionG;
+		col[c + 2] = b + emissionB;
+	}
+
+	/**
+	 * Stores in s.direct the light every emitter casts on point p with
+	 * normal n of a diffuse object with surface color r, g, b
+	 */
+	private void directLight(float px, float py, float pz, float nx, float ny, float nz,
+			float surfaceR, float surfaceG, float surfaceB, Scratch s) {
+		float r = 0, g = 0, b = 0;
+		float sx = offset(px, nx), sy = offset(py, ny), sz = offset(pz, nz);
+		for(int i : lights) {
+			int m = i * MATERIAL;
+			Vector lightCenter = objects[i].getCenter();
+			float lx = (float) lightCenter.getX() - px;
+			float ly = (float) lightCenter.getY() - py;
+			float lz = (float) lightCenter.getZ() - pz;
+			float lightDistance = (float) Math.sqrt((lx * lx) + (ly * ly) + (lz * lz));
+			lx = lx / lightDistance;
+			ly = ly / lightDistance;
+			lz = lz / lightDistance;
+
+			// if another object between point and light source obstructs it; form shadow
+			s.counters.shadowRays++;
+			if(occluded(sx, sy, sz, lx, ly, lz, i, lightDistance, s)) {
+				continue;
+			}
+			float lambert = Math.max(0, nx * lx + ny * ly + nz * lz);
+			r = r + surfaceR * lambert * materials[m + 3];
+			g = g + surfaceG * lambert * materials[m + 4];
+			b = b + surfaceB * lambert * materials[m + 5];
+		}
+		s.direct[0] = r;
+		s.direct[1] = g;
+		s.direct[2] = b;
+	}
+
+	/**
+	 * Finds nearest object hit by ray with origin o and direction d, ties
+	 * going to the lower object index as in BVH.nearest
+	 * @return index of object hit, with its distance stored in s.tnear,
+	 * or -1 if ray hits nothing
+	 */
+	private int nearest(float ox, float oy, float oz, float dx, float dy, float dz, Scratch s) {
+		long[] tests = s.counters.tests;
+		float best = Float.MAX_VALUE;
+		int hit = -1;
+
+		for(int i : unbounded) {
+			tests[kinds[i]]++;
+			float t = hitDistance(i, ox, oy, oz, dx, dy, dz);
+			if(t < best || (t == best && i < hit)) {
+				best = t;
+				hit = i;
+			}
+		}
+
+		if(primIndices.length > 0) {
+			float invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+			int[] stack = s.stack;
+			int top = 0;
+			stack[top++] = 0;
+			while(top > 0) {
+				int node = stack[--top];
+				float tMin = nodeTwoSided[node] ? Float.NEGATIVE_INFINITY : 0;
+				if(!hitsNode(node, ox, oy, oz, invX, invY, invZ, tMin, best)) {
+					continue;
+				}
+
+				if(nodeCount[node] > 0) {
+					int first = nodeOffset[node];
+					for(int k = first; k < first + nodeCount[node]; k++) {
+						int i = primIndices[k];
+						tests[kinds[i]]++;
+						float t = hitDistance(i, ox, oy, oz, dx, dy, dz);
+						if(t < best || (t == best && i < hit)) {
+							best = t;
+							hit = i;
+						}
+					}
+				} else {
+					// visit child on the near side of the split first
+					int left = node + 1;
+					int right = nodeOffset[node];
+					float d = nodeAxis[node] == 0 ? dx : nodeAxis[node] == 1 ? dy : dz;
+					if(d < 0) {
+						stack[top++] = left;
+						stack[top++] = right;
+					} else {
+						stack[top++] = right;
+						stack[top++] = left;
+					}
+				}
+			}
+		}
+
+		s.tnear = best;
+		return hit;
+	}
+
+	/**
+	 * @return true if any object other than objects[@param ignore] blocks
+	 * ray with origin o and direction d before it travels @param maxDistance
+	 */
+	private boolean occluded(float ox, float oy, float oz, float dx, float dy, float dz,
+			int ignore, float maxDistance, Scratch s) {
+		long[] tests = s.counters.tests;
+		for(int i : unbounded) {
+			if(i == ignore) {
+				continue;
+			}
+			tests[kinds[i]]++;
+			if(occludes(i, ox, oy, oz, dx, dy, dz, maxDistance)) {
+				return true;
+			}
+		}
+		if(primIndices.length == 0) {
+			return false;
+		}
+
+		float invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int[] stack = s.stack;
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			if(!hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, maxDistance)) {
+				continue;
+			}
+
+			if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					int i = primIndices[k];
+					if(i == ignore) {
+						continue;
+					}
+					tests[kinds[i]]++;
+					if(occludes(i, ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return true;
+					}
+				}
+			} else {
+				stack[top++] = nodeOffset[node];
+				stack[top++] = node + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if ray with origin o and inverse direction inv enters
+	 * box of @param node between tMin and tMax, as BVHNodes.hitsNode
+	 */
+	private boolean hitsNode(int node, float ox, float oy, float oz,
+			float invX, float invY, float invZ, float tMin, float tMax) {
+		int b = node * 6;
+		float t1 = (nodeBounds[b] - ox) * invX;
+		float t2 = (nodeBounds[b + 3] - ox) * invX;
+		// NaN bounds come from rays parallel to a face and are ignored
+		if(t1 > t2) { float tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[b + 1] - oy) * invY;
+		t2 = (nodeBounds[b + 4] - oy) * invY;
+		if(t1 > t2) { float tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		t1 = (nodeBounds[b + 2] - oz) * invZ;
+		t2 = (nodeBounds[b + 5] - oz) * invZ;
+		if(t1 > t2) { float tmp = t1; t1 = t2; t2 = tmp; }
+		if(t1 > tMin) tMin = t1;
+		if(t2 < tMax) tMax = t2;
+
+		return tMin <= tMax;
+	}
+
+	/**
+	 * @return distance along ray with origin o and direction d to object
+	 * @param i, or NaN if it misses, as the object's hitDistance
+	 */
+	private float hitDistance(int i, float ox, float oy, float oz, float dx, float dy, float dz) {
+		int g = i * GEOMETRY;
+		if(types[i] == SPHERE) {
+			float lx = geometry[g] - ox;
+			float ly = geometry[g + 1] - oy;
+			float lz = geometry[g + 2] - oz;
+			float tCenter = lx*dx + ly*dy + lz*dz;
+			if(tCenter < 0)
+				return Float.NaN;
+			// squared distance of center to ray from the closest point itself,
+			// l2 - tCenter^2 loses every digit when the sphere is far in float
+			float fx = lx - tCenter*dx;
+			float fy = ly - tCenter*dy;
+			float fz = lz - tCenter*dz;
+			float radius = geometry[g + 3];
+			float d2 = fx*fx + fy*fy + fz*fz;
+			if(d2 > radius*radius)
+				return Float.NaN;
+			float tDiff = (float) Math.sqrt(radius*radius - d2);
+			float t0 = tCenter - tDiff;
+			if(t0 < 0)
+				t0 = tCenter + tDiff;
+			return t0;
+		}
+		if(types[i] == PLANE) {
+			float nx = geometry[g + 3], ny = geometry[g + 4], nz = geometry[g + 5];
+			float dotProduct = dx*nx + dy*ny + dz*nz;
+			if(dotProduct > 1e-6f) { // ray is || to plane
+				return Float.NaN;
+			}
+			float cx = geometry[g], cy = geometry[g + 1], cz = geometry[g + 2];
+			float distance = ((cx - ox)*nx + (cy - oy)*ny + (cz - oz)*nz) / dotProduct;
+			float relX = (dx*distance + ox) - cx;
+			float relY = (dy*distance + oy) - cy;
+			float relZ = (dz*distance + oz) - cz;
+			float newX = relX*geometry[g + 6] + relY*geometry[g + 7] + relZ*geometry[g + 8];
+			float newY = relX*geometry[g + 9] + relY*geometry[g + 10] + relZ*geometry[g + 11];
+			if(Math.abs(newX) < geometry[g + 12] && Math.abs(newY) < geometry[g + 13]) {
+				return distance;
+			}
+			return Float.NaN;
+		}
+		return (float) objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+	}
+
+	/**
+	 * @return true if object @param i blocks ray with origin o and direction
+	 * d at a distance in [0, maxDistance), as the object's occludes
+	 */
+	private boolean occludes(int i, float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+		if(types[i] == OTHER) {
+			return objects[i].occludes(ox, oy, oz, dx, dy, dz, maxDistance);
+		}
+		float t = hitDistance(i, ox, oy, oz, dx, dy, dz);
+		return t >= 0 && t < maxDistance;
+	}
+}
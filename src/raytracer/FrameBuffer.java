@@ -0,0 +1,297 @@
+package raytracer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FrameBuffer Class - colors of a rendered image stored as RGB floats
+ * in one flat array, row by row. An accumulating frame buffer also keeps
+ * a weight per pixel, so several samples can be summed into a pixel and
+ * read back as their weighted average. Worker threads write through
+ * Tile views, which share the frame buffer's array instead of copying it
+ */
+public class FrameBuffer {
+	/** Number of floats stored per pixel */
+	public static final int CHANNELS = 3;
+
+	private final int width;
+	private final int height;
+
+	/** r, g, b of every pixel; sums of weighted samples when accumulating */
+	private final float[] data;
+
+	/** Sum of sample weights of every pixel, null if not accumulating */
+	private final float[] weights;
+
+	/**
+	 * Creates black width x height frame buffer holding one color per pixel
+	 */
+	public FrameBuffer(int width, int height) {
+		this(width, height, false);
+	}
+
+	/**
+	 * Creates black width x height frame buffer, which sums weighted
+	 * samples per pixel if @param accumulate is true
+	 */
+	public FrameBuffer(int width, int height, boolean accumulate) {
+		this.width = width;
+		this.height = height;
+		this.data = new float[width * height * CHANNELS];
+		this.weights = accumulate ? new float[width * height] : null;
+	}
+
+	/** @return width of image in pixels */
+	public int getWidth() {
+		return width;
+	}
+
+	/** @return height of image in pixels */
+	public int getHeight() {
+		return height;
+	}
+
+	/** @return true if samples are summed per pixel */
+	public boolean isAccumulating() {
+		return weights != null;
+	}
+
+	/**
+	 * Sets color of pixel (x, y), replacing any samples accumulated in it
+	 */
+	public void set(int x, int y, double r, double g, double b) {
+		int pixel = y * width + x;
+		int i = pixel * CHANNELS;
+		data[i] = (float) r;
+		data[i + 1] = (float) g;
+		data[i + 2] = (float) b;
+		if(weights != null) {
+			weights[pixel] = 1;
+		}
+	}
+
+	/**
+	 * Adds sample of color r, g, b with @param weight to pixel (x, y)
+	 * of an accumulating frame buffer
+	 */
+	public void add(int x, int y, double r, double g, double b, double weight) {
+		if(weights == null) {
+			throw new IllegalStateException("Frame buffer does not accumulate samples.");
+		}
+		int pixel = y * width + x;
+		int i = pixel * CHANNELS;
+		data[i] += (float) (r * weight);
+		data[i + 1] += (float) (g * weight);
+		data[i + 2] += (float) (b * weight);
+		weights[pixel] += (float) weight;
+	}
+
+	/** Resets every pixel to black with no samples */
+	public void clear() {
+		Arrays.fill(data, 0);
+		if(weights != null) {
+			Arrays.fill(weights, 0);
+		}
+	}
+
+	/** Resets pixel (x, y) to black with no samples */
+	public void clear(int x, int y) {
+		int pixel = y * width + x;
+		int i = pixel * CHANNELS;
+		data[i] = 0;
+		data[i + 1] = 0;
+		data[i + 2] = 0;
+		if(weights != null) {
+			weights[pixel] = 0;
+		}
+	}
+
+	/**
+	 * @return component @param channel (0 = r, 1 = g, 2 = b) of pixel
+	 * (x, y); the weighted average of its samples when accumulating
+	 */
+	public float get(int x, int y, int channel) {
+		int pixel = y * width + x;
+		float value = data[pixel * CHANNELS + channel];
+		if(weights != null) {
+			float weight = weights[pixel];
+			return weight > 0 ? value / weight : 0;
+		}
+		return value;
+	}
+
+	/** @return color of pixel (x, y) as a vector */
+	public Vector getColor(int x, int y) {
+		return new Vector(get(x, y, 0), get(x, y, 1), get(x, y, 2));
+	}
+
+	/** @return sum of sample weights of pixel (x, y), 1 if not accumulating */
+	public float getWeight(int x, int y) {
+		return weights != null ? weights[y * width + x] : 1;
+	}
+
+	/**
+	 * @return pixel (x, y) packed as 8-bit RGB
+	 */
+	public int getPackedRGB(int x, int y) {
+		return pack(get(x, y, 0), get(x, y, 1), get(x, y, 2));
+	}
+
+	/**
+	 * @return whole image packed as 8-bit RGB, row by row
+	 */
+	public int[] toPackedRGB() {
+		int[] packed = new int[width * height];
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				packed[y * width + x] = getPackedRGB(x, y);
+			}
+		}
+		return packed;
+	}
+
+	/**
+	 * @return new width x height frame buffer holding one color per pixel,
+	 * each the color of the pixel of this one it falls in when both cover
+	 * the same area, e.g. to show a smaller image at full size
+	 */
+	public FrameBuffer scaled(int width, int height) {
+		FrameBuffer scaled = new FrameBuffer(width, height);
+		for(int y = 0; y < height; y++) {
+			int sy = (int) ((long) y * this.height / height);
+			for(int x = 0; x < width; x++) {
+				int sx = (int) ((long) x * this.width / width);
+				scaled.set(x, y, get(sx, sy, 0), get(sx, sy, 1), get(sx, sy, 2));
+			}
+		}
+		return scaled;
+	}
+
+	/** @return bytes putTile writes for @param pixels pixels */
+	public int tileBytes(int pixels) {
+		return pixels * (CHANNELS + (weights != null ? 1 : 0)) * Float.BYTES;
+	}
+
+	/**
+	 * Writes the stored values of pixels [x0, x1) x [y0, y1), row by row,
+	 * to @param out, sums of samples and their weights when accumulating,
+	 * e.g. to checkpoint a tile; getTile reads them back
+	 */
+	public void putTile(ByteBuffer out, int x0, int y0, int x1, int y1) {
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				int pixel = y * width + x;
+				int i = pixel * CHANNELS;
+				out.putFloat(data[i]).putFloat(data[i + 1]).putFloat(data[i + 2]);
+				if(weights != null) {
+					out.putFloat(weights[pixel]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces pixels [x0, x1) x [y0, y1) with the values putTile wrote
+	 * to @param in from a frame buffer that accumulates if this one does
+	 */
+	public void getTile(ByteBuffer in, int x0, int y0, int x1, int y1) {
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				int pixel = y * width + x;
+				int i = pixel * CHANNELS;
+				data[i] = in.getFloat();
+				data[i + 1] = in.getFloat();
+				data[i + 2] = in.getFloat();
+				if(weights != null) {
+					weights[pixel] = in.getFloat();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes row @param y as 8-bit r, g, b bytes into @param row from @param offset
+	 */
+	public void getRGB8Row(int y, byte[] row, int offset) {
+		for(int x = 0; x < width; x++) {
+			int i = offset + x * 3;
+			row[i] = (byte) toByte(get(x, y, 0));
+			row[i + 1] = (byte) toByte(get(x, y, 1));
+			row[i + 2] = (byte) toByte(get(x, y, 2));
+		}
+	}
+
+	/**
+	 * @return color packed as 8-bit RGB, clamped the same way as Vector.toColor
+	 */
+	public static int pack(double r, double g, double b) {
+		return toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+	}
+
+	/**
+	 * @return 8-bit value of color component, clamped the same way as Vector.toColor
+	 */
+	public static int toByte(double component) {
+		return Math.max(0, (int) Math.min(255, component * 255));
+	}
+
+	/**
+	 * @return view of pixels [x0, x1) x [y0, y1), writing into this frame buffer
+	 */
+	public Tile tile(int x0, int y0, int x1, int y1) {
+		return new Tile(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Tile Class - rectangular view of the frame buffer addressed in
+	 * tile coordinates. Writes go straight into the frame buffer's array
+	 */
+	public class Tile {
+		private final int x0, y0, x1, y1;
+
+		private Tile(int x0, int y0, int x1, int y1) {
+			if(x0 < 0 || y0 < 0 || x1 > width || y1 > height || x0 > x1 || y0 > y1) {
+				throw new IllegalArgumentException("Tile outside of frame buffer.");
+			}
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+		}
+
+		/** @return x of tile's left column in the frame buffer */
+		public int getX() {
+			return x0;
+		}
+
+		/** @return y of tile's top row in the frame buffer */
+		public int getY() {
+			return y0;
+		}
+
+		/** @return width of tile */
+		public int getWidth() {
+			return x1 - x0;
+		}
+
+		/** @return height of tile */
+		public int getHeight() {
+			return y1 - y0;
+		}
+
+		/** Sets color of pixel (x, y) of tile */
+		public void set(int x, int y, double r, double g, double b) {
+			FrameBuffer.this.set(x0 + x, y0 + y, r, g, b);
+		}
+
+		/** Adds weighted sample to pixel (x, y) of tile */
+		public void add(int x, int y, double r, double g, double b, double weight) {
+			FrameBuffer.this.add(x0 + x, y0 + y, r, g, b, weight);
+		}
+
+		/** @return component @param channel of pixel (x, y) of tile */
+		public float get(int x, int y, int channel) {
+			return FrameBuffer.this.get(x0 + x, y0 + y, channel);
+		}
+	}
+}
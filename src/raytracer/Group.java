@@ -0,0 +1,176 @@
+package raytracer;
+
+/**
+ * Group Class - objects defined once in a scene description and placed
+ * any number of times by instances. The group keeps its objects and a
+ * bounding volume hierarchy over them in its own coordinates; instances
+ * only hold a transform and a reference to the group, so memory grows
+ * with the geometry of the group and not with the number of instances
+ */
+public class Group {
+	/** Objects of group, in the order they were defined */
+	private Object[] objects;
+
+	/** Hierarchy over objects, walked with skip links instead of a stack */
+	private BVHNodes tree;
+	private int[] skip;
+
+	/** Box enclosing all objects */
+	private BoundingBox bounds;
+
+	/** True if group holds objects that are also hit behind the ray origin */
+	private boolean twoSided;
+
+	/** Distance a point may lie off an object's box and still be on it */
+	private double tolerance;
+
+	/**
+	 * Creates group of @param objects, which must all have finite bounds
+	 */
+	public Group(Object[] objects) {
+		this.objects = objects;
+		double[] objectBounds = new double[objects.length * 6];
+		boolean[] objectTwoSided = new boolean[objects.length];
+		int[] prims = new int[objects.length];
+		BoundingBox all = null;
+		for(int i = 0; i < objects.length; i++) {
+			BoundingBox box = objects[i].getBoundingBox();
+			if(!box.isFinite()) {
+				throw new IllegalArgumentException("Objects of a group must be bounded.");
+			}
+			for(int axis = 0; axis < 3; axis++) {
+				objectBounds[i * 6 + axis] = box.getMin(axis);
+				objectBounds[i * 6 + 3 + axis] = box.getMax(axis);
+			}
+			objectTwoSided[i] = objects[i].isTwoSided();
+			twoSided |= objectTwoSided[i];
+			prims[i] = i;
+			all = all == null ? box : all.union(box);
+		}
+		this.tree = new BVHNodes(prims, objectBounds, objectTwoSided);
+		this.skip = tree.skipLinks();
+		this.bounds = all != null ? all : new BoundingBox(0, 0, 0, 0, 0, 0);
+
+		double size = 0;
+		for(int axis = 0; axis < 3; axis++) {
+			size = Math.max(size, Math.max(Math.abs(bounds.getMin(axis)), Math.abs(bounds.getMax(axis))));
+		}
+		this.tolerance = 1e-6 * size + 1e-9;
+	}
+
+	/** @return objects of group */
+	public Object[] getObjects() {
+		return objects;
+	}
+
+	/** @return box enclosing all objects of group */
+	public BoundingBox getBoundingBox() {
+		return bounds;
+	}
+
+	/** @return true if some object of group is also hit behind the ray origin */
+	public boolean isTwoSided() {
+		return twoSided;
+	}
+
+	/**
+	 * Intersects ray with origin o and direction d, given in the group's
+	 * coordinates, with the objects of the group. Like BVH.nearest, ties
+	 * are broken by order of objects
+	 * @return distance to nearest hit, or NaN if ray misses every object
+	 */
+	double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double best = Double.MAX_VALUE;
+		int hit = -1;
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		int[] primIndices = tree.primIndices;
+		int node = 0;
+		while(node < skip.length) {
+			double tMin = tree.nodeTwoSided[node] ? Double.NEGATIVE_INFINITY : 0;
+			if(!tree.hitsNode(node, ox, oy, oz, invX, invY, invZ, tMin, best)) {
+				node = skip[node];
+			} else if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					int i = primIndices[k];
+					double t = objects[i].hitDistance(ox, oy, oz, dx, dy, dz);
+					if(t < best || (t == best && i < hit)) {
+						best = t;
+						hit = i;
+					}
+				}
+				node = skip[node];
+			} else {
+				node++;
+			}
+		}
+		return hit >= 0 ? best : Double.NaN;
+	}
+
+	/**
+	 * Shadow query in the group's coordinates
+	 * @return true if some object blocks ray before it travels @param maxDistance
+	 */
+	boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		int[] primIndices = tree.primIndices;
+		int node = 0;
+		while(node < skip.length) {
+			if(!tree.hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, maxDistance)) {
+				node = skip[node];
+			} else if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					if(objects[primIndices[k]].occludes(ox, oy, oz, dx, dy, dz, maxDistance)) {
+						return true;
+					}
+				}
+				node = skip[node];
+			} else {
+				node++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds object whose surface point p, in the group's coordinates,
+	 * lies on by walking the hierarchy for boxes holding p
+	 * @return index of object closest to p, or -1 if no box holds p
+	 */
+	int objectAt(double px, double py, double pz) {
+		double[] nodeBounds = tree.nodeBounds;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		int[] primIndices = tree.primIndices;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		int best = -1;
+		int node = 0;
+		while(node < skip.length) {
+			int b = node * 6;
+			if(px < nodeBounds[b] - tolerance || px > nodeBounds[b + 3] + tolerance
+					|| py < nodeBounds[b + 1] - tolerance || py > nodeBounds[b + 4] + tolerance
+					|| pz < nodeBounds[b + 2] - tolerance || pz > nodeBounds[b + 5] + tolerance) {
+				node = skip[node];
+			} else if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					int i = primIndices[k];
+					double distance = objects[i].surfaceDistance(px, py, pz);
+					if(distance < bestDistance || (distance == bestDistance && i < best)) {
+						bestDistance = distance;
+						best = i;
+					}
+				}
+				node = skip[node];
+			} else {
+				node++;
+			}
+		}
+		return best;
+	}
+}
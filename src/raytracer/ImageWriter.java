@@ -0,0 +1,245 @@
+package raytracer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ImageWriter Class - encodes rendered pixel colors to image files.
+ * Supports 8-bit PNG and binary PPM, and 32-bit float OpenEXR for
+ * high dynamic range output. Encoders are written against java.io only,
+ * so writing an image never loads AWT classes. Rows are encoded straight
+ * from the frame buffer one at a time, without an intermediate image
+ */
+public class ImageWriter {
+
+	private ImageWriter() {}
+
+	/** Largest IDAT chunk written to PNG files */
+	private static final int PNG_CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * Writes @param image to @param file, with the format chosen
+	 * from the file extension (.png, .ppm or .exr)
+	 */
+	public static void write(FrameBuffer image, File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		String format = name.substring(name.lastIndexOf('.') + 1);
+		if(!isSupported(format)) {
+			throw new IOException("Unsupported image format: " + file.getName());
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			write(image, format, out);
+		}
+	}
+
+	/** @return true if images can be written in @param format, an extension without the dot */
+	public static boolean isSupported(String format) {
+		return format.equals("png") || format.equals("ppm") || format.equals("exr");
+	}
+
+	/**
+	 * Writes @param image to @param out in @param format, png, ppm or exr
+	 */
+	public static void write(FrameBuffer image, String format, OutputStream out) throws IOException {
+		if(format.equals("png")) {
+			writePng(image, out);
+		} else if(format.equals("ppm")) {
+			writePpm(image, out);
+		} else if(format.equals("exr")) {
+			writeExr(image, out);
+		} else {
+			throw new IOException("Unsupported image format: " + format);
+		}
+	}
+
+	/**
+	 * Writes image as 8-bit RGB PNG
+	 */
+	public static void writePng(FrameBuffer image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		DataOutputStream png = new DataOutputStream(out);
+		png.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+
+		ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+		DataOutputStream ihdrData = new DataOutputStream(ihdr);
+		ihdrData.writeInt(width);
+		ihdrData.writeInt(height);
+		ihdrData.writeByte(8); // bit depth
+		ihdrData.writeByte(2); // color type RGB
+		ihdrData.writeByte(0); // deflate compression
+		ihdrData.writeByte(0); // adaptive filtering
+		ihdrData.writeByte(0); // no interlace
+		writePngChunk(png, "IHDR", ihdr.toByteArray(), ihdr.size());
+
+		// every scanline is prefixed with filter type 0 (none); compressed
+		// rows are emitted as IDAT chunks whenever a chunk fills up
+		IdatOutputStream idat = new IdatOutputStream(png);
+		try (DeflaterOutputStream deflater = new DeflaterOutputStream(idat)) {
+			byte[] row = new byte[1 + width * 3];
+			for(int y = 0; y < height; y++) {
+				image.getRGB8Row(y, row, 1);
+				deflater.write(row);
+			}
+		}
+		writePngChunk(png, "IEND", new byte[0], 0);
+		png.flush();
+	}
+
+	private static void writePngChunk(DataOutputStream png, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		png.writeInt(length);
+		png.write(typeBytes);
+		png.write(data, 0, length);
+		png.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Buffers compressed image data and writes it as IDAT chunks of at
+	 * most PNG_CHUNK_SIZE bytes. Closing flushes the last chunk but leaves
+	 * the underlying stream open
+	 */
+	private static class IdatOutputStream extends FilterOutputStream {
+		private final byte[] buffer = new byte[PNG_CHUNK_SIZE];
+		private int count;
+
+		IdatOutputStream(DataOutputStream png) {
+			super(png);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(count == buffer.length) {
+				flushChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				if(count == buffer.length) {
+					flushChunk();
+				}
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void flushChunk() throws IOException {
+			if(count > 0) {
+				writePngChunk((DataOutputStream) out, "IDAT", buffer, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flushChunk();
+		}
+	}
+
+	/**
+	 * Writes image as binary (P6) PPM
+	 */
+	public static void writePpm(FrameBuffer image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+		byte[] row = new byte[width * 3];
+		for(int y = 0; y < height; y++) {
+			image.getRGB8Row(y, row, 0);
+			out.write(row);
+		}
+	}
+
+	/**
+	 * Writes image as uncompressed scanline OpenEXR with 32-bit float
+	 * R, G and B channels. Colors are not clamped, so bright lights and
+	 * backgrounds above 1.0 are kept
+	 */
+	public static void writeExr(FrameBuffer image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		ByteBuffer header = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(20000630); // magic number
+		header.putInt(2); // version 2, single part scanline file
+
+		// channels are stored in alphabetical order
+		putAttribute(header, "channels", "chlist", 3 * 18 + 1);
+		for(String channel : new String[] { "B", "G", "R" }) {
+			putString(header, channel);
+			header.putInt(2); // FLOAT
+			header.putInt(0); // pLinear and reserved bytes
+			header.putInt(1); // x sampling
+			header.putInt(1); // y sampling
+		}
+		header.put((byte) 0);
+		putAttribute(header, "compression", "compression", 1);
+		header.put((byte) 0); // NO_COMPRESSION
+		for(String window : new String[] { "dataWindow", "displayWindow" }) {
+			putAttribute(header, window, "box2i", 16);
+			header.putInt(0).putInt(0).putInt(width - 1).putInt(height - 1);
+		}
+		putAttribute(header, "lineOrder", "lineOrder", 1);
+		header.put((byte) 0); // INCREASING_Y
+		putAttribute(header, "pixelAspectRatio", "float", 4);
+		header.putFloat(1);
+		putAttribute(header, "screenWindowCenter", "v2f", 8);
+		header.putFloat(0).putFloat(0);
+		putAttribute(header, "screenWindowWidth", "float", 4);
+		header.putFloat(1);
+		header.put((byte) 0); // end of header
+		out.write(header.array(), 0, header.position());
+
+		// offset table: one entry per scanline, pointing at its chunk
+		int chunkSize = 8 + width * 3 * 4;
+		long offset = header.position() + 8L * height;
+		ByteBuffer table = ByteBuffer.allocate(8 * height).order(ByteOrder.LITTLE_ENDIAN);
+		for(int y = 0; y < height; y++) {
+			table.putLong(offset + (long) y * chunkSize);
+		}
+		out.write(table.array());
+
+		ByteBuffer chunk = ByteBuffer.allocate(chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+		for(int y = 0; y < height; y++) {
+			chunk.clear();
+			chunk.putInt(y);
+			chunk.putInt(width * 3 * 4);
+			for(int channel = 2; channel >= 0; channel--) {
+				for(int x = 0; x < width; x++) {
+					chunk.putFloat(image.get(x, y, channel));
+				}
+			}
+			out.write(chunk.array());
+		}
+	}
+
+	private static void putAttribute(ByteBuffer header, String name, String type, int size) {
+		putString(header, name);
+		putString(header, type);
+		header.putInt(size);
+	}
+
+	private static void putString(ByteBuffer header, String s) {
+		header.put(s.getBytes(StandardCharsets.US_ASCII));
+		header.put((byte) 0);
+	}
+}
@@ -0,0 +1,221 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Instance class - child class of Object placing a Group in the scene
+ * with a Transform. Rays are moved into the group's coordinates when
+ * they are tested, so the scene's BVH over instances and the group's own
+ * hierarchy form a two level structure, and any number of instances
+ * share the objects of one group. Points on an instance are shaded with
+ * the color and material of the group object they lie on
+ */
+public class Instance extends Object {
+	private Group group;
+	private Transform transform;
+
+	/** Box enclosing the transformed group */
+	private BoundingBox bounds;
+
+	/**
+	 * Creates instance of @param group placed by @param transform
+	 */
+	public Instance(Group group, Transform transform) {
+		super(new Vector(0), new Vector(transform.tx, transform.ty, transform.tz), 0);
+		this.emissionColor = new Vector(0);
+		this.group = group;
+		this.transform = transform;
+		this.bounds = transform.transformBox(group.getBoundingBox());
+	}
+
+	/** @return group placed by instance */
+	public Group getGroup() {
+		return group;
+	}
+
+	/** @return transform placing group */
+	public Transform getTransform() {
+		return transform;
+	}
+
+	/**
+	 * Overrides hitDistance method of Object class
+	 * Returns distance to nearest object of group hit, or NaN if ray misses them all
+	 */
+	@Override
+	public double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		if(Double.isNaN(dx + dy + dz)) {
+			return Double.NaN; // would pass every box test
+		}
+		double[] r = transform.rotation;
+		double inv = 1 / transform.scale;
+		double x = ox - transform.tx, y = oy - transform.ty, z = oz - transform.tz;
+		// the inverse of a rotation is its transpose
+		double t = group.hitDistance(
+				(r[0] * x + r[3] * y + r[6] * z) * inv,
+				(r[1] * x + r[4] * y + r[7] * z) * inv,
+				(r[2] * x + r[5] * y + r[8] * z) * inv,
+				r[0] * dx + r[3] * dy + r[6] * dz,
+				r[1] * dx + r[4] * dy + r[7] * dz,
+				r[2] * dx + r[5] * dy + r[8] * dz);
+		return t * transform.scale;
+	}
+
+	/**
+	 * Overrides occludes method of Object class, testing the group
+	 * in its own coordinates
+	 */
+	@Override
+	public boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		if(Double.isNaN(dx + dy + dz)) {
+			return false;
+		}
+		double[] r = transform.rotation;
+		double inv = 1 / transform.scale;
+		double x = ox - transform.tx, y = oy - transform.ty, z = oz - transform.tz;
+		return group.occludes(
+				(r[0] * x + r[3] * y + r[6] * z) * inv,
+				(r[1] * x + r[4] * y + r[7] * z) * inv,
+				(r[2] * x + r[5] * y + r[8] * z) * inv,
+				r[0] * dx + r[3] * dy + r[6] * dz,
+				r[1] * dx + r[4] * dy + r[7] * dz,
+				r[2] * dx + r[5] * dy + r[8] * dz,
+				maxDistance * inv);
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return object of group point p lies on, whose color and material shade it
+	 */
+	@Override
+	public Object surfaceAt(double px, double py, double pz) {
+		double[] r = transform.rotation;
+		double inv = 1 / transform.scale;
+		double x = px - transform.tx, y = py - transform.ty, z = pz - transform.tz;
+		double lx = (r[0] * x + r[3] * y + r[6] * z) * inv;
+		double ly = (r[1] * x + r[4] * y + r[7] * z) * inv;
+		double lz = (r[2] * x + r[5] * y + r[8] * z) * inv;
+		int i = group.objectAt(lx, ly, lz);
+		// group objects may be instances themselves
+		return i >= 0 ? group.getObjects()[i].surfaceAt(lx, ly, lz) : this;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return distance of point p to the surface of the nearest group object
+	 */
+	@Override
+	public double surfaceDistance(double px, double py, double pz) {
+		double[] r = transform.rotation;
+		double inv = 1 / transform.scale;
+		double x = px - transform.tx, y = py - transform.ty, z = pz - transform.tz;
+		double lx = (r[0] * x + r[3] * y + r[6] * z) * inv;
+		double ly = (r[1] * x + r[4] * y + r[7] * z) * inv;
+		double lz = (r[2] * x + r[5] * y + r[8] * z) * inv;
+		int i = group.objectAt(lx, ly, lz);
+		if(i < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return group.getObjects()[i].surfaceDistance(lx, ly, lz) * transform.scale;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return normal of group object the point lies on
+	 */
+	@Override
+	public Vector getNormal(Vector pointHit) {
+		double[] normal = new double[3];
+		getNormal(pointHit.getX(), pointHit.getY(), pointHit.getZ(), normal);
+		return new Vector(normal[0], normal[1], normal[2]);
+	}
+
+	/**
+	 * Writes normal of group object point p lies on into @param normal,
+	 * rotated out of the group's coordinates
+	 */
+	@Override
+	public void getNormal(double px, double py, double pz, double[] normal) {
+		double[] r = transform.rotation;
+		double inv = 1 / transform.scale;
+		double x = px - transform.tx, y = py - transform.ty, z = pz - transform.tz;
+		double lx = (r[0] * x + r[3] * y + r[6] * z) * inv;
+		double ly = (r[1] * x + r[4] * y + r[7] * z) * inv;
+		double lz = (r[2] * x + r[5] * y + r[8] * z) * inv;
+		int i = group.objectAt(lx, ly, lz);
+		if(i < 0) {
+			normal[0] = 0;
+			normal[1] = 1;
+			normal[2] = 0;
+			return;
+		}
+		group.getObjects()[i].getNormal(lx, ly, lz, normal);
+		double nx = normal[0], ny = normal[1], nz = normal[2];
+		normal[0] = r[0] * nx + r[1] * ny + r[2] * nz;
+		normal[1] = r[3] * nx + r[4] * ny + r[5] * nz;
+		normal[2] = r[6] * nx + r[7] * ny + r[8] * nz;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * Returns box enclosing the transformed group
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+		return bounds;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return true if @param other places a group of the same objects with the same transform
+	 */
+	@Override
+	public boolean sameGeometry(Object other) {
+		if(!super.sameGeometry(other)) {
+			return false;
+		}
+		Instance instance = (Instance) other;
+		Transform t = instance.transform;
+		if(t.scale != transform.scale || !Arrays.equals(t.rotation, transform.rotation)) {
+			return false;
+		}
+		Object[] objects = group.getObjects(), others = instance.group.getObjects();
+		if(objects.length != others.length) {
+			return false;
+		}
+		for(int i = 0; i < objects.length; i++) {
+			if(!objects[i].sameGeometry(others[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return true if the objects of the group of @param other are shaded as those of this
+	 * instance's group. Only meaningful for instances of the same geometry
+	 */
+	@Override
+	public boolean sameMaterial(Object other) {
+		if(other.getClass() != getClass()) {
+			return false;
+		}
+		Object[] objects = group.getObjects(), others = ((Instance) other).group.getObjects();
+		for(int i = 0; i < objects.length && i < others.length; i++) {
+			if(!objects[i].sameMaterial(others[i])) {
+				return false;
+			}
+		}
+		return super.sameMaterial(other);
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return true if group holds objects hit behind the ray origin
+	 */
+	@Override
+	public boolean isTwoSided() {
+		return group.isTwoSided();
+	}
+}
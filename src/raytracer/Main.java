@@ -1,175 +1,396 @@
 package raytracer;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import javax.management.JMException;
+
+import org.json.simple.parser.ParseException;
 
 /** 
  * The Raytracer program implements an raytracing algorithms that displays
  * user specified spheres, planes and light sources on a window. 
  * The program accepts description of the scene to be displayed as a json file
+ * or a binary scene file converted from one
  * 
  * @author Dorcas Ujiji
  * @version 1.0
  * @since 2018-12-15
  * */
 public class Main {
-    private static int viewWidth; 
-    private static int viewHeight; 
-    private static int maxRayDepth; 
-    private static double fov = 75;
-    private static Vector backgroundColor; 
-    private static ArrayList<Object> sceneObj = new ArrayList<>();
-    
-    /* This method specifies scene dimensions, maximum ray depth and background color */
-    private static void createScene(JSONObject sceneParam) {
-        viewWidth = ((Number) sceneParam.get("width")).intValue();
-        viewHeight = ((Number) sceneParam.get("height")).intValue();
-        maxRayDepth = ((Number) sceneParam.get("max_ray_depth")).intValue();
-        fov = ((Number) sceneParam.get("field_of_view")).doubleValue();
-        JSONObject col = (JSONObject) sceneParam.get("background_color");
-        backgroundColor = new Vector(getColorRatio(col.get("r")),
-                getColorRatio(col.get("g")),
-                getColorRatio(col.get("b"))
-                );
-    }
-    
-    /* This method adds a source of light to list of scene objects */
-    private static void addLight(JSONObject lightObj) {
-        JSONObject pos = (JSONObject) lightObj.get("center");
-        Vector center =  new Vector(((Number) pos.get("x")).doubleValue(),
-                ((Number) pos.get("y")).doubleValue(),
-                ((Number) pos.get("z")).doubleValue()
-                );
-        double radius = ((Number) lightObj.get("radius")).doubleValue();
-        
-        JSONObject col = (JSONObject) lightObj.get("emission_color");
-        Vector emmColor = new Vector(getColorRatio(col.get("r")),
-                getColorRatio(col.get("g")),
-                getColorRatio(col.get("b"))
-                );
-        Sphere light = new Sphere(center, radius, new Vector(0), 0, 0, 1, emmColor);
-        
-        // add light to scene
-        sceneObj.add(light);
-    }
-    
-    /* This method adds sphere to list of scene objects */
-    private static void addSphere(JSONObject sphereObj) {
-        JSONObject pos = (JSONObject) sphereObj.get("center");
-        Vector center =  new Vector(((Number) pos.get("x")).doubleValue(),
-                ((Number) pos.get("y")).doubleValue(),
-                ((Number) pos.get("z")).doubleValue()
-                );
-        double radius = ((Number) sphereObj.get("radius")).doubleValue();
-        JSONObject col = (JSONObject) sphereObj.get("color");
-        Vector color = new Vector(getColorRatio(col.get("r")),
-                getColorRatio(col.get("g")),
-                getColorRatio(col.get("b"))
-                );
-        double transp = ((Number) sphereObj.get("transparency")).doubleValue();
-        double reflec = ((Number) sphereObj.get("reflectivity")).doubleValue();
-        double idxOfRefrac = ((Number) sphereObj.get("index_of_refraction")).doubleValue();
-        Sphere sphere = new Sphere(center, radius, color, transp, reflec, idxOfRefrac);
-        
-        // add sphere to scene 
-        sceneObj.add(sphere);
-    }
-    
-    /* This method adds a plane to the list of scene objects */
-    private static void addPlane(JSONObject planeObj) {
-        JSONObject pos = (JSONObject) planeObj.get("center");
-        Vector center =  new Vector(((Number) pos.get("x")).doubleValue(),
-                ((Number) pos.get("y")).doubleValue(),
-                ((Number) pos.get("z")).doubleValue()
-                );
-        JSONObject norm = (JSONObject) planeObj.get("normal");
-        Vector normal =  new Vector(((Number) norm.get("x")).doubleValue(),
-                ((Number) norm.get("y")).doubleValue(),
-                ((Number) norm.get("z")).doubleValue()
-                );
-        double width = ((Number) planeObj.get("width")).doubleValue();
-        double height = ((Number) planeObj.get("height")).doubleValue();
-        JSONObject col = (JSONObject) planeObj.get("color");
-        Vector color = new Vector(getColorRatio(col.get("r")),
-                getColorRatio(col.get("g")),
-                getColorRatio(col.get("b"))
-                );
-        double reflec = ((Number) planeObj.get("reflectivity")).doubleValue();
-        Plane plane = new Plane(center, normal, width, height, color, reflec);
-        
-        // add plane to list of scene objects
-        sceneObj.add(plane);
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static Renderer.Kernel kernel = Renderer.Kernel.PRIMITIVE;
+    private static double cullThreshold = PrimitiveTracer.DEFAULT_CULL_THRESHOLD;
+    private static String metricsOutput;
+    private static String convertOutput;
+    private static int localWorkers;
+    private static int port = -1;
+    private static long leaseTimeout = RenderCoordinator.DEFAULT_LEASE_TIMEOUT;
+    private static boolean watch;
+    private static String sequenceOutput;
+    private static int framesInFlight = SequenceRenderer.DEFAULT_FRAMES_IN_FLIGHT;
+    private static long budget = -1;
+    private static int servePort = -1;
+    private static File cacheDirectory = new File(System.getProperty("java.io.tmpdir"), "raytracer-cache");
+    private static long cacheSize = RenderService.DEFAULT_DISK_CACHE;
+    private static String checkpointFile;
+    
+    /* This method reads scene description file at filePath, JSON or binary, into a scene */
+    public static Scene loadScene(String filePath) {
+        return SceneLoader.load(filePath);
     }
     
-    /* This method returns colors as ratio */
-    private static double getColorRatio(java.lang.Object num) {
-        double number = ((Number) num).doubleValue();
-        if(number > 0) {
-            return number/255;
-        } else {
-            return 0;
+    /* This method reads JSON scene description from reader into a scene */
+    public static Scene loadScene(Reader reader) {
+        return SceneLoader.loadJson(reader);
+    }
+    
+    /* This method converts JSON scene description file at filePath to binary scene file output */
+    private static void convertScene(String filePath, String output) {
+        try (FileReader reader = new FileReader(filePath)) {
+            SceneLoader.convert(reader, new File(filePath).getAbsoluteFile().getParentFile(), new File(output));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method renders scene without a window and writes it to image file */
+    private static void renderToFile(Scene scene, String output) {
+        System.setProperty("java.awt.headless", "true");
+        Renderer renderer = createRenderer(scene);
+        renderer.drawScene();
+        writeMetrics(renderer);
+        try {
+            ImageWriter.write(renderer.getImage(), new File(output));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method renders scene file at filePath to image file, saving finished tiles to checkpointFile and resuming from it */
+    private static void renderCheckpointed(String filePath, String output) {
+        System.setProperty("java.awt.headless", "true");
+        File file = new File(checkpointFile);
+        Renderer renderer = createRenderer(loadScene(filePath));
+        Checkpoint checkpoint;
+        try {
+            checkpoint = new Checkpoint(file, checkpointKey(filePath));
+        } catch (IOException | ParseException e) {
+            e.printStackTrace();
+            return;
+        }
+        if(checkpoint.getResumedRecords() > 0) {
+            System.err.println("Resuming from " + checkpoint.getResumedRecords() + " checkpointed tiles.");
+        }
+        renderer.setCheckpoint(checkpoint);
+        renderer.drawScene();
+        try {
+            checkpoint.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writeMetrics(renderer);
+        try {
+            ImageWriter.write(renderer.getImage(), new File(output));
+            file.delete(); // nothing left to resume
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method returns key of checkpoints of scene file at filePath rendered with options from command line */
+    private static String checkpointKey(String filePath) throws IOException, ParseException {
+        // the threshold only changes images of the kernels that cull
+        boolean culls = kernel == Renderer.Kernel.ITERATIVE || kernel == Renderer.Kernel.WAVEFRONT;
+        return SceneDigest.hash(SceneDigest.of(new File(filePath)) + "/" + kernel + "/" 
+                + (culls ? cullThreshold : PrimitiveTracer.DEFAULT_CULL_THRESHOLD));
+    }
+    
+    /* This method renders scene at the best quality that fits the time budget and writes it to image file */
+    private static void renderWithin(Scene scene, String output) {
+        System.setProperty("java.awt.headless", "true");
+        DeadlineRenderer renderer = new DeadlineRenderer(scene, threads);
+        renderer.setKernel(kernel);
+        renderer.setCullThreshold(cullThreshold);
+        DeadlineRenderer.Result result = renderer.render(budget);
+        System.err.printf("Rendered at %s in %.0f ms of %d ms, %d of %d levels.%n", result.getQuality(), 
+                result.getMillis(), budget, result.getLevels(), renderer.getLevels().size());
+        try {
+            ImageWriter.write(result.getImage(), new File(output));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method renders scene on worker processes, starting localWorkers of them, and writes it to image file */
+    private static void renderDistributed(String filePath, String output) {
+        List<Process> started = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(Math.max(0, port))) {
+            RenderCoordinator coordinator = new RenderCoordinator(SceneLoader.toBinary(filePath));
+            coordinator.setKernel(kernel);
+            coordinator.setCullThreshold(cullThreshold);
+            coordinator.setLeaseTimeout(leaseTimeout);
+            // the machine's threads are shared among the workers started here
+            int workerThreads = Math.max(1, threads / Math.max(1, localWorkers));
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", System.getProperty("java.class.path")));
+            if(kernel == Renderer.Kernel.PACKET && Renderer.packetsSupported()) {
+                command.addAll(Arrays.asList("--add-modules", "jdk.incubator.vector"));
+            }
+            command.addAll(Arrays.asList(Main.class.getName(), "--threads", Integer.toString(workerThreads), 
+                    "--worker", "localhost:" + server.getLocalPort()));
+            for(int i = 0; i < localWorkers; i++) {
+                started.add(new ProcessBuilder(command).inheritIO().start());
+            }
+            if(port >= 0) {
+                System.err.println("Waiting for render workers on port " + server.getLocalPort() + ".");
+            }
+            long start = System.nanoTime();
+            FrameBuffer image = coordinator.render(server);
+            System.err.printf("Rendered in %.0f ms on %d workers, %d tiles leased again.%n", 
+                    (System.nanoTime() - start) / 1e6, coordinator.getWorkers(), 
+                    coordinator.getReleasedTiles() + coordinator.getTakenOverTiles());
+            ImageWriter.write(image, new File(output));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        } finally {
+            for(Process process : started) {
+                process.destroy();
+            }
+        }
+    }
+    
+    /* This method runs as a render worker for the coordinator at address host:port until its render is done */
+    private static void runWorker(String address) {
+        int colon = address.lastIndexOf(':');
+        try {
+            new RenderWorker(threads).run(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method answers requests to render scenes on port servePort of this machine until it is stopped */
+    private static void serve() {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            ResultCache results = new ResultCache(cacheSize > 0 ? cacheDirectory : null, 
+                    RenderService.DEFAULT_MEMORY_CACHE, cacheSize);
+            RenderService service = new RenderService(threads, results, RenderService.DEFAULT_SCENES);
+            service.start(servePort);
+            System.err.println("Rendering scenes posted to http://localhost:" + service.getPort() + "/render.");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method opens window and displays scene as it is rendered */
+    private static void display(Scene scene) {
+        Renderer renderer = createRenderer(scene);
+        Raytracer raytracer = new Raytracer(renderer);
+        raytracer.startRefresh();
+        renderer.drawScene();
+        // repaint to ensure all pixels are displayed
+        raytracer.stopRefresh();
+        writeMetrics(renderer);
+    }
+    
+    /* This method renders every frame of animated scene to the image files pattern names */
+    private static void renderSequence(Scene scene, String pattern) {
+        System.setProperty("java.awt.headless", "true");
+        SequenceRenderer sequence = new SequenceRenderer(scene, threads);
+        sequence.setKernel(kernel);
+        sequence.setCullThreshold(cullThreshold);
+        sequence.setFramesInFlight(framesInFlight);
+        long start = System.nanoTime();
+        try {
+            sequence.render(pattern);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.err.printf("Rendered %d frames in %.0f ms, %.0f ms per frame.%n", scene.getFrames(), 
+                millis, millis / scene.getFrames());
+    }
+    
+    /* This method renders scene file at filePath again whenever it changes, to image file output or on window if it is null */
+    private static void watchScene(String filePath, String output) {
+        if(output != null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        SceneWatcher watcher = new SceneWatcher(new File(filePath), threads, kernel, cullThreshold);
+        Raytracer[] window = new Raytracer[1];
+        Renderer[] shown = new Renderer[1];
+        watcher.setRendered(() -> {
+            Renderer renderer = watcher.getRenderer();
+            if(output != null) {
+                try {
+                    ImageWriter.write(renderer.getImage(), new File(output));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if(renderer != shown[0]) { // a new viewport needs a new window
+                window[0] = new Raytracer(renderer);
+                shown[0] = renderer;
+                renderer.drawScene();
+            }
+            if(window[0] != null) {
+                window[0].stopRefresh();
+            }
+            writeMetrics(renderer);
+        });
+        try {
+            watcher.watch();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /* This method creates renderer with options from command line and exposes its metrics over JMX */
+    private static Renderer createRenderer(Scene scene) {
+        Renderer renderer = new Renderer(scene, threads);
+        renderer.setKernel(kernel);
+        renderer.setCullThreshold(cullThreshold);
+        try {
+            renderer.getMetrics().register();
+        } catch (JMException e) {
+            System.err.println("Could not register render metrics: " + e.getMessage());
+        }
+        return renderer;
+    }
+    
+    /* This method writes JSON summary of render metrics if an output file was given */
+    private static void writeMetrics(Renderer renderer) {
+        if(metricsOutput == null) {
+            return;
+        }
+        try {
+            renderer.getMetrics().writeSummary(new File(metricsOutput));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
     
     /* This method gets file from user and creates scene objects */
     public static void main(String[] args) {
         String filePath = "";
-        if(args.length == 1) {
-            filePath = args[0];
-        } else { // get file path via user input 
+        String output = null;
+        String coordinator = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if(args[i].equals("--kernel") && i + 1 < args.length) {
+                kernel = Renderer.Kernel.valueOf(args[++i].toUpperCase());
+            } else if(args[i].equals("--cull-threshold") && i + 1 < args.length) {
+                cullThreshold = Math.max(0, Double.parseDouble(args[++i]));
+            } else if(args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsOutput = args[++i];
+            } else if(args[i].equals("--convert") && i + 1 < args.length) {
+                convertOutput = args[++i];
+            } else if(args[i].equals("--output") && i + 1 < args.length) {
+                output = args[++i];
+            } else if(args[i].equals("--workers") && i + 1 < args.length) {
+                localWorkers = Math.max(0, Integer.parseInt(args[++i]));
+            } else if(args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--lease-timeout") && i + 1 < args.length) {
+                leaseTimeout = Long.parseLong(args[++i]);
+            } else if(args[i].equals("--sequence") && i + 1 < args.length) {
+                sequenceOutput = args[++i];
+            } else if(args[i].equals("--frames-in-flight") && i + 1 < args.length) {
+                framesInFlight = Math.max(1, Integer.parseInt(args[++i]));
+            } else if(args[i].equals("--budget") && i + 1 < args.length) {
+                budget = Math.max(0, Long.parseLong(args[++i]));
+            } else if(args[i].equals("--serve") && i + 1 < args.length) {
+                servePort = Math.max(0, Integer.parseInt(args[++i]));
+            } else if(args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDirectory = new File(args[++i]);
+            } else if(args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheSize = Math.max(0, Long.parseLong(args[++i])) << 20;
+            } else if(args[i].equals("--checkpoint") && i + 1 < args.length) {
+                checkpointFile = args[++i];
+            } else if(args[i].equals("--watch")) {
+                watch = true;
+            } else if(args[i].equals("--worker") && i + 1 < args.length) {
+                coordinator = args[++i];
+            } else {
+                filePath = args[i];
+            }
+        }
+        if(checkpointFile != null) { // only a plain render to a file saves its tiles
+            if(output == null) {
+                System.err.println("Checkpointing needs --output FILE.");
+                return;
+            }
+            if(sequenceOutput != null || budget >= 0 || watch || localWorkers > 0 || port >= 0 || servePort >= 0
+                    || coordinator != null || convertOutput != null) {
+                System.err.println("Checkpointing cannot be combined with --sequence, --budget, --watch, --serve, "
+                        + "--convert or distributed rendering.");
+                return;
+            }
+        }
+        if(coordinator != null) { // the scene comes from the coordinator
+            runWorker(coordinator);
+            return;
+        }
+        if(servePort >= 0) { // scenes come from requests
+            serve();
+            return;
+        }
+        if(filePath.isEmpty()) { // get file path via user input 
             Scanner userInput = new Scanner(System.in);
             System.out.println("Please enter absolute filepath below: ");
             filePath = userInput.nextLine();
             userInput.close();
         }
         
-        // convert json file to list of scene objects
-        JSONParser parser = new JSONParser();
-        JSONArray sceneDescr = null;
-        
-        try {
-            sceneDescr = (JSONArray) parser.parse(new FileReader(filePath));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (org.json.simple.parser.ParseException e) {
-            e.printStackTrace();
+        if(convertOutput != null) {
+            convertScene(filePath, convertOutput);
+            return;
         }
-        
-        if(sceneDescr != null) {
-            for(java.lang.Object sceneObj: sceneDescr) {
-                JSONObject object = (JSONObject) sceneObj;
-                
-                if(object.get("type").equals("scene")) {
-                    createScene(object);
-                } else if (object.get("type").equals("light")) {
-                    addLight(object);
-                } else if (object.get("type").equals("sphere")) {
-                    addSphere(object);
-                } else if (object.get("type").equals("plane")) {
-                    addPlane(object);
-                } else {
-                    System.err.println("Scene object type incorrectly specified.");;
-                }
-            } 
+        if(watch) {
+            watchScene(filePath, output);
+            return;
+        }
+        if(localWorkers > 0 || port >= 0) {
+            if(output == null) {
+                System.err.println("Distributed rendering needs --output FILE.");
+                return;
+            }
+            renderDistributed(filePath, output);
+            return;
+        }
+        if(checkpointFile != null) {
+            renderCheckpointed(filePath, output);
+            return;
+        }
+        Scene scene = loadScene(filePath);
+        if(sequenceOutput != null) {
+            renderSequence(scene, sequenceOutput);
+        } else if(budget >= 0) {
+            if(output == null) {
+                System.err.println("Rendering within a budget needs --output FILE.");
+                return;
+            }
+            renderWithin(scene, output);
+        } else if(output != null) {
+            renderToFile(scene, output);
         } else {
-            System.err.println("Please pass in non-empty scene description file.");
+            display(scene);
         }
-        
-        Object[] objects = new Object[sceneObj.size()];
-        objects = sceneObj.toArray(objects); 
-        
-        // create a raytracer and repaint to ensure all pixels are displayed
-        Raytracer raytracer = new Raytracer(viewWidth, viewHeight, maxRayDepth, fov, backgroundColor, objects);
-        raytracer.repaint();
     }
 
 }
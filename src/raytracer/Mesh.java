@@ -0,0 +1,340 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Mesh class - child class of Object made of triangles. Vertices and
+ * triangles are stored in flat primitive arrays, and the mesh has its own
+ * bounding volume hierarchy over its triangles, so the scene's BVH sees
+ * the whole mesh as a single object. Triangles are flat shaded
+ */
+public class Mesh extends Object {
+	/** Smallest distance along a ray at which a triangle is hit */
+	private static final double EPSILON = 1e-9;
+
+	/** x, y, z of every vertex */
+	private float[] vertices;
+
+	/** Three vertex indices per triangle, in the order of the hierarchy's leaves */
+	private int[] triangles;
+
+	/** Hierarchy over triangles, walked with skip links instead of a stack */
+	private BVHNodes tree;
+	private int[] skip;
+
+	/** Box enclosing all triangles */
+	private BoundingBox bounds;
+
+	/** Distance a point may lie off a triangle's box and still be on it */
+	private double tolerance;
+
+	/**
+	 * Creates mesh of triangles @param triangles, given as three indices
+	 * into @param vertices each, with properties respective to the other
+	 * parameters and black emission color
+	 */
+	public Mesh(float[] vertices, int[] triangles, Vector color, double transparency, double reflectivity, double idxOfRefrac) {
+		super(color, new Vector(0), transparency, reflectivity, idxOfRefrac);
+		this.emissionColor = new Vector(0);
+		this.vertices = vertices;
+
+		int count = triangles.length / 3;
+		double[] triBounds = new double[count * 6];
+		int[] prims = new int[count];
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for(int t = 0; t < count; t++) {
+			prims[t] = t;
+			for(int axis = 0; axis < 3; axis++) {
+				double a = vertices[triangles[t * 3] * 3 + axis];
+				double b = vertices[triangles[t * 3 + 1] * 3 + axis];
+				double c = vertices[triangles[t * 3 + 2] * 3 + axis];
+				triBounds[t * 6 + axis] = Math.min(a, Math.min(b, c));
+				triBounds[t * 6 + 3 + axis] = Math.max(a, Math.max(b, c));
+			}
+			minX = Math.min(minX, triBounds[t * 6]);
+			minY = Math.min(minY, triBounds[t * 6 + 1]);
+			minZ = Math.min(minZ, triBounds[t * 6 + 2]);
+			maxX = Math.max(maxX, triBounds[t * 6 + 3]);
+			maxY = Math.max(maxY, triBounds[t * 6 + 4]);
+			maxZ = Math.max(maxZ, triBounds[t * 6 + 5]);
+		}
+		this.tree = new BVHNodes(prims, triBounds, null);
+		this.skip = tree.skipLinks();
+
+		// store triangles in leaf order, so leaves index them directly
+		this.triangles = new int[count * 3];
+		for(int k = 0; k < count; k++) {
+			System.arraycopy(triangles, tree.primIndices[k] * 3, this.triangles, k * 3, 3);
+		}
+
+		double size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		double scale = Math.max(Math.abs(minX), Math.max(Math.abs(minY), Math.abs(minZ)));
+		scale = Math.max(scale, Math.max(Math.abs(maxX), Math.max(Math.abs(maxY), Math.abs(maxZ))));
+		this.tolerance = 1e-6 * (size + scale) + 1e-9;
+		if(count > 0) {
+			this.bounds = new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ).expand(tolerance);
+			this.center = new Vector(bounds.getCentroid(0), bounds.getCentroid(1), bounds.getCentroid(2));
+		} else {
+			this.bounds = new BoundingBox(0, 0, 0, 0, 0, 0);
+		}
+	}
+
+	/** @return number of triangles of mesh */
+	public int getTriangleCount() {
+		return triangles.length / 3;
+	}
+
+	/**
+	 * Overrides hitDistance method of Object class
+	 * Returns distance to nearest triangle hit in front of ray origin, or NaN if it misses
+	 */
+	@Override
+	public double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		if(Double.isNaN(dx + dy + dz)) {
+			return Double.NaN; // would pass every box test and visit every triangle
+		}
+		double best = Double.POSITIVE_INFINITY;
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		int node = 0;
+		while(node < skip.length) {
+			if(!tree.hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, best)) {
+				node = skip[node];
+			} else if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					double t = triangleDistance(k, ox, oy, oz, dx, dy, dz);
+					if(t < best) {
+						best = t;
+					}
+				}
+				node = skip[node];
+			} else {
+				node++;
+			}
+		}
+		return best < Double.POSITIVE_INFINITY ? best : Double.NaN;
+	}
+
+	/**
+	 * Overrides occludes method of Object class, returning on the first
+	 * triangle found closer than @param maxDistance
+	 */
+	@Override
+	public boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		if(Double.isNaN(dx + dy + dz)) {
+			return false;
+		}
+		double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		int node = 0;
+		while(node < skip.length) {
+			if(!tree.hitsNode(node, ox, oy, oz, invX, invY, invZ, 0, maxDistance)) {
+				node = skip[node];
+			} else if(nodeCount[node] > 0) {
+				int first = nodeOffset[node];
+				for(int k = first; k < first + nodeCount[node]; k++) {
+					if(triangleDistance(k, ox, oy, oz, dx, dy, dz) < maxDistance) {
+						return true;
+					}
+				}
+				node = skip[node];
+			} else {
+				node++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moller-Trumbore ray-triangle test
+	 * @return distance along ray to triangle @param k, or NaN if ray misses it
+	 */
+	private double triangleDistance(int k, double ox, double oy, double oz, double dx, double dy, double dz) {
+		int a = triangles[k * 3] * 3, b = triangles[k * 3 + 1] * 3, c = triangles[k * 3 + 2] * 3;
+		double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+		double e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+		double px = dy * e2z - dz * e2y;
+		double py = dz * e2x - dx * e2z;
+		double pz = dx * e2y - dy * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if(det == 0) {
+			return Double.NaN; // ray parallel to triangle
+		}
+		double invDet = 1 / det;
+		double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		double u = (sx * px + sy * py + sz * pz) * invDet;
+		if(u < 0 || u > 1) {
+			return Double.NaN;
+		}
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double v = (dx * qx + dy * qy + dz * qz) * invDet;
+		if(v < 0 || u + v > 1) {
+			return Double.NaN;
+		}
+		double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+		return t > EPSILON ? t : Double.NaN;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return normal of triangle the point lies on
+	 */
+	@Override
+	public Vector getNormal(Vector pointHit) {
+		double[] normal = new double[3];
+		getNormal(pointHit.getX(), pointHit.getY(), pointHit.getZ(), normal);
+		return new Vector(normal[0], normal[1], normal[2]);
+	}
+
+	/**
+	 * Writes normal of triangle point p lies on into @param normal without
+	 * allocating
+	 */
+	@Override
+	public void getNormal(double px, double py, double pz, double[] normal) {
+		int k = triangleAt(px, py, pz);
+		if(k < 0) {
+			normal[0] = 0;
+			normal[1] = 1;
+			normal[2] = 0;
+			return;
+		}
+		int a = triangles[k * 3] * 3, b = triangles[k * 3 + 1] * 3, c = triangles[k * 3 + 2] * 3;
+		double e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1], e1z = vertices[b + 2] - vertices[a + 2];
+		double e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1], e2z = vertices[c + 2] - vertices[a + 2];
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		double mag = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		normal[0] = nx / mag;
+		normal[1] = ny / mag;
+		normal[2] = nz / mag;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return approximate distance of point p to the triangle closest to it
+	 */
+	@Override
+	public double surfaceDistance(double px, double py, double pz) {
+		int k = triangleAt(px, py, pz);
+		if(k < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int a = triangles[k * 3] * 3, b = triangles[k * 3 + 1] * 3, c = triangles[k * 3 + 2] * 3;
+		double edge = 0;
+		for(int axis = 0; axis < 3; axis++) {
+			edge = Math.max(edge, Math.max(Math.abs(vertices[b + axis] - vertices[a + axis]),
+					Math.abs(vertices[c + axis] - vertices[a + axis])));
+		}
+		return planeDistance(k, px, py, pz) + outside(k, px, py, pz) * edge;
+	}
+
+	/**
+	 * Finds triangle point p lies on by walking the hierarchy for boxes
+	 * holding p and picking the triangle that p is least outside of,
+	 * then the one whose plane is closest to p
+	 * @return index of triangle, or -1 if no box holds p
+	 */
+	private int triangleAt(double px, double py, double pz) {
+		double[] nodeBounds = tree.nodeBounds;
+		int[] nodeCount = tree.nodeCount;
+		int[] nodeOffset = tree.nodeOffset;
+		double bestOutside = Double.POSITIVE_INFINITY, bestDistance = Double.POSITIVE_INFINITY;
+		int best = -1;
+		int node = 0;
+		while(node < skip.length) {
+			int b = node * 6;
+			if(px < nodeBounds[b] - tolerance || px > nodeBounds[b + 3] + tolerance
+					|| py < nodeBounds[b + 1] - tolerance || py > nodeBounds[b + 4] + tolerance
+					|| pz < nodeBounds[b + 2] - tolerance || pz > nodeBounds[b + 5] + tolerance) {
+				node = skip[node];
+				continue;
+			}
+			if(nodeCount[node] == 0) {
+				node++;
+				continue;
+			}
+			int first = nodeOffset[node];
+			for(int k = first; k < first + nodeCount[node]; k++) {
+				double outside = outside(k, px, py, pz);
+				if(!(outside <= bestOutside)) {
+					continue; // farther outside, or degenerate triangle
+				}
+				double distance = planeDistance(k, px, py, pz);
+				if(outside < bestOutside || distance < bestDistance) {
+					bestOutside = outside;
+					bestDistance = distance;
+					best = k;
+				}
+			}
+			node = skip[node];
+		}
+		return best;
+	}
+
+	/**
+	 * @return how far point p, projected onto the plane of triangle @param k,
+	 * lies outside of it in barycentric coordinates, or NaN if the triangle
+	 * is degenerate
+	 */
+	private double outside(int k, double px, double py, double pz) {
+		int a = triangles[k * 3] * 3, b = triangles[k * 3 + 1] * 3, c = triangles[k * 3 + 2] * 3;
+		double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+		double e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		double area2 = nx * nx + ny * ny + nz * nz;
+		if(area2 == 0) {
+			return Double.NaN;
+		}
+		double wx = px - ax, wy = py - ay, wz = pz - az;
+		double u = ((wy * e2z - wz * e2y) * nx + (wz * e2x - wx * e2z) * ny + (wx * e2y - wy * e2x) * nz) / area2;
+		double v = ((e1y * wz - e1z * wy) * nx + (e1z * wx - e1x * wz) * ny + (e1x * wy - e1y * wx) * nz) / area2;
+		return Math.max(0, -u) + Math.max(0, -v) + Math.max(0, u + v - 1);
+	}
+
+	/** @return distance of point p to the plane of triangle @param k */
+	private double planeDistance(int k, double px, double py, double pz) {
+		int a = triangles[k * 3] * 3, b = triangles[k * 3 + 1] * 3, c = triangles[k * 3 + 2] * 3;
+		double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+		double e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		return Math.abs((px - ax) * nx + (py - ay) * ny + (pz - az) * nz) / Math.sqrt(nx * nx + ny * ny + nz * nz);
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * Returns box enclosing all triangles of the mesh
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+		return bounds;
+	}
+
+	/**
+	 * Overrides method in Object class
+	 * @return true if @param other is a mesh of the same vertices and triangles
+	 */
+	@Override
+	public boolean sameGeometry(Object other) {
+		if(!super.sameGeometry(other)) {
+			return false;
+		}
+		Mesh mesh = (Mesh) other;
+		return Arrays.equals(vertices, mesh.vertices) && Arrays.equals(triangles, mesh.triangles);
+	}
+}
@@ -0,0 +1,224 @@
+package raytracer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ObjLoader Class - streaming reader of Wavefront OBJ geometry. Only
+ * vertex positions ("v") and faces ("f") are read; faces with more than
+ * three vertices are split into a fan of triangles. The file is read in
+ * blocks and numbers are parsed straight from the characters of each
+ * line, so no string is created per line or per number
+ */
+public class ObjLoader {
+	private float[] vertices = new float[3 * 1024];
+	private int vertexCount;
+	private int[] triangles = new int[3 * 1024];
+	private int triangleCount;
+
+	/** Line being parsed, its length and the parse position in it */
+	private char[] line = new char[256];
+	private int length;
+	private int cursor;
+	private int lineNumber;
+
+	/** Vertex indices of the face being parsed */
+	private int[] face = new int[16];
+
+	/**
+	 * @return loader holding geometry read from OBJ @param file
+	 */
+	public static ObjLoader load(File file) throws IOException {
+		ObjLoader loader = new ObjLoader();
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			loader.read(reader);
+		}
+		return loader;
+	}
+
+	/**
+	 * Reads OBJ geometry from @param reader, adding it to the geometry read so far
+	 */
+	public void read(Reader reader) throws IOException {
+		char[] buffer = new char[1 << 16];
+		int n;
+		while((n = reader.read(buffer)) >= 0) {
+			for(int i = 0; i < n; i++) {
+				char c = buffer[i];
+				if(c == '\n') {
+					parseLine();
+					length = 0;
+				} else {
+					if(length == line.length) {
+						line = Arrays.copyOf(line, line.length * 2);
+					}
+					line[length++] = c;
+				}
+			}
+		}
+		parseLine();
+		length = 0;
+	}
+
+	/** @return x, y, z of every vertex read */
+	public float[] getVertices() {
+		return Arrays.copyOf(vertices, vertexCount * 3);
+	}
+
+	/** @return three vertex indices, counted from 0, of every triangle read */
+	public int[] getTriangles() {
+		return Arrays.copyOf(triangles, triangleCount * 3);
+	}
+
+	private void parseLine() throws IOException {
+		lineNumber++;
+		cursor = 0;
+		skipSpaces();
+		if(cursor + 1 >= length || !isSpace(line[cursor + 1])) {
+			return;
+		}
+		char type = line[cursor];
+		cursor++;
+		if(type == 'v') {
+			addVertex(nextNumber(), nextNumber(), nextNumber());
+		} else if(type == 'f') {
+			int count = 0;
+			skipSpaces();
+			while(cursor < length) {
+				if(count == face.length) {
+					face = Arrays.copyOf(face, face.length * 2);
+				}
+				face[count++] = nextIndex();
+				skipSpaces();
+			}
+			if(count < 3) {
+				throw error("face needs at least three vertices");
+			}
+			for(int k = 1; k + 1 < count; k++) {
+				addTriangle(face[0], face[k], face[k + 1]);
+			}
+		}
+	}
+
+	private void addVertex(double x, double y, double z) {
+		if(vertexCount * 3 == vertices.length) {
+			vertices = Arrays.copyOf(vertices, vertices.length * 2);
+		}
+		vertices[vertexCount * 3] = (float) x;
+		vertices[vertexCount * 3 + 1] = (float) y;
+		vertices[vertexCount * 3 + 2] = (float) z;
+		vertexCount++;
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		if(triangleCount * 3 == triangles.length) {
+			triangles = Arrays.copyOf(triangles, triangles.length * 2);
+		}
+		triangles[triangleCount * 3] = a;
+		triangles[triangleCount * 3 + 1] = b;
+		triangles[triangleCount * 3 + 2] = c;
+		triangleCount++;
+	}
+
+	/**
+	 * @return 0 based vertex index of next face vertex, given as v, v/vt,
+	 * v//vn or v/vt/vn with v counted from 1, or from the end if negative
+	 */
+	private int nextIndex() throws IOException {
+		boolean negative = cursor < length && line[cursor] == '-';
+		if(negative) {
+			cursor++;
+		}
+		int start = cursor;
+		long value = 0;
+		while(cursor < length && line[cursor] >= '0' && line[cursor] <= '9') {
+			value = value * 10 + (line[cursor++] - '0');
+			if(value > Integer.MAX_VALUE) {
+				throw error("vertex index too large");
+			}
+		}
+		if(cursor == start) {
+			throw error("expected vertex index");
+		}
+		// texture and normal indices are not used
+		while(cursor < length && !isSpace(line[cursor])) {
+			cursor++;
+		}
+		long index = negative ? vertexCount - value : value - 1;
+		if(value == 0 || index < 0 || index >= vertexCount) {
+			throw error("vertex index out of range");
+		}
+		return (int) index;
+	}
+
+	/**
+	 * @return next number of line. Plain decimals are converted without
+	 * creating a string; other forms fall back to Double.parseDouble
+	 */
+	private double nextNumber() throws IOException {
+		skipSpaces();
+		int start = cursor;
+		while(cursor < length && !isSpace(line[cursor])) {
+			cursor++;
+		}
+		if(cursor == start) {
+			throw error("expected number");
+		}
+
+		int i = start;
+		boolean negative = line[i] == '-';
+		if(negative || line[i] == '+') {
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for(; i < cursor; i++) {
+			char c = line[i];
+			if(c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if(point) {
+					scale--;
+				}
+			} else if(c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if(i == cursor && digits > 0 && digits <= 15 && -scale < POWERS_OF_TEN.length) {
+			double value = mantissa / POWERS_OF_TEN[-scale];
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(new String(line, start, cursor - start));
+		} catch (NumberFormatException e) {
+			throw error("invalid number");
+		}
+	}
+
+	/** Powers of ten that are exact as doubles */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+			1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private void skipSpaces() {
+		while(cursor < length && isSpace(line[cursor])) {
+			cursor++;
+		}
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private IOException error(String message) {
+		return new IOException("Invalid OBJ line " + lineNumber + ": " + message + ".");
+	}
+}
@@ -33,8 +33,63 @@ public class Object {
 	
 	/**
 	 * @return true if @param ray intersects object
+	 * and sets ray's tnear to the distance of the hit
 	 *  */
-	public boolean intersect(Ray ray) { return true;}
+	public boolean intersect(Ray ray) {
+	    Vector origin = ray.getOrigin();
+	    Vector dir = ray.getDirection();
+	    double t = hitDistance(origin.getX(), origin.getY(), origin.getZ(), dir.getX(), dir.getY(), dir.getZ());
+	    if(Double.isNaN(t)) {
+	        return false;
+	    }
+	    ray.setTNear(t);
+	    return true;
+	}
+	
+	/**
+	 * Intersects ray with origin o and direction d without allocating
+	 * @return distance along ray to hit, or NaN if ray misses object.
+	 * child classes override this method; the base object is hit by every ray at its origin
+	 *  */
+	public double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+	    return 0;
+	}
+	
+	/**
+	 * Shadow query: tells whether the object blocks a ray with origin o 
+	 * and direction d before it travels @param maxDistance. Unlike intersect,
+	 * only answers yes or no and never writes to a ray
+	 * @return true if ray hits object at a distance in [0, maxDistance)
+	 *  */
+	public boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+	    double t = hitDistance(ox, oy, oz, dx, dy, dz);
+	    return t >= 0 && t < maxDistance;
+	}
+	
+	/**
+	 * @return true if object blocks @param ray before it travels @param maxDistance.
+	 * ray is left unchanged
+	 *  */
+	public boolean occludes(Ray ray, double maxDistance) {
+	    Vector origin = ray.getOrigin();
+	    Vector dir = ray.getDirection();
+	    return occludes(origin.getX(), origin.getY(), origin.getZ(), dir.getX(), dir.getY(), dir.getZ(), maxDistance);
+	}
+	
+	/**
+	 * @return true if object emits light
+	 *  */
+	public boolean isLight() {
+	    return emissionColor != null && emissionColor.magnitude() > 0;
+	}
+	
+	/**
+	 * @return axis aligned box enclosing every point the object can be hit at
+	 * child classes override this method; the base object is unbounded
+	 *  */
+	public BoundingBox getBoundingBox() {
+	    return BoundingBox.INFINITE;
+	}
 	
 	/**
 	 * @return transparency of object
@@ -85,6 +140,63 @@ public class Object {
 	    return new Vector(0);
 	}
 	
+	/**
+	 * Writes normal of object at point p into @param normal without allocating
+	 * child classes override this method
+	 *  */
+	public void getNormal(double px, double py, double pz, double[] normal) {
+	    normal[0] = 0;
+	    normal[1] = 0;
+	    normal[2] = 0;
+	}
+	
+	/**
+	 * @return object whose color and material shade point p of this object.
+	 * Overriden by instances, which are shaded by the object of their group
+	 * the point lies on
+	 *  */
+	public Object surfaceAt(double px, double py, double pz) {
+	    return this;
+	}
+	
+	/**
+	 * @return distance of point p to the surface of object, used to find
+	 * the object of a group a point lies on.
+	 * child classes override this method; the base object has no surface
+	 *  */
+	public double surfaceDistance(double px, double py, double pz) {
+	    return Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * @return true if rays hit @param other where and as they hit this
+	 * object: it is of the same class, with the same shape and place.
+	 * child classes with a shape override this method
+	 *  */
+	public boolean sameGeometry(Object other) {
+	    return other.getClass() == getClass() && same(center, other.center);
+	}
+	
+	/**
+	 * @return true if @param other is shaded as this object is: it has the
+	 * same colors, emission, transparency, reflectivity and refractive index
+	 *  */
+	public boolean sameMaterial(Object other) {
+	    return same(color, other.color) && same(emissionColor, other.emissionColor) 
+	            && transparency == other.transparency && reflectivity == other.reflectivity 
+	            && idxOfRefrac == other.idxOfRefrac;
+	}
+	
+	/** 
+	 * @return true if vectors @param a and @param b are both null or have equal components 
+	 * */
+	protected static boolean same(Vector a, Vector b) {
+	    if(a == null || b == null) {
+	        return a == b;
+	    }
+	    return a.getX() == b.getX() && a.getY() == b.getY() && a.getZ() == b.getZ();
+	}
+	
 	/** 
      * Overriden by plane class to return true
      * @return false
@@ -92,5 +204,13 @@ public class Object {
 	public boolean isPlane() {
 	    return false;
 	}
+	
+	/**
+	 * @return true if hitDistance also reports hits behind the ray origin,
+	 * which planes do
+	 *  */
+	public boolean isTwoSided() {
+	    return isPlane();
+	}
 }
 
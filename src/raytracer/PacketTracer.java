@@ -0,0 +1,226 @@
+package raytracer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PacketTracer Class - finds the nearest hits of packets of rays that
+ * share an origin, such as the primary rays of neighboring pixels, one
+ * ray per SIMD lane of jdk.incubator.vector. A packet walks the BVH
+ * together: a node is entered if any of its rays hits the node's box,
+ * and spheres are tested against all rays of the packet at once, with
+ * masks for the rays that hit. Other objects are tested one ray at a
+ * time. The arithmetic is the scalar tests' own, lane by lane, so the
+ * hits found are exactly those of BVH.nearest.
+ * Only loaded if the jdk.incubator.vector module is present, see
+ * Renderer.packetsSupported
+ */
+public class PacketTracer {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/** Number of rays in a packet, the number of doubles in a SIMD register */
+	public static final int LANES = SPECIES.length();
+
+	/** Rays of a packet and their hits, reused from packet to packet by one thread */
+	public static class Packet {
+		/** Directions of the rays */
+		public final double[] dx = new double[LANES];
+		public final double[] dy = new double[LANES];
+		public final double[] dz = new double[LANES];
+		/** Index of object each ray hits, or -1, and its distance */
+		public final int[] hits = new int[LANES];
+		public final double[] tnear = new double[LANES];
+		/** Distances of one object's scalar tests */
+		private final double[] t = new double[LANES];
+		private final double[] hitIndices = new double[LANES];
+		private final int[] stack = new int[BVH.STACK_SIZE];
+	}
+
+	private final Object[] objects;
+	private final byte[] kinds;
+	private final int[] unbounded;
+	private final BVHNodes nodes;
+	private final int[] primIndices;
+	private final double[] nodeBounds;
+	private final int[] nodeOffset;
+	private final int[] nodeCount;
+	private final int[] nodeAxis;
+	private final boolean[] nodeTwoSided;
+
+	/** Centers and radii of objects that are spheres, tested a packet at a time */
+	private final boolean[] isSphere;
+	private final double[] sphereX, sphereY, sphereZ, sphereRadius;
+
+	/**
+	 * Creates tracer of packets through @param bvh
+	 */
+	public PacketTracer(BVH bvh) {
+		this.objects = bvh.getObjects();
+		this.kinds = bvh.getKinds();
+		this.unbounded = bvh.getUnbounded();
+		this.nodes = bvh.getNodes();
+		this.primIndices = nodes.primIndices;
+		this.nodeBounds = nodes.nodeBounds;
+		this.nodeOffset = nodes.nodeOffset;
+		this.nodeCount = nodes.nodeCount;
+		this.nodeAxis = nodes.nodeAxis;
+		this.nodeTwoSided = nodes.nodeTwoSided;
+		int n = objects.length;
+		isSphere = new boolean[n];
+		sphereX = new double[n];
+		sphereY = new double[n];
+		sphereZ = new double[n];
+		sphereRadius = new double[n];
+		for(int i = 0; i < n; i++) {
+			// subclasses may intersect differently
+			if(objects[i].getClass() == Sphere.class) {
+				Sphere sphere = (Sphere) objects[i];
+				isSphere[i] = true;
+				sphereX[i] = sphere.getCenter().getX();
+				sphereY[i] = sphere.getCenter().getY();
+				sphereZ[i] = sphere.getCenter().getZ();
+				sphereRadius[i] = sphere.getRadius();
+			}
+		}
+	}
+
+	/**
+	 * Finds the nearest object hit by each of the first @param count rays
+	 * of @param packet, which start at o, and stores it in packet.hits and
+	 * its distance in packet.tnear, as BVH.nearest would. Intersection tests
+	 * are counted in @param counters.
+	 * The tests are written out in this one method rather than in helpers,
+	 * as vectors passed between methods the compiler does not inline are
+	 * boxed, which costs more than the lanes save
+	 */
+	public void nearest(double ox, double oy, double oz, Packet packet, int count, RenderMetrics.Counters counters) {
+		long[] tests = counters.tests;
+		VectorMask<Double> active = SPECIES.indexInRange(0, count);
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, packet.dx, 0);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, packet.dy, 0);
+		DoubleVector dz = DoubleVector.fromArray(SPECIES, packet.dz, 0);
+		DoubleVector best = DoubleVector.broadcast(SPECIES, Double.MAX_VALUE);
+		DoubleVector hit = DoubleVector.broadcast(SPECIES, -1);
+
+		for(int i : unbounded) {
+			tests[kinds[i]] += count;
+			scalarDistances(i, ox, oy, oz, packet, count);
+			DoubleVector t = DoubleVector.fromArray(SPECIES, packet.t, 0);
+			// ties go to the lower object index, as in BVH.nearest
+			VectorMask<Double> closer = t.compare(VectorOperators.LT, best)
+					.or(t.compare(VectorOperators.EQ, best).and(hit.compare(VectorOperators.GT, i)))
+					.and(active);
+			best = best.blend(t, closer);
+			hit = hit.blend(i, closer);
+		}
+
+		if(primIndices.length > 0) {
+			DoubleVector invX = DoubleVector.broadcast(SPECIES, 1).div(dx);
+			DoubleVector invY = DoubleVector.broadcast(SPECIES, 1).div(dy);
+			DoubleVector invZ = DoubleVector.broadcast(SPECIES, 1).div(dz);
+			int[] stack = packet.stack;
+			int top = 0;
+			stack[top++] = 0;
+			while(top > 0) {
+				int node = stack[--top];
+
+				// the slab test of BVHNodes.hitsNode, lane by lane; NaN
+				// bounds come from rays parallel to a face and are ignored
+				int b = node * 6;
+				DoubleVector near = DoubleVector.broadcast(SPECIES, nodeTwoSided[node] ? Double.NEGATIVE_INFINITY : 0);
+				DoubleVector far = best;
+				DoubleVector t1 = invX.mul(nodeBounds[b] - ox);
+				DoubleVector t2 = invX.mul(nodeBounds[b + 3] - ox);
+				VectorMask<Double> swap = t1.compare(VectorOperators.GT, t2);
+				DoubleVector lo = t1.blend(t2, swap);
+				DoubleVector hi = t2.blend(t1, swap);
+				near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+				far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+				t1 = invY.mul(nodeBounds[b + 1] - oy);
+				t2 = invY.mul(nodeBounds[b + 4] - oy);
+				swap = t1.compare(VectorOperators.GT, t2);
+				lo = t1.blend(t2, swap);
+				hi = t2.blend(t1, swap);
+				near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+				far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+				t1 = invZ.mul(nodeBounds[b + 2] - oz);
+				t2 = invZ.mul(nodeBounds[b + 5] - oz);
+				swap = t1.compare(VectorOperators.GT, t2);
+				lo = t1.blend(t2, swap);
+				hi = t2.blend(t1, swap);
+				near = near.blend(lo, lo.compare(VectorOperators.GT, near));
+				far = far.blend(hi, hi.compare(VectorOperators.LT, far));
+				VectorMask<Double> entering = near.compare(VectorOperators.LE, far).and(active);
+				if(!entering.anyTrue()) {
+					continue;
+				}
+
+				if(nodeCount[node] > 0) {
+					int lanes = entering.trueCount();
+					int first = nodeOffset[node];
+					for(int k = first; k < first + nodeCount[node]; k++) {
+						int i = primIndices[k];
+						tests[kinds[i]] += lanes;
+						DoubleVector t;
+						if(isSphere[i]) {
+							// the operations of Sphere.hitDistance, in its order
+							double radius = sphereRadius[i];
+							double lx = sphereX[i] - ox;
+							double ly = sphereY[i] - oy;
+							double lz = sphereZ[i] - oz;
+							double l2 = lx*lx + ly*ly + lz*lz;
+							DoubleVector tCenter = dx.mul(lx).add(dy.mul(ly)).add(dz.mul(lz));
+							DoubleVector d2 = DoubleVector.broadcast(SPECIES, l2).sub(tCenter.mul(tCenter));
+							VectorMask<Double> miss = tCenter.compare(VectorOperators.LT, 0)
+									.or(d2.compare(VectorOperators.GT, radius*radius));
+							DoubleVector tDiff = DoubleVector.broadcast(SPECIES, radius*radius).sub(d2)
+									.lanewise(VectorOperators.SQRT);
+							DoubleVector t0 = tCenter.sub(tDiff);
+							t0 = t0.blend(tCenter.add(tDiff), t0.compare(VectorOperators.LT, 0));
+							t = t0.blend(Double.NaN, miss);
+						} else {
+							scalarDistances(i, ox, oy, oz, packet, count);
+							t = DoubleVector.fromArray(SPECIES, packet.t, 0);
+						}
+						VectorMask<Double> closer = t.compare(VectorOperators.LT, best)
+								.or(t.compare(VectorOperators.EQ, best).and(hit.compare(VectorOperators.GT, i)))
+								.and(entering);
+						best = best.blend(t, closer);
+						hit = hit.blend(i, closer);
+					}
+				} else {
+					// visit child on the near side of the split first, as seen by the first ray
+					int left = node + 1;
+					int right = nodeOffset[node];
+					double d = nodeAxis[node] == 0 ? packet.dx[0] : nodeAxis[node] == 1 ? packet.dy[0] : packet.dz[0];
+					if(d < 0) {
+						stack[top++] = left;
+						stack[top++] = right;
+					} else {
+						stack[top++] = right;
+						stack[top++] = left;
+					}
+				}
+			}
+		}
+
+		best.intoArray(packet.tnear, 0);
+		hit.intoArray(packet.hitIndices, 0);
+		for(int lane = 0; lane < count; lane++) {
+			packet.hits[lane] = (int) packet.hitIndices[lane];
+		}
+	}
+
+	/**
+	 * Stores in packet.t the distance along each of the first @param count
+	 * rays of @param packet to object @param i, tested one ray at a time
+	 */
+	private void scalarDistances(int i, double ox, double oy, double oz, Packet packet, int count) {
+		Object object = objects[i];
+		for(int lane = 0; lane < count; lane++) {
+			packet.t[lane] = object.hitDistance(ox, oy, oz, packet.dx[lane], packet.dy[lane], packet.dz[lane]);
+		}
+	}
+}
@@ -46,34 +46,56 @@ public class Plane extends Object{
 	}
 
 	/**
-	 * Overrides intersect method of Object class 
-	 * @return true of ray intersects plane 
+	 * Overrides hitDistance method of Object class 
+	 * @return distance to point where ray hits plane within its width and
+	 * height, or NaN if it misses 
 	 */
 	@Override
-	public boolean intersect(Ray ray) {
-		Vector direction = ray.getDirection();
+	public double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double nx = normal.getX(), ny = normal.getY(), nz = normal.getZ();
 
-		double dotProduct = direction.dot(normal);
+		double dotProduct = dx*nx + dy*ny + dz*nz;
 		if(dotProduct > 1e-6) { // ray is || to plane
-		    return false;
+		    return Double.NaN;
 		} else {
+			double cx = center.getX(), cy = center.getY(), cz = center.getZ();
+			
 			// Find point where ray intersects plane
-			double distance = (center.subtract(ray.getOrigin()).dot(normal)) / ray.getDirection().dot(normal);
-			ray.setTNear(distance);
-			Vector intersectPoint = ray.getDirection().scalarMult(distance).add(ray.getOrigin());
+			double distance = ((cx - ox)*nx + (cy - oy)*ny + (cz - oz)*nz) / dotProduct;
 			
 			// Transform from world- to plane-based coordinate systems 
-			double newX = intersectPoint.subtract(center).dot(p1);
-			double newY = intersectPoint.subtract(center).dot(p2);
-			double newZ = intersectPoint.subtract(center).dot(normal);
-			
-			intersectPoint = new Vector(newX, newY, newZ);
+			double relX = (dx*distance + ox) - cx;
+			double relY = (dy*distance + oy) - cy;
+			double relZ = (dz*distance + oz) - cz;
+			double newX = relX*p1.getX() + relY*p1.getY() + relZ*p1.getZ();
+			double newY = relX*p2.getX() + relY*p2.getY() + relZ*p2.getZ();
 
 			// Check if point is within rectangle
-			return Math.abs(intersectPoint.getX()) < width / 2 && Math.abs(intersectPoint.getY()) < height / 2;
+			if(Math.abs(newX) < width / 2 && Math.abs(newY) < height / 2) {
+			    return distance;
+			}
+			return Double.NaN;
 		}
 	}
 	
+	/**
+	 * Overrides occludes method of Object class, checking distance to
+	 * the plane before the point is transformed into the rectangle's frame
+	 */
+	@Override
+	public boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+		double nx = normal.getX(), ny = normal.getY(), nz = normal.getZ();
+		double dotProduct = dx*nx + dy*ny + dz*nz;
+		if(dotProduct > 1e-6) {
+			return false;
+		}
+		double distance = ((center.getX() - ox)*nx + (center.getY() - oy)*ny + (center.getZ() - oz)*nz) / dotProduct;
+		if(!(distance >= 0 && distance < maxDistance)) {
+			return false;
+		}
+		return !Double.isNaN(hitDistance(ox, oy, oz, dx, dy, dz));
+	}
+	
 	/** 
 	 * Overrides method in Object class
 	 * @return normal of the plane, which is same at all points 
@@ -83,6 +105,86 @@ public class Plane extends Object{
 	    return normal;
 	}
 	
+	/** @return normal of the plane */
+	public Vector getNormal() {
+	    return normal;
+	}
+	
+	/** @return unit axis of the plane along its width */
+	public Vector getAxisX() {
+	    return p1;
+	}
+	
+	/** @return unit axis of the plane along its height */
+	public Vector getAxisY() {
+	    return p2;
+	}
+	
+	/** @return width of the plane */
+	public double getWidth() {
+	    return width;
+	}
+	
+	/** @return height of the plane */
+	public double getHeight() {
+	    return height;
+	}
+	
+	/** 
+	 * Overrides method in Object class
+	 * writes normal of the plane into @param normal
+	 */
+	@Override
+	public void getNormal(double px, double py, double pz, double[] normal) {
+	    normal[0] = this.normal.getX();
+	    normal[1] = this.normal.getY();
+	    normal[2] = this.normal.getZ();
+	}
+	
+	/** 
+	 * Overrides method in Object class
+	 * @return distance of point p to the width x height rectangle
+	 */
+	@Override
+	public double surfaceDistance(double px, double py, double pz) {
+		double relX = px - center.getX();
+		double relY = py - center.getY();
+		double relZ = pz - center.getZ();
+		double off = relX*normal.getX() + relY*normal.getY() + relZ*normal.getZ();
+		double outX = Math.max(0, Math.abs(relX*p1.getX() + relY*p1.getY() + relZ*p1.getZ()) - width / 2);
+		double outY = Math.max(0, Math.abs(relX*p2.getX() + relY*p2.getY() + relZ*p2.getZ()) - height / 2);
+		return Math.sqrt(off*off + outX*outX + outY*outY);
+	}
+	/**
+	 * Overrides method in Object class
+	 * @return box enclosing the width x height rectangle spanned by p1 and p2
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+	    double halfW = width / 2;
+	    double halfH = height / 2;
+	    double pad = 1e-6 * (1 + width + height + Math.max(Math.abs(center.getX()), 
+	            Math.max(Math.abs(center.getY()), Math.abs(center.getZ()))));
+	    Vector extent = new Vector(
+	            Math.abs(p1.getX()) * halfW + Math.abs(p2.getX()) * halfH + pad,
+	            Math.abs(p1.getY()) * halfW + Math.abs(p2.getY()) * halfH + pad,
+	            Math.abs(p1.getZ()) * halfW + Math.abs(p2.getZ()) * halfH + pad);
+	    return new BoundingBox(center, extent);
+	}
+	
+	/**
+	 * Overrides method in Object class
+	 * @return true if @param other is a plane of the same center, normal and size
+	 */
+	@Override
+	public boolean sameGeometry(Object other) {
+	    if(!super.sameGeometry(other)) {
+	        return false;
+	    }
+	    Plane plane = (Plane) other;
+	    return same(normal, plane.normal) && width == plane.width && height == plane.height;
+	}
+	
 	/** 
 	 * Overrides method in Object class
 	 * returns true
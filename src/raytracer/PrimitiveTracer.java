@@ -0,0 +1,485 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * PrimitiveTracer Class - allocation free version of the Renderer's trace.
+ * Rays, hit points, normals and colors are kept in primitive doubles and
+ * per-thread scratch arrays, so tracing a ray creates no objects once the
+ * thread's scratch space exists. Rays are intersected with the scene's
+ * CompiledScene and surfaces shaded from its material table, so spheres
+ * and planes are traced without calls through Object. trace computes
+ * the same colors as the Vector based trace, operation for operation;
+ * traceIterative evaluates the same ray tree from an explicit stack and
+ * skips negligible branches.
+ */
+public class PrimitiveTracer {
+	/** Scratch space of one thread, reused for every ray it traces */
+	public static class Scratch {
+		/** BVH traversal stack */
+		final int[] stack = new int[BVH.STACK_SIZE];
+		/** Distance of nearest hit returned by the BVH */
+		final double[] tnear = new double[1];
+		/** Normal at a hit point */
+		final double[] normal = new double[3];
+		/** Color returned by trace at each depth, as r, g, b triples */
+		final double[] colors;
+		/** Light reaching a diffuse hit point from all emitters, as r, g, b */
+		final double[] direct = new double[3];
+		/** Material of the surface of an instance hit, laid out as in the material table; read before rays are spawned */
+		final double[] material = new double[CompiledScene.MATERIAL];
+		/** Rays waiting to be traced by traceIterative, RAY_FIELDS doubles each */
+		final double[] rays;
+		/** Depth of every ray waiting to be traced by traceIterative */
+		final int[] depths;
+		/** Rays and intersection tests counted by this thread */
+		final RenderMetrics.Counters counters = new RenderMetrics.Counters();
+		/** Tile the rays traced are recorded for, null if they are not recorded */
+		TileDependencies.Tile dependencies;
+		/**
+		 * Object that last blocked this thread's shadow rays towards each
+		 * light, in the order of the tracer's lights, or -1. Neighboring
+		 * points are mostly shadowed by the same object, so it is tested
+		 * before the hierarchy is walked
+		 */
+		final int[] occluders;
+
+		Scratch(int maxRayDepth, int lights) {
+			occluders = new int[lights];
+			Arrays.fill(occluders, -1);
+			colors = new double[(maxRayDepth + 2) * 3];
+			rays = new double[(maxRayDepth + 2) * RAY_FIELDS];
+			depths = new int[maxRayDepth + 2];
+		}
+	}
+
+	/** Weight below which traceIterative drops a branch, unless set otherwise */
+	public static final double DEFAULT_CULL_THRESHOLD = 1.0 / 1024;
+
+	/** Origin, direction and r, g, b weight of a ray waiting in the stack */
+	static final int RAY_FIELDS = 9;
+
+	private int maxRayDepth;
+	private Vector backgroundColor;
+	private Object[] objects;
+	private CompiledScene scene;
+	private double[] materials;
+	private int[] lights;
+	/** Center and emission color of every light, six doubles each */
+	private double[] lightData;
+	private ThreadLocal<Scratch> scratch;
+	private double cullThreshold = DEFAULT_CULL_THRESHOLD;
+
+	/**
+	 * Creates tracer for objects of scene, their hierarchy and the
+	 * indices of the objects that emit light
+	 */
+	public PrimitiveTracer(int maxRayDepth, Vector backgroundColor, Object[] objects, BVH bvh, int[] lights) {
+		this.maxRayDepth = maxRayDepth;
+		this.backgroundColor = backgroundColor;
+		this.objects = objects;
+		this.scene = bvh.getCompiled();
+		this.materials = scene.getMaterials();
+		this.lights = lights;
+		this.lightData = new double[lights.length * 6];
+		for(int l = 0; l < lights.length; l++) {
+			Vector center = objects[lights[l]].getCenter();
+			Vector emission = objects[lights[l]].getEmissionColor();
+			lightData[l * 6] = center.getX();
+			lightData[l * 6 + 1] = center.getY();
+			lightData[l * 6 + 2] = center.getZ();
+			lightData[l * 6 + 3] = emission.getX();
+			lightData[l * 6 + 4] = emission.getY();
+			lightData[l * 6 + 5] = emission.getZ();
+		}
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(maxRayDepth, lights.length));
+	}
+
+	/**
+	 * Sets weight at or below which traceIterative stops tracing a
+	 * reflected or refracted ray; 0 traces every branch that contributes
+	 */
+	public void setCullThreshold(double cullThreshold) {
+		this.cullThreshold = cullThreshold;
+	}
+
+	/** @return weight at or below which traceIterative drops a branch */
+	public double getCullThreshold() {
+		return cullThreshold;
+	}
+
+	/** @return scratch space of calling thread */
+	public Scratch getScratch() {
+		return scratch.get();
+	}
+
+	/**
+	 * Traces ray with origin o and direction d at @param depth
+	 * and stores its color in s.colors[depth * 3 .. depth * 3 + 2]
+	 */
+	public void trace(double ox, double oy, double oz, double dx, double dy, double dz, int depth, Scratch s) {
+		s.counters.reachedDepth(depth);
+
+		// find nearest object hit by ray
+		int hit = scene.nearest(ox, oy, oz, dx, dy, dz, s.stack, s.tnear, s.counters);
+		shade(hit, s.tnear[0], ox, oy, oz, dx, dy, dz, depth, s);
+	}
+
+	/**
+	 * Traces ray with origin o and direction d at @param depth whose nearest
+	 * hit is already known to be object @param hit at distance @param tnear,
+	 * or nothing if hit is negative, e.g. found for a packet of rays at
+	 * once, and stores its color like trace. Rays it spawns are traced
+	 * one at a time
+	 */
+	public void shade(int hit, double tnear, double ox, double oy, double oz, double dx, double dy, double dz,
+			int depth, Scratch s) {
+		double[] col = s.colors;
+		int c = depth * 3;
+		record(hit, tnear, ox, oy, oz, dx, dy, dz, s);
+
+		// if ray does not intersect with any object
+		if(hit < 0) {
+			col[c] = backgroundColor.getX();
+			col[c + 1] = backgroundColor.getY();
+			col[c + 2] = backgroundColor.getZ();
+			return;
+		}
+		double px = ox + dx * tnear;
+		double py = oy + dy * tnear;
+		double pz = oz + dz * tnear;
+		scene.getNormal(hit, px, py, pz, s.normal);
+		double nx = s.normal[0], ny = s.normal[1], nz = s.normal[2];
+		double[] material = material(hit, px, py, pz, s);
+		int m = material == materials ? hit * CompiledScene.MATERIAL : 0;
+		double surfaceR = material[m + CompiledScene.COLOR];
+		double surfaceG = material[m + CompiledScene.COLOR + 1];
+		double surfaceB = material[m + CompiledScene.COLOR + 2];
+		double emissionR = material[m + CompiledScene.EMISSION];
+		double emissionG = material[m + CompiledScene.EMISSION + 1];
+		double emissionB = material[m + CompiledScene.EMISSION + 2];
+		double transparency = material[m + CompiledScene.TRANSPARENCY];
+		double reflectivity = material[m + CompiledScene.REFLECTIVITY];
+		double refrac = material[m + CompiledScene.REFRACTION];
+
+		// add some bias to the point from which we will be tracing
+		double bias = 1e-4;
+		boolean insideObj = false;
+
+		// true if normal and ray face same direction, inside object
+		if(dx * nx + dy * ny + dz * nz > 0) {
+			nx = -nx;
+			ny = -ny;
+			nz = -nz;
+			insideObj = true;
+		}
+
+		double r, g, b;
+		if((transparency > 0 || reflectivity > 0) && depth < maxRayDepth) {
+			// calculate incidence ratio and fresnel ratio
+			double incidenceAngleRatio = -dx * nx + -dy * ny + -dz * nz;
+			double fresneleffect = Renderer.fresnelEffect(Math.pow((1 - incidenceAngleRatio), 3), 1, 0.1);
+
+			// reflect ray
+			double dn = dx * nx + dy * ny + dz * nz;
+			double rx = dx - nx * 2 * dn;
+			double ry = dy - ny * 2 * dn;
+			double rz = dz - nz * 2 * dn;
+			double mag = Math.sqrt((rx * rx) + (ry * ry) + (rz * rz));
+			s.counters.reflectionRays++;
+			trace(px + nx * bias, py + ny * bias, pz + nz * bias, rx / mag, ry / mag, rz / mag, depth + 1, s);
+			double reflR = col[c + 3], reflG = col[c + 4], reflB = col[c + 5];
+			double refrR = 0, refrG = 0, refrB = 0;
+
+			// if object is transparent
+			if(transparency > 0) {
+				double indRefrac = (insideObj) ? refrac : 1 / refrac;
+
+				double cosInd = -nx * dx + -ny * dy + -nz * dz;
+				double k = 1 - indRefrac * indRefrac * (1 - cosInd * cosInd);
+				double scale = indRefrac * cosInd - Math.sqrt(k);
+				double tx = dx * indRefrac + nx * scale;
+				double ty = dy * indRefrac + ny * scale;
+				double tz = dz * indRefrac + nz * scale;
+				mag = Math.sqrt((tx * tx) + (ty * ty) + (tz * tz));
+				s.counters.refractionRays++;
+				trace(px - nx * bias, py - ny * bias, pz - nz * bias, tx / mag, ty / mag, tz / mag, depth + 1, s);
+				refrR = col[c + 3];
+				refrG = col[c + 4];
+				refrB = col[c + 5];
+			}
+			r = (reflR * fresneleffect * reflectivity + refrR * (1 - fresneleffect) * transparency) * surfaceR;
+			g = (reflG * fresneleffect * reflectivity + refrG * (1 - fresneleffect) * transparency) * surfaceG;
+			b = (reflB * fresneleffect * reflectivity + refrB * (1 - fresneleffect) * transparency) * surfaceB;
+		} else { // object is opaque and diffuse or maximum ray tracing reached
+			directLight(px, py, pz, nx, ny, nz, bias, surfaceR, surfaceG, surfaceB, s);
+			r = s.direct[0];
+			g = s.direct[1];
+			b = s.direct[2];
+		}
+		col[c] = r + emissionR;
+		col[c + 1] = g + emissionG;
+		col[c + 2] = b + emissionB;
+	}
+
+	/**
+	 * @return material table holding the material point p of object @param hit
+	 * is shaded with, at hit * MATERIAL, or s.material holding it at 0 if
+	 * the object is an instance, shaded by the object of its group the
+	 * point lies on
+	 */
+	private double[] material(int hit, double px, double py, double pz, Scratch s) {
+		if(scene.getType(hit) != CompiledScene.TYPE_OTHER) {
+			return materials;
+		}
+		Object surface = objects[hit].surfaceAt(px, py, pz);
+		if(surface == objects[hit]) {
+			return materials;
+		}
+		CompiledScene.putMaterial(s.material, 0, surface);
+		return s.material;
+	}
+
+	/**
+	 * Traces ray with origin o and direction d without recursion and
+	 * stores its color in s.colors[0 .. 2]. Reflected and refracted rays
+	 * wait in the scratch stack with the weight their color is added to
+	 * the pixel with, and branches whose weight is at most the cull
+	 * threshold are never traced
+	 */
+	public void traceIterative(double ox, double oy, double oz, double dx, double dy, double dz, Scratch s) {
+		double[] rays = s.rays;
+		int[] depths = s.depths;
+		double[] color = s.colors;
+		RenderMetrics.Counters counters = s.counters;
+		color[0] = 0;
+		color[1] = 0;
+		color[2] = 0;
+		int top = push(rays, depths, 0, ox, oy, oz, dx, dy, dz, 1, 1, 1, 0);
+		while(top > 0) {
+			top--;
+			int k = top * RAY_FIELDS;
+			int depth = depths[top];
+			counters.reachedDepth(depth);
+
+			// find nearest object hit by ray
+			int hit = scene.nearest(rays[k], rays[k + 1], rays[k + 2], rays[k + 3], rays[k + 4], rays[k + 5], 
+					s.stack, s.tnear, counters);
+			record(hit, s.tnear[0], rays[k], rays[k + 1], rays[k + 2], rays[k + 3], rays[k + 4], rays[k + 5], s);
+			top = shadeWeighted(hit, s.tnear[0], rays, k, depth, color, 0, rays, depths, null, 0, top, s);
+		}
+	}
+
+	/**
+	 * Shades the ray at rays[@param k] of @param depth, laid out as the
+	 * rays traceIterative stacks, which hits object @param hit at distance
+	 * @param tnear, or nothing if hit is negative. Adds the light it
+	 * carries, times its weight, to color[c .. c + 2] and pushes the
+	 * reflected and refracted rays it spawns with their weights onto the
+	 * @param top rays of @param next and nextDepths, tagged with @param path
+	 * in nextPaths unless it is null. Branches whose weight is at most the
+	 * cull threshold are counted and dropped. The ray is read before any
+	 * ray is pushed, so next may be rays
+	 * @return new number of rays in next
+	 */
+	int shadeWeighted(int hit, double tnear, double[] rays, int k, int depth, double[] color, int c, 
+			double[] next, int[] nextDepths, int[] nextPaths, int path, int top, Scratch s) {
+		RenderMetrics.Counters counters = s.counters;
+		double ox = rays[k], oy = rays[k + 1], oz = rays[k + 2];
+		double dx = rays[k + 3], dy = rays[k + 4], dz = rays[k + 5];
+		double wr = rays[k + 6], wg = rays[k + 7], wb = rays[k + 8];
+
+		// if ray does not intersect with any object
+		if(hit < 0) {
+			color[c] = color[c] + wr * backgroundColor.getX();
+			color[c + 1] = color[c + 1] + wg * backgroundColor.getY();
+			color[c + 2] = color[c + 2] + wb * backgroundColor.getZ();
+			return top;
+		}
+
+		double px = ox + dx * tnear;
+		double py = oy + dy * tnear;
+		double pz = oz + dz * tnear;
+		scene.getNormal(hit, px, py, pz, s.normal);
+		double nx = s.normal[0], ny = s.normal[1], nz = s.normal[2];
+		double[] material = material(hit, px, py, pz, s);
+		int m = material == materials ? hit * CompiledScene.MATERIAL : 0;
+		double surfaceR = material[m + CompiledScene.COLOR];
+		double surfaceG = material[m + CompiledScene.COLOR + 1];
+		double surfaceB = material[m + CompiledScene.COLOR + 2];
+		double transparency = material[m + CompiledScene.TRANSPARENCY];
+		double reflectivity = material[m + CompiledScene.REFLECTIVITY];
+		double refrac = material[m + CompiledScene.REFRACTION];
+
+		// add some bias to the point from which we will be tracing
+		double bias = 1e-4;
+		boolean insideObj = false;
+
+		// true if normal and ray face same direction, inside object
+		if(dx * nx + dy * ny + dz * nz > 0) {
+			nx = -nx;
+			ny = -ny;
+			nz = -nz;
+			insideObj = true;
+		}
+
+		color[c] = color[c] + wr * material[m + CompiledScene.EMISSION];
+		color[c + 1] = color[c + 1] + wg * material[m + CompiledScene.EMISSION + 1];
+		color[c + 2] = color[c + 2] + wb * material[m + CompiledScene.EMISSION + 2];
+
+		if((transparency > 0 || reflectivity > 0) && depth < maxRayDepth) {
+			// calculate incidence ratio and fresnel ratio
+			double incidenceAngleRatio = -dx * nx + -dy * ny + -dz * nz;
+			double fresneleffect = Renderer.fresnelEffect(Math.pow((1 - incidenceAngleRatio), 3), 1, 0.1);
+
+			// reflected ray, weighted as in the recursive trace
+			double scale = fresneleffect * reflectivity;
+			double rwr = wr * scale * surfaceR;
+			double rwg = wg * scale * surfaceG;
+			double rwb = wb * scale * surfaceB;
+			if(Math.max(rwr, Math.max(rwg, rwb)) > cullThreshold) {
+				double dn = dx * nx + dy * ny + dz * nz;
+				double rx = dx - nx * 2 * dn;
+				double ry = dy - ny * 2 * dn;
+				double rz = dz - nz * 2 * dn;
+				double mag = Math.sqrt((rx * rx) + (ry * ry) + (rz * rz));
+				counters.reflectionRays++;
+				if(nextPaths != null) {
+					nextPaths[top] = path;
+				}
+				top = push(next, nextDepths, top, px + nx * bias, py + ny * bias, pz + nz * bias,
+						rx / mag, ry / mag, rz / mag, rwr, rwg, rwb, depth + 1);
+			} else {
+				counters.culledRays++;
+			}
+
+			// refracted ray, if object is transparent
+			scale = (1 - fresneleffect) * transparency;
+			double twr = wr * scale * surfaceR;
+			double twg = wg * scale * surfaceG;
+			double twb = wb * scale * surfaceB;
+			if(transparency > 0) {
+				if(Math.max(twr, Math.max(twg, twb)) <= cullThreshold) {
+					counters.culledRays++;
+				} else {
+					double indRefrac = (insideObj) ? refrac : 1 / refrac;
+
+					double cosInd = -nx * dx + -ny * dy + -nz * dz;
+					double k2 = 1 - indRefrac * indRefrac * (1 - cosInd * cosInd);
+					double refrScale = indRefrac * cosInd - Math.sqrt(k2);
+					double tx = dx * indRefrac + nx * refrScale;
+					double ty = dy * indRefrac + ny * refrScale;
+					double tz = dz * indRefrac + nz * refrScale;
+					double mag = Math.sqrt((tx * tx) + (ty * ty) + (tz * tz));
+					counters.refractionRays++;
+					if(nextPaths != null) {
+						nextPaths[top] = path;
+					}
+					top = push(next, nextDepths, top, px - nx * bias, py - ny * bias, pz - nz * bias,
+							tx / mag, ty / mag, tz / mag, twr, twg, twb, depth + 1);
+				}
+			}
+		} else { // object is opaque and diffuse or maximum ray tracing reached
+			directLight(px, py, pz, nx, ny, nz, bias, surfaceR, surfaceG, surfaceB, s);
+			color[c] = color[c] + wr * s.direct[0];
+			color[c + 1] = color[c + 1] + wg * s.direct[1];
+			color[c + 2] = color[c + 2] + wb * s.direct[2];
+		}
+		return top;
+	}
+
+	/**
+	 * Records ray with origin o and direction d, which hit object @param hit
+	 * at distance @param tnear or nothing if hit is negative, in s.dependencies
+	 */
+	static void record(int hit, double tnear, double ox, double oy, double oz, double dx, double dy, double dz,
+			Scratch s) {
+		if(s.dependencies == null) {
+			return;
+		}
+		if(hit < 0) {
+			s.dependencies.escape(ox, oy, oz, dx, dy, dz);
+		} else {
+			s.dependencies.hit(hit, ox, oy, oz, dx, dy, dz, tnear);
+		}
+	}
+
+	/**
+	 * Shadow query towards light @param l of the tracer's lights, testing
+	 * the object that last blocked the calling thread's rays towards it
+	 * before walking the hierarchy, which then remembers the blocker found.
+	 * The answer is the hierarchy's, whichever object is found first
+	 * @return true if an object other than the light blocks ray with
+	 * origin o and direction d before it travels @param maxDistance
+	 */
+	private boolean occluded(int l, double ox, double oy, double oz, double dx, double dy, double dz,
+			double maxDistance, Scratch s) {
+		int cached = s.occluders[l];
+		if(cached >= 0 && scene.occludes(cached, ox, oy, oz, dx, dy, dz, maxDistance, s.counters)) {
+			s.counters.occluderHits++;
+			return true;
+		}
+		s.counters.occluderMisses++;
+		int occluder = scene.occluder(ox, oy, oz, dx, dy, dz, lights[l], maxDistance, s.stack, s.counters);
+		if(occluder < 0) {
+			return false;
+		}
+		s.occluders[l] = occluder;
+		return true;
+	}
+
+	/**
+	 * Pushes ray onto stack of waiting rays holding @param top rays
+	 * @return new number of waiting rays
+	 */
+	static int push(double[] rays, int[] depths, int top, double ox, double oy, double oz,
+			double dx, double dy, double dz, double wr, double wg, double wb, int depth) {
+		int k = top * RAY_FIELDS;
+		rays[k] = ox;
+		rays[k + 1] = oy;
+		rays[k + 2] = oz;
+		rays[k + 3] = dx;
+		rays[k + 4] = dy;
+		rays[k + 5] = dz;
+		rays[k + 6] = wr;
+		rays[k + 7] = wg;
+		rays[k + 8] = wb;
+		depths[top] = depth;
+		return top + 1;
+	}
+
+	/**
+	 * Stores in s.direct the light every emitter casts on point p with
+	 * normal n of a diffuse object with surface color
+	 */
+	private void directLight(double px, double py, double pz, double nx, double ny, double nz,
+			double bias, double surfaceR, double surfaceG, double surfaceB, Scratch s) {
+		double r = 0, g = 0, b = 0;
+		double sx = px + nx * bias, sy = py + ny * bias, sz = pz + nz * bias;
+		for(int l = 0; l < lights.length; l++) {
+			int i = lights[l];
+			double cx = lightData[l * 6], cy = lightData[l * 6 + 1], cz = lightData[l * 6 + 2];
+			double lx = cx - px;
+			double ly = cy - py;
+			double lz = cz - pz;
+			double lightDistance = Math.sqrt((lx * lx) + (ly * ly) + (lz * lz));
+			lx = lx / lightDistance;
+			ly = ly / lightDistance;
+			lz = lz / lightDistance;
+
+			// if another object between point and light source obstructs it; form shadow
+			s.counters.shadowRays++;
+			if(s.dependencies != null) {
+				s.dependencies.light(i, sx, sy, sz, cx, cy, cz);
+			}
+			double transmission = occluded(l, sx, sy, sz, lx, ly, lz, lightDistance, s) ? 0 : 1;
+			double lambert = Math.max(0, nx * lx + ny * ly + nz * lz);
+			r = r + surfaceR * transmission * lambert * lightData[l * 6 + 3];
+			g = g + surfaceG * transmission * lambert * lightData[l * 6 + 4];
+			b = b + surfaceB * transmission * lambert * lightData[l * 6 + 5];
+		}
+		s.direct[0] = r;
+		s.direct[1] = g;
+		s.direct[2] = b;
+	}
+}
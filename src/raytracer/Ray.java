@@ -3,10 +3,12 @@ package raytracer;
 /**
  * Ray Class - represents ray with Vector point origin 
  * and Vector direction.  
+ * A ray is created and mutated by the thread tracing it only, so
+ * tnear is never shared between threads of the tile renderer
  */
 public class Ray {
-	private Vector origin; 
-	private Vector direction; 
+	private final Vector origin; 
+	private final Vector direction; 
 	/** t-value at point of intersection with a surface */
 	private double tnear; 
 	
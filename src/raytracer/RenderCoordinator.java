@@ -0,0 +1,349 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * RenderCoordinator Class - renders a scene on worker processes that
+ * connect over sockets, see RenderWorker. Every worker is sent the scene
+ * once, in the BinaryScene format, and is then leased tiles of the image
+ * a few at a time; the colors it sends back are assembled into one frame
+ * buffer. Tiles leased to a worker that disconnects go back to the queue.
+ * Once the queue is empty, workers left without tiles also take tiles
+ * leased longer than the lease timeout ago, so a slow or hung worker does
+ * not hold up the end of the frame; whichever copy of a tile arrives
+ * first is kept, and later copies are dropped. A tile goes back to the
+ * queue only once no worker holds it, so a worker is never leased a tile
+ * it holds. Workers may connect at any time during the render
+ */
+public class RenderCoordinator {
+	/** Default width and height of tiles leased */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/** Default time in milliseconds after which a leased tile may be leased again */
+	public static final long DEFAULT_LEASE_TIMEOUT = 2000;
+
+	/** Version of the messages exchanged with workers */
+	static final int PROTOCOL_VERSION = 1;
+
+	/** Message types; a message is its type followed by its ints and floats */
+	static final int LEASE = 1;
+	static final int RESULT = 2;
+	static final int DONE = 3;
+
+	/** Tiles a worker is leased per render thread it has, so it never waits for the next */
+	private static final int LEASES_PER_THREAD = 2;
+
+	/** How often the coordinator checks whether the render is done while waiting for workers */
+	private static final int ACCEPT_POLL_MILLIS = 100;
+
+	private final byte[] scene;
+	private final int width;
+	private final int height;
+	private Renderer.Kernel kernel = Renderer.Kernel.PRIMITIVE;
+	private double cullThreshold = PrimitiveTracer.DEFAULT_CULL_THRESHOLD;
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+
+	/** Render in progress, guarded by this: x0, y0, x1, y1 of every tile */
+	private int[] tiles;
+	/** Time of the latest lease of every tile, in nanoseconds, or 0 if it is not leased */
+	private long[] leasedAt;
+	/** Number of connected workers holding every tile */
+	private int[] holders;
+	private boolean[] done;
+	private ArrayDeque<Integer> queue;
+	private int remaining;
+	private FrameBuffer image;
+	private int workers;
+	private int releasedTiles;
+	private int takenOverTiles;
+
+	/**
+	 * Creates coordinator rendering @param scene, given in the BinaryScene format
+	 */
+	public RenderCoordinator(byte[] scene) throws IOException {
+		int[] viewport = BinaryScene.viewport(scene);
+		this.scene = scene;
+		this.width = viewport[0];
+		this.height = viewport[1];
+	}
+
+	/** Sets implementation of trace workers use */
+	public void setKernel(Renderer.Kernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/** Sets weight at or below which the iterative kernel of workers stops tracing */
+	public void setCullThreshold(double cullThreshold) {
+		this.cullThreshold = cullThreshold;
+	}
+
+	/** Sets width and height of tiles leased */
+	public void setTileSize(int tileSize) {
+		this.tileSize = Math.max(1, tileSize);
+	}
+
+	/** Sets time in milliseconds after which a tile may also be leased to another worker */
+	public void setLeaseTimeout(long leaseTimeout) {
+		this.leaseTimeout = Math.max(0, leaseTimeout);
+	}
+
+	/** @return width of image rendered */
+	public int getWidth() {
+		return width;
+	}
+
+	/** @return height of image rendered */
+	public int getHeight() {
+		return height;
+	}
+
+	/** @return number of workers that connected during the last render */
+	public synchronized int getWorkers() {
+		return workers;
+	}
+
+	/** @return number of tiles queued again during the last render as their worker disconnected */
+	public synchronized int getReleasedTiles() {
+		return releasedTiles;
+	}
+
+	/** @return number of tiles leased again during the last render as their worker was slow */
+	public synchronized int getTakenOverTiles() {
+		return takenOverTiles;
+	}
+
+	/**
+	 * Renders the scene on the workers that connect to @param server,
+	 * returning once every tile is done. Workers are told to stop when
+	 * the render is done, and any still holding tiles are disconnected
+	 * @return colors of the image
+	 */
+	public FrameBuffer render(ServerSocket server) throws IOException {
+		start();
+		List<Socket> sockets = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		int soTimeout = server.getSoTimeout();
+		server.setSoTimeout(ACCEPT_POLL_MILLIS);
+		try {
+			while(!isDone()) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				synchronized(this) {
+					workers++;
+				}
+				sockets.add(socket);
+				Thread thread = new Thread(() -> serve(socket), "render-coordinator-" + sockets.size());
+				thread.setDaemon(true);
+				thread.start();
+				threads.add(thread);
+			}
+			// workers without tiles are told to stop; give the others a moment to finish theirs
+			long deadline = System.currentTimeMillis() + leaseTimeout;
+			for(Thread thread : threads) {
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			server.setSoTimeout(soTimeout);
+			for(Socket socket : sockets) {
+				socket.close();
+			}
+		}
+		synchronized(this) {
+			return image;
+		}
+	}
+
+	/** Splits image into tiles, all queued */
+	private synchronized void start() {
+		int columns = (width + tileSize - 1) / tileSize;
+		int rows = (height + tileSize - 1) / tileSize;
+		int count = columns * rows;
+		tiles = new int[count * 4];
+		leasedAt = new long[count];
+		holders = new int[count];
+		done = new boolean[count];
+		queue = new ArrayDeque<>(count);
+		for(int i = 0; i < count; i++) {
+			int x0 = (i % columns) * tileSize, y0 = (i / columns) * tileSize;
+			tiles[i * 4] = x0;
+			tiles[i * 4 + 1] = y0;
+			tiles[i * 4 + 2] = Math.min(width, x0 + tileSize);
+			tiles[i * 4 + 3] = Math.min(height, y0 + tileSize);
+			queue.add(i);
+		}
+		remaining = count;
+		image = new FrameBuffer(width, height);
+		workers = 0;
+		releasedTiles = 0;
+		takenOverTiles = 0;
+	}
+
+	private synchronized boolean isDone() {
+		return remaining == 0;
+	}
+
+	/** @return true if the colors of @param tile are in the image */
+	private synchronized boolean isDone(int tile) {
+		return done[tile];
+	}
+
+	/**
+	 * Sends the scene to the worker on @param socket, then keeps it leased
+	 * tiles and collects their colors until every tile is done
+	 */
+	private void serve(Socket socket) {
+		Set<Integer> held = new HashSet<>();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(PROTOCOL_VERSION);
+			out.writeInt(kernel.ordinal());
+			out.writeDouble(cullThreshold);
+			out.writeInt(scene.length);
+			out.write(scene);
+			out.flush();
+			if(in.readInt() != PROTOCOL_VERSION) {
+				throw new IOException("Worker speaks another protocol version.");
+			}
+			int window = Math.max(1, in.readInt()) * LEASES_PER_THREAD;
+			while(true) {
+				while(held.size() < window) {
+					int tile = nextTile(held);
+					if(tile < 0) {
+						break;
+					}
+					held.add(tile);
+					out.writeInt(LEASE);
+					out.writeInt(tile);
+					out.writeInt(tiles[tile * 4]);
+					out.writeInt(tiles[tile * 4 + 1]);
+					out.writeInt(tiles[tile * 4 + 2]);
+					out.writeInt(tiles[tile * 4 + 3]);
+				}
+				if(held.isEmpty()) {
+					out.writeInt(DONE);
+					out.flush();
+					return;
+				}
+				out.flush();
+				if(in.readInt() != RESULT) {
+					throw new IOException("Unexpected message from worker.");
+				}
+				int tile = in.readInt();
+				// a tile is sent again if the worker traced it again after a take-over; its colors are dropped
+				if(tile < 0 || tile >= done.length || !held.remove(tile) && !isDone(tile)) {
+					throw new IOException("Worker sent tile it was not leased.");
+				}
+				int pixels = (tiles[tile * 4 + 2] - tiles[tile * 4]) * (tiles[tile * 4 + 3] - tiles[tile * 4 + 1]);
+				byte[] colors = new byte[pixels * FrameBuffer.CHANNELS * Float.BYTES];
+				in.readFully(colors);
+				complete(tile, ByteBuffer.wrap(colors));
+			}
+		} catch (IOException e) {
+			if(!isDone()) {
+				System.err.println("Render worker " + socket.getRemoteSocketAddress() + " lost: " + e);
+			}
+		} finally {
+			release(held);
+		}
+	}
+
+	/**
+	 * Picks tile to lease to a worker holding @param held tiles. Queued tiles
+	 * come first; after them, the tile leased longest ago if that is longer
+	 * than the lease timeout. Tiles the worker holds are skipped. A worker
+	 * that holds no tiles waits for one
+	 * @return tile leased, or -1 if there is none for now or the render is done
+	 */
+	private synchronized int nextTile(Set<Integer> held) {
+		while(remaining > 0) {
+			Integer queued;
+			while((queued = queue.poll()) != null) {
+				if(!done[queued] && !held.contains(queued)) {
+					leasedAt[queued] = System.nanoTime();
+					holders[queued]++;
+					return queued;
+				}
+			}
+			long now = System.nanoTime();
+			long timeout = leaseTimeout * 1000000;
+			int oldest = -1;
+			for(int i = 0; i < done.length; i++) {
+				if(!done[i] && leasedAt[i] != 0 && now - leasedAt[i] >= timeout && !held.contains(i)
+						&& (oldest < 0 || leasedAt[i] < leasedAt[oldest])) {
+					oldest = i;
+				}
+			}
+			if(oldest >= 0) {
+				leasedAt[oldest] = now;
+				holders[oldest]++;
+				takenOverTiles++;
+				return oldest;
+			}
+			if(!held.isEmpty()) {
+				return -1;
+			}
+			try {
+				wait(Math.max(1, Math.min(leaseTimeout, ACCEPT_POLL_MILLIS)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/** Writes r, g, b floats of every pixel of @param tile into the image, unless it is done */
+	private synchronized void complete(int tile, ByteBuffer colors) {
+		if(done[tile]) {
+			return;
+		}
+		int x0 = tiles[tile * 4], y0 = tiles[tile * 4 + 1], x1 = tiles[tile * 4 + 2], y1 = tiles[tile * 4 + 3];
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				image.set(x, y, colors.getFloat(), colors.getFloat(), colors.getFloat());
+			}
+		}
+		done[tile] = true;
+		remaining--;
+		if(remaining == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Queues tiles of a disconnected worker that are not done yet, unless
+	 * another worker holds them too; its lease of them then stands
+	 */
+	private synchronized void release(Set<Integer> held) {
+		for(int tile : held) {
+			if(--holders[tile] == 0 && !done[tile]) {
+				leasedAt[tile] = 0;
+				queue.addFirst(tile);
+				releasedTiles++;
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,416 @@
+package raytracer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.simple.JSONValue;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * RenderMetrics Class - counters and timings of the renders of a Renderer.
+ * Tracing code counts into a Counters object owned by the tracing thread,
+ * using plain fields. Each tile adds its counts to the shared striped
+ * adders when it is done, so the hot path never writes shared memory.
+ * The totals can be read through JMX, recorded as JFR events and written
+ * as a JSON summary
+ */
+public class RenderMetrics implements RenderMetricsMXBean {
+	/** Name metrics are registered under with the platform MBean server */
+	public static final String OBJECT_NAME = "raytracer:type=RenderMetrics";
+
+	/** Kinds of object whose intersection tests are counted separately */
+	public static final int KIND_SPHERE = 0;
+	public static final int KIND_PLANE = 1;
+	public static final int KIND_MESH = 2;
+	public static final int KIND_INSTANCE = 3;
+	public static final int KINDS = 4;
+
+	/**
+	 * Counters Class - counts of a single thread, added to the shared
+	 * metrics with RenderMetrics.add. Not safe to share between threads
+	 */
+	public static class Counters {
+		long primaryRays;
+		long reflectionRays;
+		long refractionRays;
+		long shadowRays;
+		long culledRays;
+		/** Shadow rays found blocked by the object that last blocked the thread's rays towards their light, and the rest */
+		long occluderHits;
+		long occluderMisses;
+		/** Intersection tests per kind of object */
+		final long[] tests = new long[KINDS];
+		long depthSum;
+		long maxDepth;
+		/** Deepest bounce of the primary ray being traced */
+		int pathDepth;
+
+		/** Records that ray tree being traced reached @param depth */
+		void reachedDepth(int depth) {
+			if(depth > pathDepth) {
+				pathDepth = depth;
+			}
+		}
+
+		/** Ends ray tree of a primary ray, adding its depth to the totals */
+		void endPath() {
+			primaryRays++;
+			depthSum += pathDepth;
+			maxDepth = Math.max(maxDepth, pathDepth);
+			pathDepth = 0;
+		}
+
+		/** Resets all counts to 0 */
+		void clear() {
+			primaryRays = 0;
+			reflectionRays = 0;
+			refractionRays = 0;
+			shadowRays = 0;
+			culledRays = 0;
+			occluderHits = 0;
+			occluderMisses = 0;
+			for(int kind = 0; kind < KINDS; kind++) {
+				tests[kind] = 0;
+			}
+			depthSum = 0;
+			maxDepth = 0;
+			pathDepth = 0;
+		}
+	}
+
+	/** JFR event committed for every rendered tile */
+	@Name("raytracer.Tile")
+	@Label("Tile Rendered")
+	@Category("Raytracer")
+	static class TileEvent extends Event {
+		@Label("X")
+		int x;
+		@Label("Y")
+		int y;
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Primary Rays")
+		long primaryRays;
+	}
+
+	/** JFR event committed when a render is done, holding its summary */
+	@Name("raytracer.Render")
+	@Label("Render Finished")
+	@Category("Raytracer")
+	@Description("Counters of a whole render")
+	static class RenderEvent extends Event {
+		@Label("Primary Rays")
+		long primaryRays;
+		@Label("Reflection Rays")
+		long reflectionRays;
+		@Label("Refraction Rays")
+		long refractionRays;
+		@Label("Shadow Rays")
+		long shadowRays;
+		@Label("Culled Rays")
+		long culledRays;
+		@Label("Occluder Cache Hits")
+		long occluderCacheHits;
+		@Label("Occluder Cache Misses")
+		long occluderCacheMisses;
+		@Label("Sphere Tests")
+		long sphereTests;
+		@Label("Plane Tests")
+		long planeTests;
+		@Label("Mesh Tests")
+		long meshTests;
+		@Label("Instance Tests")
+		long instanceTests;
+		@Label("Max Depth")
+		long maxDepth;
+		@Label("Pixels Per Second")
+		double pixelsPerSecond;
+		@Label("Samples Per Second")
+		double samplesPerSecond;
+	}
+
+	private final LongAdder primaryRays = new LongAdder();
+	private final LongAdder reflectionRays = new LongAdder();
+	private final LongAdder refractionRays = new LongAdder();
+	private final LongAdder shadowRays = new LongAdder();
+	private final LongAdder culledRays = new LongAdder();
+	private final LongAdder occluderHits = new LongAdder();
+	private final LongAdder occluderMisses = new LongAdder();
+	private final LongAdder[] tests = new LongAdder[KINDS];
+	private final LongAdder depthSum = new LongAdder();
+	private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+	private final LongAdder tiles = new LongAdder();
+	private final LongAdder tileNanos = new LongAdder();
+	private final LongAccumulator maxTileNanos = new LongAccumulator(Math::max, 0);
+
+	/** System.nanoTime at start and end of render, end is 0 while rendering */
+	private volatile long startNanos;
+	private volatile long endNanos;
+	/** Pixels of the image the render traces, 0 if it traces only some of them */
+	private volatile long pixels;
+
+	public RenderMetrics() {
+		for(int kind = 0; kind < KINDS; kind++) {
+			tests[kind] = new LongAdder();
+		}
+	}
+
+	/** @return kind of @param object, used to count its intersection tests */
+	public static int kindOf(Object object) {
+		if(object instanceof Mesh) {
+			return KIND_MESH;
+		}
+		if(object instanceof Instance) {
+			return KIND_INSTANCE;
+		}
+		return object.isPlane() ? KIND_PLANE : KIND_SPHERE;
+	}
+
+	/**
+	 * Resets all counters and starts timing a new render of @param pixels
+	 * pixels, the whole image, or 0 if it traces only some of its pixels
+	 */
+	public void renderStarted(long pixels) {
+		this.pixels = pixels;
+		primaryRays.reset();
+		reflectionRays.reset();
+		refractionRays.reset();
+		shadowRays.reset();
+		culledRays.reset();
+		occluderHits.reset();
+		occluderMisses.reset();
+		for(LongAdder adder : tests) {
+			adder.reset();
+		}
+		depthSum.reset();
+		maxDepth.reset();
+		tiles.reset();
+		tileNanos.reset();
+		maxTileNanos.reset();
+		endNanos = 0;
+		startNanos = System.nanoTime();
+	}
+
+	/** Stops timing the render and records its summary as a JFR event */
+	public void renderFinished() {
+		endNanos = System.nanoTime();
+		RenderEvent event = new RenderEvent();
+		if(event.shouldCommit()) {
+			event.primaryRays = getPrimaryRays();
+			event.reflectionRays = getReflectionRays();
+			event.refractionRays = getRefractionRays();
+			event.shadowRays = getShadowRays();
+			event.culledRays = getCulledRays();
+			event.occluderCacheHits = getOccluderCacheHits();
+			event.occluderCacheMisses = getOccluderCacheMisses();
+			event.sphereTests = getSphereTests();
+			event.planeTests = getPlaneTests();
+			event.meshTests = getMeshTests();
+			event.instanceTests = getInstanceTests();
+			event.maxDepth = getMaxDepth();
+			event.pixelsPerSecond = getPixelsPerSecond();
+			event.samplesPerSecond = getSamplesPerSecond();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Adds counts of tile [x0, x1) x [y0, y1) rendered in @param nanos
+	 * and clears @param counters
+	 */
+	public void addTile(Counters counters, int x0, int y0, int x1, int y1, long nanos) {
+		TileEvent event = new TileEvent();
+		if(event.shouldCommit()) {
+			event.x = x0;
+			event.y = y0;
+			event.width = x1 - x0;
+			event.height = y1 - y0;
+			event.primaryRays = counters.primaryRays;
+			event.commit();
+		}
+		primaryRays.add(counters.primaryRays);
+		reflectionRays.add(counters.reflectionRays);
+		refractionRays.add(counters.refractionRays);
+		shadowRays.add(counters.shadowRays);
+		culledRays.add(counters.culledRays);
+		occluderHits.add(counters.occluderHits);
+		occluderMisses.add(counters.occluderMisses);
+		for(int kind = 0; kind < KINDS; kind++) {
+			tests[kind].add(counters.tests[kind]);
+		}
+		depthSum.add(counters.depthSum);
+		maxDepth.accumulate(counters.maxDepth);
+		tiles.increment();
+		tileNanos.add(nanos);
+		maxTileNanos.accumulate(nanos);
+		counters.clear();
+	}
+
+	@Override
+	public long getPrimaryRays() {
+		return primaryRays.sum();
+	}
+
+	@Override
+	public long getReflectionRays() {
+		return reflectionRays.sum();
+	}
+
+	@Override
+	public long getRefractionRays() {
+		return refractionRays.sum();
+	}
+
+	@Override
+	public long getShadowRays() {
+		return shadowRays.sum();
+	}
+
+	@Override
+	public long getCulledRays() {
+		return culledRays.sum();
+	}
+
+	@Override
+	public long getOccluderCacheHits() {
+		return occluderHits.sum();
+	}
+
+	@Override
+	public long getOccluderCacheMisses() {
+		return occluderMisses.sum();
+	}
+
+	@Override
+	public long getSphereTests() {
+		return tests[KIND_SPHERE].sum();
+	}
+
+	@Override
+	public long getPlaneTests() {
+		return tests[KIND_PLANE].sum();
+	}
+
+	@Override
+	public long getMeshTests() {
+		return tests[KIND_MESH].sum();
+	}
+
+	@Override
+	public long getInstanceTests() {
+		return tests[KIND_INSTANCE].sum();
+	}
+
+	@Override
+	public double getAverageDepth() {
+		long rays = getPrimaryRays();
+		return rays > 0 ? (double) depthSum.sum() / rays : 0;
+	}
+
+	@Override
+	public long getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	@Override
+	public long getTiles() {
+		return tiles.sum();
+	}
+
+	@Override
+	public double getAverageTileMillis() {
+		long count = getTiles();
+		return count > 0 ? tileNanos.sum() / 1e6 / count : 0;
+	}
+
+	@Override
+	public double getMaxTileMillis() {
+		return maxTileNanos.get() / 1e6;
+	}
+
+	@Override
+	public double getRenderMillis() {
+		long start = startNanos;
+		if(start == 0) {
+			return 0;
+		}
+		long end = endNanos;
+		return ((end != 0 ? end : System.nanoTime()) - start) / 1e6;
+	}
+
+	@Override
+	public double getPixelsPerSecond() {
+		double millis = getRenderMillis();
+		return millis > 0 ? pixels / (millis / 1000) : 0;
+	}
+
+	@Override
+	public double getSamplesPerSecond() {
+		double millis = getRenderMillis();
+		return millis > 0 ? getPrimaryRays() / (millis / 1000) : 0;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server under
+	 * OBJECT_NAME, replacing metrics registered before
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if(server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+	}
+
+	/** @return summary of counters keyed by name, in a stable order */
+	public Map<String, java.lang.Object> toMap() {
+		Map<String, java.lang.Object> summary = new LinkedHashMap<>();
+		summary.put("primaryRays", getPrimaryRays());
+		summary.put("reflectionRays", getReflectionRays());
+		summary.put("refractionRays", getRefractionRays());
+		summary.put("shadowRays", getShadowRays());
+		summary.put("culledRays", getCulledRays());
+		summary.put("occluderCacheHits", getOccluderCacheHits());
+		summary.put("occluderCacheMisses", getOccluderCacheMisses());
+		summary.put("sphereTests", getSphereTests());
+		summary.put("planeTests", getPlaneTests());
+		summary.put("meshTests", getMeshTests());
+		summary.put("instanceTests", getInstanceTests());
+		summary.put("averageDepth", getAverageDepth());
+		summary.put("maxDepth", getMaxDepth());
+		summary.put("tiles", getTiles());
+		summary.put("averageTileMillis", getAverageTileMillis());
+		summary.put("maxTileMillis", getMaxTileMillis());
+		summary.put("renderMillis", getRenderMillis());
+		summary.put("pixelsPerSecond", getPixelsPerSecond());
+		summary.put("samplesPerSecond", getSamplesPerSecond());
+		return summary;
+	}
+
+	/** Writes summary of counters to @param file as a JSON object */
+	public void writeSummary(File file) throws IOException {
+		try (Writer out = new FileWriter(file)) {
+			JSONValue.writeJSONString(toMap(), out);
+			out.write(System.lineSeparator());
+		}
+	}
+}
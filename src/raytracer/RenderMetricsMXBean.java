@@ -0,0 +1,72 @@
+package raytracer;
+
+/**
+ * RenderMetricsMXBean Interface - render counters and timings of a
+ * Renderer as exposed through JMX. Values cover the render in progress
+ * or, once it is done, the last render; they are updated per tile
+ */
+public interface RenderMetricsMXBean {
+	/** @return number of primary rays cast, one per pixel sample traced */
+	long getPrimaryRays();
+
+	/** @return number of reflected rays cast */
+	long getReflectionRays();
+
+	/** @return number of refracted rays cast */
+	long getRefractionRays();
+
+	/** @return number of shadow rays cast towards lights */
+	long getShadowRays();
+
+	/** @return number of reflected and refracted rays dropped by the iterative kernel */
+	long getCulledRays();
+
+	/** 
+	 * @return number of shadow rays of the primitive kernels found blocked
+	 * by the object that last blocked their thread's rays towards the same
+	 * light, without walking the hierarchy
+	 */
+	long getOccluderCacheHits();
+
+	/** @return number of shadow rays of the primitive kernels that walked the hierarchy */
+	long getOccluderCacheMisses();
+
+	/** @return number of ray-sphere intersection tests */
+	long getSphereTests();
+
+	/** @return number of ray-plane intersection tests */
+	long getPlaneTests();
+
+	/** @return number of ray-mesh tests, each walking the mesh's own hierarchy */
+	long getMeshTests();
+
+	/** @return number of ray-instance tests, each walking the hierarchy of the instanced group */
+	long getInstanceTests();
+
+	/** @return average over primary rays of the deepest bounce their ray tree reached */
+	double getAverageDepth();
+
+	/** @return deepest bounce reached by any ray */
+	long getMaxDepth();
+
+	/** @return number of tiles rendered */
+	long getTiles();
+
+	/** @return average wall time of a tile in milliseconds */
+	double getAverageTileMillis();
+
+	/** @return longest wall time of a tile in milliseconds */
+	double getMaxTileMillis();
+
+	/** @return wall time of render in milliseconds, up to now if it is in progress */
+	double getRenderMillis();
+
+	/**
+	 * @return pixels of the image traced per second of render wall time,
+	 * 0 for renders that trace only some pixels, e.g. redraws
+	 */
+	double getPixelsPerSecond();
+
+	/** @return pixel samples traced per second of render wall time, i.e. primary rays per second */
+	double getSamplesPerSecond();
+}
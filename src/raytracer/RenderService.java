@@ -0,0 +1,346 @@
+package raytracer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * RenderService Class - renders scenes posted to a local HTTP server and
+ * answers with the encoded image, so a pipeline rendering many scenes
+ * pays for starting the JVM once. A result is cached in a ResultCache
+ * under a hash of the scene's SceneDigest and the options that change the
+ * image, so a scene submitted again, however it is formatted, is answered
+ * without parsing its objects or tracing it. The objects and hierarchy of
+ * the last few scenes are kept too, so the same scene rendered with other
+ * options is not loaded and built again. Scenes are traced one at a time
+ * on all of the service's threads; requests for an image being traced
+ * wait for it rather than tracing it again.
+ *
+ * POST /render?format=png|ppm|exr&kernel=K&cull_threshold=W takes a JSON
+ * scene description as its body, whose relative mesh files are looked up
+ * from the service's working directory, and answers with the image, its
+ * X-Cache header saying whether it was cached. GET /stats answers with
+ * counts of requests, renders and cache hits as JSON. The server listens
+ * on the loopback interface only
+ */
+public class RenderService {
+	/** Scenes whose objects and hierarchy are kept for further renders */
+	public static final int DEFAULT_SCENES = 8;
+
+	/** Default bytes of images cached in memory and on disk */
+	public static final long DEFAULT_MEMORY_CACHE = 256L << 20;
+	public static final long DEFAULT_DISK_CACHE = 1L << 30;
+
+	/** Status codes answered */
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int SERVER_ERROR = 500;
+
+	/** Encoded image of a scene and whether it was cached */
+	public static class Result {
+		private final byte[] image;
+		private final boolean cached;
+
+		Result(byte[] image, boolean cached) {
+			this.image = image;
+			this.cached = cached;
+		}
+
+		/** @return image encoded in the format asked for */
+		public byte[] getImage() {
+			return image;
+		}
+
+		/** @return true if the image was not traced for this request */
+		public boolean isCached() {
+			return cached;
+		}
+	}
+
+	/** Scene loaded once and its hierarchy, which compiles it for the primitive kernels once */
+	private static class LoadedScene {
+		final Scene scene;
+		final BVH bvh;
+
+		LoadedScene(Scene scene) {
+			this.scene = scene;
+			this.bvh = new BVH(scene.getObjects());
+		}
+	}
+
+	private final int threads;
+	private final ResultCache results;
+	private final int maxScenes;
+
+	/** Scenes by digest, guarded by itself, least recently used first */
+	private final LinkedHashMap<String, LoadedScene> scenes = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Images being traced by key, so a request for one waits for it */
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> tracing = new ConcurrentHashMap<>();
+
+	/** Traces one scene at a time, each on all threads */
+	private final ExecutorService tracer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "render-service");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong renders = new AtomicLong();
+	private final AtomicLong sceneHits = new AtomicLong();
+
+	private HttpServer server;
+
+	/**
+	 * Creates service tracing on @param threads threads and caching
+	 * results in @param results, keeping up to @param maxScenes scenes loaded
+	 */
+	public RenderService(int threads, ResultCache results, int maxScenes) {
+		this.threads = threads;
+		this.results = results;
+		this.maxScenes = maxScenes;
+	}
+
+	/**
+	 * Starts answering requests on loopback port @param port, any free
+	 * port if it is 0, on threads of the server's own
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/render", this::handleRender);
+		server.createContext("/stats", this::handleStats);
+		server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "render-service-request");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.start();
+	}
+
+	/** @return port the service listens on */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Stops answering requests, waiting up to a second for those being answered */
+	public void stop() {
+		server.stop(1);
+		tracer.shutdownNow();
+	}
+
+	/**
+	 * @return @param json scene description rendered with @param kernel,
+	 * @param cullThreshold and encoded in @param format, from the cache if
+	 * it was rendered before. Throws ParseException or IllegalArgumentException
+	 * if the description cannot be read
+	 */
+	public Result render(String json, Renderer.Kernel kernel, double cullThreshold, String format)
+			throws IOException, ParseException {
+		requests.incrementAndGet();
+		if(!ImageWriter.isSupported(format)) {
+			throw new IllegalArgumentException("Unsupported image format: " + format);
+		}
+		String digest = SceneDigest.of(new StringReader(json), null);
+		// the threshold only changes images of the kernels that cull
+		if(kernel != Renderer.Kernel.ITERATIVE && kernel != Renderer.Kernel.WAVEFRONT) {
+			cullThreshold = PrimitiveTracer.DEFAULT_CULL_THRESHOLD;
+		}
+		String key = SceneDigest.hash(digest + "/" + kernel + "/" + cullThreshold + "/" + format);
+		byte[] image = results.get(key);
+		if(image != null) {
+			return new Result(image, true);
+		}
+
+		CompletableFuture<byte[]> traced = new CompletableFuture<>();
+		CompletableFuture<byte[]> running = tracing.putIfAbsent(key, traced);
+		if(running == null) {
+			running = traced;
+			final double threshold = cullThreshold;
+			tracer.execute(() -> {
+				try {
+					traced.complete(trace(key, digest, json, kernel, threshold, format));
+				} catch (Throwable e) {
+					traced.completeExceptionally(e);
+				} finally {
+					tracing.remove(key, traced);
+				}
+			});
+		}
+		try {
+			return new Result(running.join(), false);
+		} catch (CompletionException e) {
+			// the scene digested, but loading it on the tracer thread may still find it invalid
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if(e.getCause() instanceof ParseException) {
+				throw (ParseException) e.getCause();
+			} else if(e.getCause() instanceof IllegalArgumentException) {
+				throw (IllegalArgumentException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/** Traces scene @param json with digest @param digest and caches its image under @param key */
+	private byte[] trace(String key, String digest, String json, Renderer.Kernel kernel, double cullThreshold,
+			String format) throws IOException, ParseException {
+		LoadedScene loaded = load(digest, json);
+		Scene scene = loaded.scene;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (Renderer renderer = new Renderer(scene.getWidth(), scene.getHeight(), scene.getMaxRayDepth(),
+				scene.getFov(), scene.getBackgroundColor(), scene.getObjects(), loaded.bvh, threads)) {
+			renderer.setSampling(scene.getMinSamples(), scene.getMaxSamples(), scene.getAaThreshold());
+			renderer.setCamera(scene.getCamera());
+			renderer.setKernel(kernel);
+			renderer.setCullThreshold(cullThreshold);
+			renderer.drawScene();
+			renders.incrementAndGet();
+			ImageWriter.write(renderer.getImage(), format, out);
+		}
+		byte[] image = out.toByteArray();
+		results.put(key, image);
+		return image;
+	}
+
+	/**
+	 * @return scene @param json with digest @param digest, loaded again only
+	 * if it is not kept. Throws ParseException or IllegalArgumentException
+	 * if it cannot be loaded
+	 */
+	private LoadedScene load(String digest, String json) throws IOException, ParseException {
+		synchronized(scenes) {
+			LoadedScene loaded = scenes.get(digest);
+			if(loaded != null) {
+				sceneHits.incrementAndGet();
+				return loaded;
+			}
+		}
+		LoadedScene loaded = new LoadedScene(SceneLoader.readJson(new StringReader(json)));
+		synchronized(scenes) {
+			scenes.put(digest, loaded);
+			while(scenes.size() > maxScenes) {
+				scenes.remove(scenes.keySet().iterator().next());
+			}
+		}
+		return loaded;
+	}
+
+	/** Answers POST /render with the image of the scene in the request body */
+	private void handleRender(HttpExchange exchange) throws IOException {
+		try {
+			if(!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, METHOD_NOT_ALLOWED, "text/plain", "Post a JSON scene description.\n");
+				return;
+			}
+			Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+			String json = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			String format = query.getOrDefault("format", "png").toLowerCase();
+			Result result;
+			try {
+				Renderer.Kernel kernel = Renderer.Kernel.valueOf(query.getOrDefault("kernel", "primitive").toUpperCase());
+				double cullThreshold = Math.max(0, Double.parseDouble(query.getOrDefault("cull_threshold",
+						Double.toString(PrimitiveTracer.DEFAULT_CULL_THRESHOLD))));
+				result = render(json, kernel, cullThreshold, format);
+			} catch (ParseException | IllegalArgumentException e) {
+				respond(exchange, BAD_REQUEST, "text/plain", "Could not render scene: " + e + "\n");
+				return;
+			}
+			exchange.getResponseHeaders().set("X-Cache", result.isCached() ? "hit" : "miss");
+			respond(exchange, OK, contentType(format), result.getImage());
+		} catch (RuntimeException | IOException e) {
+			e.printStackTrace();
+			respond(exchange, SERVER_ERROR, "text/plain", "Could not render scene: " + e + "\n");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/** Answers GET /stats with counts of requests, renders and cache hits */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, java.lang.Object> stats = new LinkedHashMap<>();
+			stats.put("requests", requests.get());
+			stats.put("renders", renders.get());
+			stats.put("memoryHits", results.getMemoryHits());
+			stats.put("diskHits", results.getDiskHits());
+			stats.put("misses", results.getMisses());
+			stats.put("memoryBytes", results.getMemoryBytes());
+			stats.put("diskBytes", results.getDiskBytes());
+			stats.put("sceneHits", sceneHits.get());
+			synchronized(scenes) {
+				stats.put("scenesLoaded", scenes.size());
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+				JSONValue.writeJSONString(stats, writer);
+				writer.write(System.lineSeparator());
+			}
+			respond(exchange, OK, "application/json", out.toByteArray());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/** @return parameters of URL query @param rawQuery, empty if it is null */
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if(rawQuery == null) {
+			return parameters;
+		}
+		for(String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			if(equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	/** @return media type of images in @param format */
+	private static String contentType(String format) {
+		switch(format) {
+		case "png":
+			return "image/png";
+		case "exr":
+			return "image/x-exr";
+		default:
+			return "image/x-portable-pixmap";
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		respond(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
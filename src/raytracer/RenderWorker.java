@@ -0,0 +1,101 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RenderWorker Class - process side of distributed rendering. A worker
+ * connects to a RenderCoordinator, reads the scene it is sent and traces
+ * the tiles it is leased on its own threads, sending each tile's colors
+ * back as soon as it is done. Tiles are traced with Renderer.renderRegion,
+ * so the image assembled is the one a single process would render
+ */
+public class RenderWorker {
+	/** Number of tiles traced at once */
+	private final int threads;
+
+	/**
+	 * Creates worker tracing leased tiles on @param threads threads
+	 */
+	public RenderWorker(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Connects to the coordinator at @param host and @param port and traces
+	 * the tiles it leases until it says the render is done
+	 */
+	public void run(String host, int port) throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if(in.readInt() != RenderCoordinator.PROTOCOL_VERSION) {
+				throw new IOException("Coordinator speaks another protocol version.");
+			}
+			Renderer.Kernel kernel = Renderer.Kernel.values()[in.readInt()];
+			double cullThreshold = in.readDouble();
+			byte[] scene = new byte[in.readInt()];
+			in.readFully(scene);
+			Renderer renderer = new Renderer(SceneLoader.load(scene), 1);
+			renderer.setKernel(kernel);
+			renderer.setCullThreshold(cullThreshold);
+			out.writeInt(RenderCoordinator.PROTOCOL_VERSION);
+			out.writeInt(threads);
+			out.flush();
+
+			ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "render-worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				int type;
+				while((type = in.readInt()) == RenderCoordinator.LEASE) {
+					int tile = in.readInt();
+					int x0 = in.readInt(), y0 = in.readInt(), x1 = in.readInt(), y1 = in.readInt();
+					pool.execute(() -> send(socket, out, tile, renderer.renderRegion(x0, y0, x1, y1)));
+				}
+				if(type != RenderCoordinator.DONE) {
+					throw new IOException("Unexpected message from coordinator.");
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Sends colors of @param tile to the coordinator, closing @param socket
+	 * if that fails so that the worker stops reading leases
+	 */
+	private static void send(Socket socket, DataOutputStream out, int tile, FrameBuffer region) {
+		ByteBuffer colors = ByteBuffer.allocate(region.getWidth() * region.getHeight() * FrameBuffer.CHANNELS * Float.BYTES);
+		for(int y = 0; y < region.getHeight(); y++) {
+			for(int x = 0; x < region.getWidth(); x++) {
+				colors.putFloat(region.get(x, y, 0)).putFloat(region.get(x, y, 1)).putFloat(region.get(x, y, 2));
+			}
+		}
+		try {
+			synchronized(out) {
+				out.writeInt(RenderCoordinator.RESULT);
+				out.writeInt(tile);
+				out.write(colors.array());
+				out.flush();
+			}
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException closeFailed) {
+				e.addSuppressed(closeFailed);
+			}
+		}
+	}
+}
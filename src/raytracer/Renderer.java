@@ -0,0 +1,1128 @@
+package raytracer;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renderer Class - traces scene into an image of pixel colors.
+ * Has no dependency on AWT/Swing, so scenes can be rendered on
+ * headless machines; Raytracer displays the image in a window
+ */
+public class Renderer implements AutoCloseable {
+    /** Implementations of trace a scene can be rendered with */
+    public enum Kernel {
+        /** Traces with Vector objects, allocating for every operation */
+        OBJECT,
+        /** Traces on primitive doubles without allocating, see PrimitiveTracer */
+        PRIMITIVE,
+        /** Traces like PRIMITIVE without recursion, culling low weight branches */
+        ITERATIVE,
+        /** 
+         * Traces like PRIMITIVE, but finds the first hits of the rays of 
+         * neighboring pixels in packets, one ray per SIMD lane, see PacketTracer
+         */
+        PACKET,
+        /** Traces like PRIMITIVE in single precision, for previews, see FloatTracer */
+        FLOAT,
+        /** 
+         * Traces like ITERATIVE, but the rays of a tile one bounce at a time,
+         * sorted by direction and origin, see WavefrontTracer
+         */
+        WAVEFRONT
+    }
+    
+    /** True once the missing vector module was reported */
+    private static boolean packetsReported;
+    
+    /** Maximum number of times single ray is bounced reflected/refracted */
+	private int maxRayDepth; 
+	
+	/** Width of viewport */
+	private int viewWidth;
+	
+	/** Height of viewport */
+	private int viewHeight;
+	
+	/** Scene's background color */
+	private Vector backgroundColor;
+	
+	/** Scene's field of view */
+	double fov;
+	
+	/** List of objects in scene */
+	private Object[] objects;
+	
+	/** Bounding volume hierarchy over objects, used for all ray queries */
+	private BVH bvh;
+	
+	/** Indices of objects that emit light, found once when renderer is created */
+	private int[] lights;
+	
+	/** Colors of pixels to be displayed to draw scene */
+	private FrameBuffer image;
+	
+	/** Number of threads scene is rendered on, 1 renders on calling thread */
+	private int threads;
+	
+	/**
+	 * Renders passes in tiles on a pool kept for the renderer's life, so
+	 * the kernels' thread-local scratch, e.g. the occluder cache, stays
+	 * warm across passes, rounds and redraws; null until the first pass
+	 */
+	private TileRenderer tileRenderer;
+	
+	/** True if tileRenderer was set by setTileRenderer and is closed by its owner */
+	private boolean sharedTiles;
+	
+	/** Implementation of trace used for every pixel */
+	private Kernel kernel = Kernel.PRIMITIVE;
+	
+	/** Allocation free tracer used by the primitive kernel */
+	private PrimitiveTracer primitiveTracer;
+	
+	/** Single precision tracer of the float kernel, null with other kernels */
+	private FloatTracer floatTracer;
+	
+	/** Ray counts and timings of the last render */
+	private RenderMetrics metrics = new RenderMetrics();
+	
+	/** Size of the blocks traced by the first pass of progressive rendering */
+	public static final int COARSE_STEP = 16;
+	
+	/** True if scene is traced coarse pass first, then refined */
+	private boolean progressive;
+	
+	/** Anti-aliasing; with one sample at most each pixel center is traced once */
+	private int minSamples = 1;
+	private int maxSamples = 1;
+	private double aaThreshold = AdaptiveSampler.DEFAULT_THRESHOLD;
+	
+	/** Decides samples traced per pixel by drawScene, null until anti-aliased drawScene */
+	private AdaptiveSampler sampler;
+	
+	/** What the pixels of each tile were traced from, null if it is not recorded */
+	private TileDependencies dependencies;
+	
+	/** Finds first hits of packets of primary rays, null unless the packet kernel can be used */
+	private PacketTracer packetTracer;
+	
+	/** Traces the rays of a tile bounce by bounce, null unless the wavefront kernel is used */
+	private WavefrontTracer wavefrontTracer;
+	
+	/** 
+	 * Packed 8-bit RGB pixels written as the scene is traced, e.g. the 
+	 * raster of the window's image. Null if there is nothing to preview
+	 */
+	private int[] preview;
+	
+	/** Log tiles drawScene finishes are saved to and restored from, null if it is not checkpointed */
+	private Checkpoint checkpoint;
+	
+	/** Tiles the last drawScene restored from the checkpoint */
+	private final LongAdder restoredTiles = new LongAdder();
+	
+	/** System.nanoTime after which drawScene stops tracing, if hasDeadline */
+	private long deadline;
+	private boolean hasDeadline;
+	
+	/** True if the last drawScene stopped at the deadline before every pixel had its first samples */
+	private volatile boolean cutShort;
+	
+	/** Camera values shared by the rays of all pixels */
+	private double cameraX, cameraY, cameraZ;
+	private int aspectRatio;
+	private double invWidth;
+	private double invHeight;
+	private double tanFov;
+	
+	/** 
+	 * Creates renderer for @param scene rendered in tiles on @param threads threads.
+	 * Scene is not traced until drawScene is called
+	 */
+	public Renderer(Scene scene, int threads) {
+	    this(scene.getWidth(), scene.getHeight(), scene.getMaxRayDepth(), scene.getFov(), 
+	            scene.getBackgroundColor(), scene.getObjects(), threads);
+	    setSampling(scene.getMinSamples(), scene.getMaxSamples(), scene.getAaThreshold());
+	    setCamera(scene.getCamera());
+	}
+	
+	/** 
+	 * Creates renderer with dimensions and background color from 
+	 * parameters, rendered in tiles on @param threads threads.
+	 * Scene is not traced until drawScene is called
+	 */
+	public Renderer(int width, int height, int maxRayDepth, double fov, Vector backgroundColor, Object[] sceneObj, int threads) {
+	    this(width, height, maxRayDepth, fov, backgroundColor, sceneObj, new BVH(sceneObj), threads);
+	}
+	
+	/** 
+	 * Creates renderer like the constructor above, tracing through
+	 * @param bvh already built over sceneObj, e.g. shared by renderers
+	 * of the same scene at different sizes
+	 */
+	Renderer(int width, int height, int maxRayDepth, double fov, Vector backgroundColor, Object[] sceneObj, BVH bvh, 
+	        int threads) {
+	    this.threads = threads;
+	    this.maxRayDepth = maxRayDepth;
+	    this.fov = fov;
+	    this.viewWidth = width;
+	    this.viewHeight = height;
+	    this.backgroundColor = backgroundColor;
+	    this.objects = sceneObj;
+	    this.bvh = bvh;
+	    this.lights = findLights(sceneObj);
+	    this.primitiveTracer = new PrimitiveTracer(maxRayDepth, backgroundColor, sceneObj, bvh, lights);
+	    this.image = new FrameBuffer(viewWidth, viewHeight);
+	    this.aspectRatio = viewHeight > 0 ? viewWidth/viewHeight : 0;
+	    this.invWidth = (double) 1/viewWidth;
+	    this.invHeight = (double) 1/viewHeight;
+	    this.tanFov = Math.tan(0.5 * Math.PI * fov/180);
+	}
+	
+	/** Sets @param camera point rays are traced from, looking down -z */
+	public void setCamera(Vector camera) {
+	    this.cameraX = camera.getX();
+	    this.cameraY = camera.getY();
+	    this.cameraZ = camera.getZ();
+	}
+	
+	/**
+	 * Sets whole number @param aspectRatio of width to height the viewport
+	 * is stretched by, e.g. that of the full size image a smaller one is
+	 * traced in place of, as rounding its size may change the ratio
+	 */
+	void setAspectRatio(int aspectRatio) {
+	    this.aspectRatio = aspectRatio;
+	}
+	
+	/** 
+	 * Sets packed 8-bit RGB buffer of width x height pixels that is
+	 * updated by the render threads as pixels are traced 
+	 */
+	public void setPreview(int[] preview) {
+	    this.preview = preview;
+	}
+	
+	/** Sets whether scene is traced coarse pass first, then refined */
+	public void setProgressive(boolean progressive) {
+	    this.progressive = progressive;
+	}
+	
+	/**
+	 * Sets anti-aliasing: every pixel is traced with @param minSamples
+	 * samples, then pixels whose luminance error or contrast with their
+	 * neighbors is above @param threshold get more, up to @param maxSamples.
+	 * With one sample at most, each pixel center is traced once.
+	 * Replaces the image, so it must be called before drawScene
+	 */
+	public void setSampling(int minSamples, int maxSamples, double threshold) {
+	    AdaptiveSampler.checkSampling(minSamples, maxSamples, threshold);
+	    this.minSamples = minSamples;
+	    this.maxSamples = maxSamples;
+	    this.aaThreshold = threshold;
+	    this.sampler = null;
+	    this.image = new FrameBuffer(viewWidth, viewHeight, isAntiAliased());
+	}
+	
+	/**
+	 * Sets System.nanoTime @param deadline after which drawScene stops
+	 * tracing: passes in progress stop at the next row of their tiles, or
+	 * the next tile with the wavefront kernel, and anti-aliasing adds no
+	 * more samples. Rows started are finished, so
+	 * drawScene may return a row's time after the deadline
+	 */
+	public void setDeadline(long deadline) {
+	    this.deadline = deadline;
+	    this.hasDeadline = true;
+	}
+	
+	/** Lets drawScene trace every pixel, however long it takes */
+	public void clearDeadline() {
+	    this.hasDeadline = false;
+	}
+	
+	/**
+	 * @return true unless the last drawScene stopped at its deadline before
+	 * every pixel was traced with its first samples. Anti-aliasing stopped
+	 * early leaves a complete image whose edges have fewer samples
+	 */
+	public boolean isComplete() {
+	    return !cutShort;
+	}
+	
+	/**
+	 * Sets @param tileRenderer passes are rendered on in tiles, e.g. one
+	 * shared by renderers tracing at the same time, so their tiles share
+	 * its threads. Its owner closes it; close leaves it alone
+	 */
+	public void setTileRenderer(TileRenderer tileRenderer) {
+	    close();
+	    this.tileRenderer = tileRenderer;
+	    this.sharedTiles = tileRenderer != null;
+	}
+	
+	/**
+	 * Sets @param checkpoint drawScene saves every tile it finishes to, or
+	 * null for none. A tile is saved after its first samples and after
+	 * every round of anti-aliasing, with its pixels and samples, and is
+	 * restored rather than traced again by a drawScene of the same scene
+	 * with the same options that finds it in the checkpoint, which is
+	 * then the image drawScene gives without. Rounds are planned from the
+	 * whole image before any tile of them is restored, as they are
+	 * before any is traced. Checkpointed renders are not progressive and
+	 * are split into tiles on one thread too
+	 */
+	public void setCheckpoint(Checkpoint checkpoint) {
+	    this.checkpoint = checkpoint;
+	}
+	
+	/** @return true if drawScene has a deadline and it has passed */
+	private boolean pastDeadline() {
+	    return hasDeadline && System.nanoTime() - deadline > 0;
+	}
+	
+	/** @return true if pixels are traced with more than one sample */
+	private boolean isAntiAliased() {
+	    return minSamples != 1 || maxSamples != 1;
+	}
+	
+	/**
+	 * Sets @param dependencies the tiles of the image are recorded into
+	 * while they are traced, or null to record nothing. Only the primitive
+	 * and iterative kernels record dependencies
+	 */
+	public void setDependencies(TileDependencies dependencies) {
+	    this.dependencies = dependencies;
+	}
+	
+	/** @return what the pixels of each tile were traced from, null if it is not recorded */
+	public TileDependencies getDependencies() {
+	    return dependencies;
+	}
+	
+	/**
+	 * Replaces what is traced with @param scene, which must have the
+	 * viewport of the scene the renderer was created for. The image keeps
+	 * its colors until pixels are traced again, unless the scene's
+	 * anti-aliasing differs, which clears it
+	 */
+	public void setScene(Scene scene) {
+	    if(scene.getWidth() != viewWidth || scene.getHeight() != viewHeight) {
+	        throw new IllegalArgumentException("Scene must have the renderer's width and height.");
+	    }
+	    if(scene.getMinSamples() != minSamples || scene.getMaxSamples() != maxSamples 
+	            || scene.getAaThreshold() != aaThreshold) {
+	        setSampling(scene.getMinSamples(), scene.getMaxSamples(), scene.getAaThreshold());
+	    }
+	    setCamera(scene.getCamera());
+	    this.maxRayDepth = scene.getMaxRayDepth();
+	    this.fov = scene.getFov();
+	    this.tanFov = Math.tan(0.5 * Math.PI * fov/180);
+	    this.backgroundColor = scene.getBackgroundColor();
+	    this.objects = scene.getObjects();
+	    this.bvh = new BVH(objects);
+	    this.lights = findLights(objects);
+	    double cullThreshold = primitiveTracer.getCullThreshold();
+	    this.primitiveTracer = new PrimitiveTracer(maxRayDepth, backgroundColor, objects, bvh, lights);
+	    primitiveTracer.setCullThreshold(cullThreshold);
+	    setKernel(kernel);
+	}
+	
+	/** 
+	 * Sets implementation of trace used by drawScene. Without the
+	 * jdk.incubator.vector module the packet kernel traces its packets
+	 * one ray at a time, like the primitive kernel
+	 */
+	public void setKernel(Kernel kernel) {
+	    this.kernel = kernel;
+	    this.packetTracer = kernel == Kernel.PACKET && packetsSupported() ? new PacketTracer(bvh) : null;
+	    this.floatTracer = kernel == Kernel.FLOAT ? new FloatTracer(maxRayDepth, backgroundColor, objects, bvh, lights) : null;
+	    this.wavefrontTracer = kernel == Kernel.WAVEFRONT ? new WavefrontTracer(primitiveTracer, bvh) : null;
+	}
+	
+	/**
+	 * @return true if the jdk.incubator.vector module packets are traced
+	 * with is present, e.g. as the JVM was started with 
+	 * --add-modules jdk.incubator.vector
+	 */
+	public static boolean packetsSupported() {
+	    boolean supported = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	    synchronized(Renderer.class) {
+	        if(!supported && !packetsReported) {
+	            System.err.println("Module jdk.incubator.vector is not available; packets are traced one ray at a time.");
+	            packetsReported = true;
+	        }
+	    }
+	    return supported;
+	}
+	
+	/**
+	 * Sets weight at or below which the iterative kernel stops tracing
+	 * reflected and refracted rays
+	 */
+	public void setCullThreshold(double cullThreshold) {
+	    primitiveTracer.setCullThreshold(cullThreshold);
+	}
+	
+	/** @return implementation of trace used by drawScene */
+	public Kernel getKernel() {
+	    return kernel;
+	}
+	
+	/** @return width of viewport */
+	public int getWidth() {
+	    return viewWidth;
+	}
+	
+	/** @return height of viewport */
+	public int getHeight() {
+	    return viewHeight;
+	}
+	
+	/** 
+	 * @return colors of pixels. Pixels not yet traced by drawScene are black
+	 */
+	public FrameBuffer getImage() {
+	    return image;
+	}
+	
+	/** @return counters and timings of the render in progress or the last render */
+	public RenderMetrics getMetrics() {
+	    return metrics;
+	}
+	
+	/**
+	 * @return indices of objects in @param sceneObj that emit light
+	 */
+	static int[] findLights(Object[] sceneObj) {
+	    int count = 0;
+	    for(Object object : sceneObj) {
+	        if(object.isLight()) {
+	            count++;
+	        }
+	    }
+	    int[] lights = new int[count];
+	    for(int i = 0, j = 0; i < sceneObj.length; i++) {
+	        if(sceneObj[i].isLight()) {
+	            lights[j++] = i;
+	        }
+	    }
+	    return lights;
+	}
+	
+	/** 
+	 * Calculates ratio of fresnel effect based incidence ratio 
+	 */
+	static double fresnelEffect(double a, double b, double mix) {
+		return b* mix + a * (1 - mix);
+	}
+	
+	/** 
+	 * @return color of transparent and/or reflective surfaces 
+	 */
+	private Vector getTransRefSurfColor(Object object, Vector surfaceCol, 
+	        Vector pointHit, Vector normalHit, Vector rayDir, 
+	        int depth, double bias, boolean insideObj, RenderMetrics.Counters counters) 
+	{
+	    // calculate incidence ratio and fresnel ratio
+	    double incidenceAngleRatio = rayDir.negative().dot(normalHit);
+        double fresneleffect = fresnelEffect(Math.pow((1-incidenceAngleRatio), 3), 1, 0.1);
+        // get direction of reflected ray
+        Vector reflectDir = rayDir.subtract(normalHit.scalarMult(2).scalarMult(rayDir.dot(normalHit)));
+        reflectDir.normalize();
+        // reflect ray 
+        counters.reflectionRays++;
+        Vector reflection = trace(new Ray(pointHit.add(normalHit.scalarMult(bias)), reflectDir), depth+1, counters);
+        Vector refraction = new Vector(0);
+        
+        // if object is transparent
+        if (object.getTransparency() > 0) {
+            double refrac = object.getIdxOfRefrac();
+            double indRefrac = (insideObj) ? refrac : 1 / refrac; // are we inside or outside the surface? 
+            
+            double cosInd = normalHit.negative().dot(rayDir);
+            double k = 1 - indRefrac * indRefrac * (1 - cosInd * cosInd); 
+            Vector refractDir =  rayDir
+                    .scalarMult(indRefrac)
+                    .add(normalHit.scalarMult((indRefrac*cosInd - Math.sqrt(k))));
+            
+            refractDir.normalize(); 
+            counters.refractionRays++;
+            refraction = trace(new Ray(pointHit.subtract(normalHit.scalarMult(bias)), refractDir), depth+1, counters);
+        }
+        surfaceCol = (reflection.scalarMult(fresneleffect).scalarMult(object.getReflectivity())
+                .add(
+                        refraction.scalarMult(1-fresneleffect).scalarMult(object.getTransparency())
+                        )
+                ).elemProduct(object.getSurfaceColor());
+        
+        // return final color
+        return surfaceCol;
+	}
+
+	/** 
+	 * @return color of diffuse surface or non-diffuse surface when 
+	 * maximum ray depth is reached  
+	 */
+	private Vector traceLightRay(Object object, Vector surfaceCol, Vector pointHit, Vector normalHit, double bias, 
+	        RenderMetrics.Counters counters) 
+	{
+	    for(int i : lights) {
+            Vector transmission = new Vector(1);
+            Vector lightDirection = objects[i].getCenter().subtract(pointHit);
+            double lightDistance = lightDirection.magnitude();
+            lightDirection.normalize();
+            
+            // if another object between point and light source obstructs it; form shadow
+            counters.shadowRays++;
+            if(bvh.occluded(new Ray(pointHit.add(normalHit.scalarMult(bias)), lightDirection), i, lightDistance, counters)) {
+                transmission = new Vector(0); 
+            }
+            surfaceCol = surfaceCol.add(
+                        object.getSurfaceColor().elemProduct(transmission)
+                        .scalarMult(Math.max(0, normalHit.dot(lightDirection)))
+                        .elemProduct(objects[i].getEmissionColor())
+                        );
+        }
+	    // return final color
+	    return surfaceCol;
+	}
+	
+	
+	/**
+	 * @return color of pixel on object surface hit by ray
+	 */
+	Vector trace(Ray ray, int depth, RenderMetrics.Counters counters) {
+	    Vector rayDir = ray.getDirection();
+	    counters.reachedDepth(depth);
+	    
+	    // find nearest object hit by ray
+	    Object object = bvh.nearest(ray, counters);
+        
+        // if ray does not intersect with any object
+        if(object == null) { 
+            return backgroundColor; 
+        }
+        double tnear = ray.getTNear();
+        
+        // initialize color of pixel to black
+        Vector surfaceCol = new Vector(0); 
+        Vector pointHit = ray.getOrigin().add(rayDir.scalarMult(tnear));
+        Vector normalHit = object.getNormal(pointHit);
+        // instances are shaded by the object of their group the point lies on
+        object = object.surfaceAt(pointHit.getX(), pointHit.getY(), pointHit.getZ());
+        
+        // add some bias to the point from which we will be tracing 
+        double bias = 1e-4; 
+        boolean insideObj = false; 
+        
+        // true if normal and ray face same direction, inside object
+        if(rayDir.dot(normalHit) > 0) {    
+            normalHit = normalHit.negative(); // normal should be reversed
+            insideObj = true;
+        }
+        
+        // if object is transparent or reflective
+        if((object.getTransparency() > 0 || object.getReflectivity() > 0) && depth < maxRayDepth) {
+            surfaceCol = getTransRefSurfColor(object, surfaceCol, pointHit, normalHit, rayDir, depth, bias, insideObj, counters);
+        }
+        else { // object is opaque and diffuse or maximum ray tracing reached 
+            surfaceCol = traceLightRay(object, surfaceCol, pointHit, normalHit, bias, counters);
+        } 
+        return surfaceCol.add(object.getEmissionColor());
+	}
+	
+	/**
+	 * @return color to be displayed in each pixel of viewport
+	 * to display the scene on window. In progressive mode the scene
+	 * is traced in passes, from one pixel per COARSE_STEP x COARSE_STEP
+	 * block down to every pixel; every pixel is still traced once.
+	 * With anti-aliasing, every pixel is traced with the minimum number of
+	 * samples first, then rounds of samples are added where they are needed.
+	 * With a deadline set, tracing stops once it passes, see isComplete
+	 */
+	public void drawScene() {	
+	    metrics.renderStarted((long) viewWidth * viewHeight);
+	    cutShort = false;
+	    restoredTiles.reset();
+	    if(dependencies != null) {
+	        dependencies.clear();
+	    }
+	    if(isAntiAliased()) {
+	        // allocated here, so processes only rendering regions do not hold one for the whole image
+	        if(sampler == null) {
+	            sampler = new AdaptiveSampler(viewWidth, viewHeight, minSamples, maxSamples, aaThreshold);
+	        } else {
+	            sampler.clear();
+	        }
+	        image.clear();
+	    }
+	    int step = progressive && checkpoint == null ? COARSE_STEP : 1;
+	    for(boolean first = true; step >= 1 && !cutShort; step /= 2, first = false) {
+	        drawPass(step, first);
+	    }
+	    if(isAntiAliased() && !cutShort) {
+	        refine(null);
+	    }
+	    metrics.renderFinished();
+	}
+	
+	/**
+	 * Traces again the pixels of the dependency tiles in @param dirty, e.g.
+	 * after setScene replaced objects they depend on, and records their
+	 * dependencies anew; other pixels keep their colors. With anti-aliasing
+	 * a one pixel ring around the tiles is sampled again too, as its pixels
+	 * picked their samples by contrast with pixels of the tiles. The image
+	 * is then the one drawScene would give, if every pixel outside the tiles
+	 * depends on nothing that changed. Needs dependencies and a drawn scene
+	 */
+	public void redraw(BitSet dirty) {
+	    if(dependencies == null || (isAntiAliased() && sampler == null)) {
+	        throw new IllegalStateException("Only a scene drawn with dependencies can be redrawn.");
+	    }
+	    metrics.renderStarted(0);
+	    dependencies.clear(dirty);
+	    boolean[] redo = new boolean[viewWidth * viewHeight];
+	    int ring = isAntiAliased() ? 1 : 0;
+	    for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+	        int[] bounds = dependencies.tileBounds(i);
+	        for(int y = Math.max(0, bounds[1] - ring); y < Math.min(viewHeight, bounds[3] + ring); y++) {
+	            for(int x = Math.max(0, bounds[0] - ring); x < Math.min(viewWidth, bounds[2] + ring); x++) {
+	                redo[y * viewWidth + x] = true;
+	            }
+	        }
+	    }
+	    runPass((x0, y0, x1, y1) -> redrawTile(x0, y0, x1, y1, redo));
+	    if(isAntiAliased()) {
+	        refine(redo);
+	    }
+	    metrics.renderFinished();
+	}
+	
+	/**
+	 * Traces pixels in [x0, x1) x [y0, y1) marked in @param redo from scratch
+	 */
+	private void redrawTile(int x0, int y0, int x1, int y1, boolean[] redo) {
+	    long start = System.nanoTime();
+	    PrimitiveTracer.Scratch scratch = primitiveTracer.getScratch();
+	    FrameBuffer.Tile tile = image.tile(x0, y0, x1, y1);
+	    double[] color = new double[3];
+	    boolean traced = false;
+	    for(int y = y0; y < y1; y++) {
+	        for(int x = x0; x < x1; x++) {
+	            if(!redo[y * viewWidth + x]) {
+	                continue;
+	            }
+	            if(isAntiAliased()) {
+	                image.clear(x, y);
+	                sampler.clear(x, y);
+	                samplePixel(x, y, 0, minSamples, sampler, tile, x - x0, y - y0, scratch, color);
+	            } else {
+	                tracePixel(x, y, scratch, color);
+	                tile.set(x - x0, y - y0, color[0], color[1], color[2]);
+	            }
+	            if(preview != null) {
+	                preview[y * viewWidth + x] = FrameBuffer.pack(color[0], color[1], color[2]);
+	            }
+	            traced = true;
+	        }
+	    }
+	    if(traced) {
+	        metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	    }
+	}
+	
+	/**
+	 * Traces pixels whose x and y are multiples of @param step, except those 
+	 * traced by the previous pass at twice the step unless this is the @param first pass
+	 */
+	private void drawPass(int step, boolean first) {
+	    if(checkpoint != null) {
+	        runPass((x0, y0, x1, y1) -> {
+	            if(!restoreTile(0, x0, y0, x1, y1)) {
+	                drawTile(x0, y0, x1, y1, step, first);
+	                saveTile(0, x0, y0, x1, y1);
+	            }
+	        });
+	        return;
+	    }
+	    runPass((x0, y0, x1, y1) -> drawTile(x0, y0, x1, y1, step, first));
+	}
+	
+	/**
+	 * Hands pixels [x0, x1) x [y0, y1) of a tile finished in @param round,
+	 * 0 for its first samples, and their samples to the checkpoint, unless
+	 * the deadline may have cut the tile short
+	 */
+	private void saveTile(int round, int x0, int y0, int x1, int y1) {
+	    if(cutShort || pastDeadline()) {
+	        return;
+	    }
+	    int pixels = (x1 - x0) * (y1 - y0);
+	    ByteBuffer data = ByteBuffer.allocate(image.tileBytes(pixels) 
+	            + (isAntiAliased() ? AdaptiveSampler.tileBytes(pixels) : 0));
+	    image.putTile(data, x0, y0, x1, y1);
+	    if(isAntiAliased()) {
+	        sampler.putTile(data, x0, y0, x1, y1);
+	    }
+	    checkpoint.append(round, tileIndex(x0, y0), data.array());
+	}
+	
+	/**
+	 * Restores pixels [x0, x1) x [y0, y1) of a tile and their samples as
+	 * they were when it was finished in @param round, if the checkpoint has them
+	 * @return false if the tile has to be traced
+	 */
+	private boolean restoreTile(int round, int x0, int y0, int x1, int y1) {
+	    ByteBuffer data = checkpoint.get(round, tileIndex(x0, y0));
+	    int pixels = (x1 - x0) * (y1 - y0);
+	    if(data == null || data.remaining() != image.tileBytes(pixels) 
+	            + (isAntiAliased() ? AdaptiveSampler.tileBytes(pixels) : 0)) {
+	        return false;
+	    }
+	    image.getTile(data, x0, y0, x1, y1);
+	    if(isAntiAliased()) {
+	        sampler.getTile(data, x0, y0, x1, y1);
+	    }
+	    if(preview != null) {
+	        for(int y = y0; y < y1; y++) {
+	            for(int x = x0; x < x1; x++) {
+	                preview[y * viewWidth + x] = image.getPackedRGB(x, y);
+	            }
+	        }
+	    }
+	    restoredTiles.increment();
+	    return true;
+	}
+	
+	/** @return index of the tile of TileRenderer.TILE_SIZE whose top left pixel is (x0, y0) */
+	private int tileIndex(int x0, int y0) {
+	    int columns = (viewWidth + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+	    return (y0 / TileRenderer.TILE_SIZE) * columns + x0 / TileRenderer.TILE_SIZE;
+	}
+	
+	/** @return number of tiles the last drawScene restored from its checkpoint, in all rounds */
+	public long getRestoredTiles() {
+	    return restoredTiles.sum();
+	}
+	
+	/**
+	 * Runs @param worker over tiles covering the viewport, on the render
+	 * threads, and returns once every tile is done
+	 */
+	private void runPass(TileRenderer.Worker worker) {
+	    if(threads > 1 || checkpoint != null) {
+	        if(tileRenderer == null) {
+	            tileRenderer = new TileRenderer(threads);
+	        }
+	        tileRenderer.render(viewWidth, viewHeight, worker);
+	    } else {
+	        worker.renderTile(0, 0, viewWidth, viewHeight);
+	    }
+	}
+	
+	/**
+	 * Stops the threads passes are rendered on, unless they were set by
+	 * setTileRenderer. A renderer may still render afterwards, on new threads
+	 */
+	@Override
+	public void close() {
+	    if(tileRenderer != null && !sharedTiles) {
+	        tileRenderer.close();
+	    }
+	    tileRenderer = null;
+	    sharedTiles = false;
+	}
+	
+	/**
+	 * Adds samples in rounds to the pixels the sampler picks, until it
+	 * picks none. Rounds are planned for the whole image before any sample
+	 * of the round is traced, so the pixels picked do not depend on tiling.
+	 * Only pixels marked in @param mask are refined, every pixel if it is null
+	 */
+	private void refine(boolean[] mask) {
+	    for(int round = 1; !pastDeadline(); round++) {
+	        boolean firstRound = round == 1;
+	        LongAdder picked = new LongAdder();
+	        runPass((x0, y0, x1, y1) -> picked.add(plan(x0, y0, x1, y1, firstRound, mask)));
+	        if(picked.sum() == 0) {
+	            return;
+	        }
+	        if(checkpoint != null && mask == null) {
+	            int saved = round;
+	            runPass((x0, y0, x1, y1) -> {
+	                // tiles without samples this round are left as the round before, traced or not
+	                if(!restoreTile(saved, x0, y0, x1, y1) && refineTile(x0, y0, x1, y1, mask)) {
+	                    saveTile(saved, x0, y0, x1, y1);
+	                }
+	            });
+	        } else {
+	            runPass((x0, y0, x1, y1) -> refineTile(x0, y0, x1, y1, mask));
+	        }
+	    }
+	}
+	
+	/**
+	 * Plans next round for pixels in [x0, x1) x [y0, y1) marked in @param mask, or all if it is null
+	 * @return number of pixels picked
+	 */
+	private int plan(int x0, int y0, int x1, int y1, boolean first, boolean[] mask) {
+	    if(mask == null) {
+	        return sampler.plan(x0, y0, x1, y1, first);
+	    }
+	    int picked = 0;
+	    for(int y = y0; y < y1; y++) {
+	        for(int x = x0; x < x1; x++) {
+	            if(mask[y * viewWidth + x] && sampler.plan(x, y, first)) {
+	                picked++;
+	            }
+	        }
+	    }
+	    return picked;
+	}
+	
+	/**
+	 * Traces the samples planned for this round for pixels in [x0, x1) x [y0, y1)
+	 * marked in @param mask, or all if it is null
+	 * @return true if any pixel of the tile got samples
+	 */
+	private boolean refineTile(int x0, int y0, int x1, int y1, boolean[] mask) {
+	    long start = System.nanoTime();
+	    PrimitiveTracer.Scratch scratch = primitiveTracer.getScratch();
+	    FrameBuffer.Tile tile = image.tile(x0, y0, x1, y1);
+	    double[] color = new double[3];
+	    boolean sampled = false;
+	    for(int y = y0; y < y1 && !pastDeadline(); y++) {
+	        for(int x = x0; x < x1; x++) {
+	            int count = sampler.getPending(x, y);
+	            if(count == 0 || (mask != null && !mask[y * viewWidth + x])) {
+	                continue;
+	            }
+	            samplePixel(x, y, sampler.getCount(x, y), count, sampler, tile, x - x0, y - y0, scratch, color);
+	            sampled = true;
+	            if(preview != null) {
+	                preview[y * viewWidth + x] = FrameBuffer.pack(color[0], color[1], color[2]);
+	            }
+	        }
+	    }
+	    metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	    return sampled;
+	}
+	
+	/**
+	 * Traces pixels of one pass in [x0, x1) x [y0, y1) of viewport into image,
+	 * filling the step x step block below and right of each in the preview.
+	 * Safe to call concurrently for disjoint tiles; every ray traced
+	 * is created and mutated only by the calling thread
+	 */
+	private void drawTile(int x0, int y0, int x1, int y1, int step, boolean first) {
+	    long start = System.nanoTime();
+	    PrimitiveTracer.Scratch scratch = primitiveTracer.getScratch();
+	    FrameBuffer.Tile tile = image.tile(x0, y0, x1, y1);
+	    double[] color = new double[3];
+	    int startX = (x0 + step - 1) / step * step;
+	    int startY = (y0 + step - 1) / step * step;
+	    
+	    if(packetTracer != null && step == 1 && first && !isAntiAliased()) {
+	        double[] row = new double[(x1 - x0) * 3];
+	        PacketTracer.Packet packet = new PacketTracer.Packet();
+	        for(int y = y0; y < y1; y++) {
+	            if(pastDeadline()) {
+	                cutShort = true;
+	                break;
+	            }
+	            traceRow(y, x0, x1, packet, scratch, row);
+	            for(int x = x0; x < x1; x++) {
+	                int i = (x - x0) * 3;
+	                tile.set(x - x0, y - y0, row[i], row[i + 1], row[i + 2]);
+	                if(preview != null) {
+	                    preview[y * viewWidth + x] = FrameBuffer.pack(row[i], row[i + 1], row[i + 2]);
+	                }
+	            }
+	        }
+	        metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	        return;
+	    }
+	    if(wavefrontTracer != null) {
+	        drawTileWavefront(x0, y0, x1, y1, step, first, tile, preview, scratch);
+	        metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	        return;
+	    }
+
+	    // trace rays from each pixel on viewport
+	    for(int y=startY; y<y1; y+=step) {
+	        if(pastDeadline()) {
+	            cutShort = true;
+	            break;
+	        }
+	        for(int x=startX; x<x1; x+=step) {
+	            if(!first && x % (2*step) == 0 && y % (2*step) == 0) {
+	                continue; // traced by previous pass
+	            }
+	            if(isAntiAliased()) {
+	                samplePixel(x, y, 0, minSamples, sampler, tile, x - x0, y - y0, scratch, color);
+	            } else {
+	                tracePixel(x, y, scratch, color);
+	                tile.set(x - x0, y - y0, color[0], color[1], color[2]);
+	            }
+	            if(preview != null) {
+	                fillPreview(x, y, Math.min(x + step, x1), Math.min(y + step, y1), 
+	                        FrameBuffer.pack(color[0], color[1], color[2]));
+	            }
+	        }
+	    }
+	    metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Traces the pixels drawTile traces in one pass over [x0, x1) x [y0, y1)
+	 * in one batch with the wavefront tracer: the samples of all of them
+	 * are traced bounce by bounce, then written into @param tile, covering
+	 * the pixels, the sampler in the order drawTile adds them and
+	 * @param previewPixels unless it is null
+	 */
+	private void drawTileWavefront(int x0, int y0, int x1, int y1, int step, boolean first, FrameBuffer.Tile tile, 
+	        int[] previewPixels, PrimitiveTracer.Scratch scratch) {
+	    int startX = (x0 + step - 1) / step * step;
+	    int startY = (y0 + step - 1) / step * step;
+	    int samples = isAntiAliased() ? minSamples : 1;
+	    int[] pixels = new int[((x1 - startX + step - 1) / step) * ((y1 - startY + step - 1) / step) * 2];
+	    int count = 0;
+	    for(int y=startY; y<y1; y+=step) {
+	        for(int x=startX; x<x1; x+=step) {
+	            if(!first && x % (2*step) == 0 && y % (2*step) == 0) {
+	                continue; // traced by previous pass
+	            }
+	            pixels[count * 2] = x;
+	            pixels[count * 2 + 1] = y;
+	            count++;
+	        }
+	    }
+	    double[] directions = new double[count * samples * 3];
+	    for(int p = 0; p < count; p++) {
+	        for(int k = 0; k < samples; k++) {
+	            double px = pixels[p * 2] + (isAntiAliased() ? AdaptiveSampler.offsetX(k) : 0.5);
+	            double py = pixels[p * 2 + 1] + (isAntiAliased() ? AdaptiveSampler.offsetY(k) : 0.5);
+	            primaryDirection(px, py, directions, (p * samples + k) * 3);
+	        }
+	    }
+	    double[] colors = new double[directions.length];
+	    if(pastDeadline()) {
+	        cutShort = true;
+	        return;
+	    }
+	    wavefrontTracer.trace(cameraX, cameraY, cameraZ, directions, count * samples, colors, scratch);
+	    for(int p = 0; p < count; p++) {
+	        int x = pixels[p * 2], y = pixels[p * 2 + 1];
+	        int i = p * samples * 3;
+	        if(isAntiAliased()) {
+	            for(int k = 0; k < samples; k++, i += 3) {
+	                tile.add(x - x0, y - y0, colors[i], colors[i + 1], colors[i + 2], 1);
+	                sampler.addSample(x, y, colors[i], colors[i + 1], colors[i + 2]);
+	            }
+	        } else {
+	            tile.set(x - x0, y - y0, colors[i], colors[i + 1], colors[i + 2]);
+	        }
+	        if(previewPixels != null) {
+	            fillPreview(x, y, Math.min(x + step, x1), Math.min(y + step, y1), FrameBuffer.pack(
+	                    tile.get(x - x0, y - y0, 0), tile.get(x - x0, y - y0, 1), tile.get(x - x0, y - y0, 2)));
+	        }
+	    }
+	}
+	
+	/**
+	 * Writes normalized direction of the primary ray through point (px, py)
+	 * of the image, in pixels, into @param directions at @param i
+	 */
+	private void primaryDirection(double px, double py, double[] directions, int i) {
+	    // x-coordinate on viewport
+	    double veiwX = (2 * (px * invWidth) - 1) * tanFov * aspectRatio;
+	    // y-coordinate on viewport
+	    double veiwY = (1 - 2 * (py * invHeight)) * tanFov;
+	    double mag = Math.sqrt((veiwX*veiwX)+(veiwY*veiwY)+1);
+	    directions[i] = veiwX/mag;
+	    directions[i + 1] = veiwY/mag;
+	    directions[i + 2] = -1/mag;
+	}
+	
+	/**
+	 * Traces pixels [x0, x1) x [y0, y1) on the calling thread into a new
+	 * frame buffer of the region's size, without touching the image. The
+	 * colors are the same as drawScene gives these pixels. Safe to call
+	 * concurrently for any regions, e.g. for tiles leased to a render worker
+	 * @return colors of the region's pixels
+	 */
+	public FrameBuffer renderRegion(int x0, int y0, int x1, int y1) {
+	    long start = System.nanoTime();
+	    PrimitiveTracer.Scratch scratch = primitiveTracer.getScratch();
+	    double[] color = new double[3];
+	    FrameBuffer region = new FrameBuffer(x1 - x0, y1 - y0);
+	    if(!isAntiAliased() && packetTracer != null) {
+	        double[] row = new double[(x1 - x0) * 3];
+	        PacketTracer.Packet packet = new PacketTracer.Packet();
+	        for(int y = y0; y < y1; y++) {
+	            traceRow(y, x0, x1, packet, scratch, row);
+	            for(int x = x0; x < x1; x++) {
+	                int i = (x - x0) * 3;
+	                region.set(x - x0, y - y0, row[i], row[i + 1], row[i + 2]);
+	            }
+	        }
+	    } else if(!isAntiAliased() && wavefrontTracer != null) {
+	        drawTileWavefront(x0, y0, x1, y1, 1, true, region.tile(0, 0, x1 - x0, y1 - y0), null, scratch);
+	    } else if(!isAntiAliased()) {
+	        FrameBuffer.Tile tile = region.tile(0, 0, x1 - x0, y1 - y0);
+	        for(int y = y0; y < y1; y++) {
+	            for(int x = x0; x < x1; x++) {
+	                tracePixel(x, y, scratch, color);
+	                tile.set(x - x0, y - y0, color[0], color[1], color[2]);
+	            }
+	        }
+	    } else {
+	        // the first round compares pixels with their neighbors, so the
+	        // first samples of a one pixel border around the region are traced too
+	        int bx0 = Math.max(0, x0 - 1), by0 = Math.max(0, y0 - 1);
+	        int bx1 = Math.min(viewWidth, x1 + 1), by1 = Math.min(viewHeight, y1 + 1);
+	        AdaptiveSampler local = new AdaptiveSampler(bx0, by0, bx1 - bx0, by1 - by0, 
+	                minSamples, maxSamples, aaThreshold);
+	        FrameBuffer samples = new FrameBuffer(bx1 - bx0, by1 - by0, true);
+	        FrameBuffer.Tile tile = samples.tile(0, 0, bx1 - bx0, by1 - by0);
+	        for(int y = by0; y < by1; y++) {
+	            for(int x = bx0; x < bx1; x++) {
+	                samplePixel(x, y, 0, local.getMinSamples(), local, tile, x - bx0, y - by0, scratch, color);
+	            }
+	        }
+	        for(boolean first = true; local.plan(x0, y0, x1, y1, first) > 0; first = false) {
+	            for(int y = y0; y < y1; y++) {
+	                for(int x = x0; x < x1; x++) {
+	                    int count = local.getPending(x, y);
+	                    if(count > 0) {
+	                        samplePixel(x, y, local.getCount(x, y), count, local, tile, x - bx0, y - by0, 
+	                                scratch, color);
+	                    }
+	                }
+	            }
+	        }
+	        for(int y = y0; y < y1; y++) {
+	            for(int x = x0; x < x1; x++) {
+	                region.set(x - x0, y - y0, samples.get(x - bx0, y - by0, 0), 
+	                        samples.get(x - bx0, y - by0, 1), samples.get(x - bx0, y - by0, 2));
+	            }
+	        }
+	    }
+	    metrics.addTile(scratch.counters, x0, y0, x1, y1, System.nanoTime() - start);
+	    return region;
+	}
+	
+	/**
+	 * Traces samples @param first to first + count - 1 of pixel (x, y),
+	 * adding them to pixel (tx, ty) of @param tile and to @param pixelSampler, 
+	 * then writes the mean of all samples of the pixel into @param color
+	 */
+	private void samplePixel(int x, int y, int first, int count, AdaptiveSampler pixelSampler, 
+	        FrameBuffer.Tile tile, int tx, int ty, PrimitiveTracer.Scratch scratch, double[] color) {
+	    for(int k = first; k < first + count; k++) {
+	        traceSample(x + AdaptiveSampler.offsetX(k), y + AdaptiveSampler.offsetY(k), scratch, color);
+	        tile.add(tx, ty, color[0], color[1], color[2], 1);
+	        pixelSampler.addSample(x, y, color[0], color[1], color[2]);
+	    }
+	    color[0] = tile.get(tx, ty, 0);
+	    color[1] = tile.get(tx, ty, 1);
+	    color[2] = tile.get(tx, ty, 2);
+	}
+	
+	/**
+	 * Writes color of pixel (x, y) into @param color, traced through its center
+	 */
+	private void tracePixel(int x, int y, PrimitiveTracer.Scratch scratch, double[] color) {
+	    traceSample(x + 0.5, y + 0.5, scratch, color);
+	}
+	
+	/**
+	 * Writes color seen through point (px, py) of the image, in pixels,
+	 * into @param color, traced with the kernel set, counting its rays in
+	 * the counters of @param scratch
+	 */
+	private void traceSample(double px, double py, PrimitiveTracer.Scratch scratch, double[] color) {
+	    scratch.dependencies = dependencies != null ? dependencies.tileAt((int) px, (int) py) : null;
+	    // x-coordinate on viewport
+	    double veiwX = (2 * (px * invWidth) - 1) * tanFov * aspectRatio;
+	    // y-coordinate on viewport
+	    double veiwY = (1 - 2 * (py * invHeight)) * tanFov;
+	    if(kernel == Kernel.FLOAT) {
+	        double mag = Math.sqrt((veiwX*veiwX)+(veiwY*veiwY)+1);
+	        FloatTracer.Scratch floatScratch = floatTracer.getScratch();
+	        floatScratch.counters = scratch.counters;
+	        floatTracer.trace((float) cameraX, (float) cameraY, (float) cameraZ, 
+	                (float) (veiwX/mag), (float) (veiwY/mag), (float) (-1/mag), 0, floatScratch);
+	        color[0] = floatScratch.colors[0];
+	        color[1] = floatScratch.colors[1];
+	        color[2] = floatScratch.colors[2];
+	    } else if(kernel != Kernel.OBJECT) {
+	        double mag = Math.sqrt((veiwX*veiwX)+(veiwY*veiwY)+1);
+	        if(kernel == Kernel.ITERATIVE || kernel == Kernel.WAVEFRONT) {
+	            primitiveTracer.traceIterative(cameraX, cameraY, cameraZ, veiwX/mag, veiwY/mag, -1/mag, scratch);
+	        } else {
+	            primitiveTracer.trace(cameraX, cameraY, cameraZ, veiwX/mag, veiwY/mag, -1/mag, 0, scratch);
+	        }
+	        color[0] = scratch.colors[0];
+	        color[1] = scratch.colors[1];
+	        color[2] = scratch.colors[2];
+	    } else {
+	        Vector rayDir = new Vector(veiwX, veiwY, -1); 
+	        rayDir.normalize(); 
+	        Vector traced = trace(new Ray(new Vector(cameraX, cameraY, cameraZ), rayDir), 0, scratch.counters);
+	        color[0] = traced.getX();
+	        color[1] = traced.getY();
+	        color[2] = traced.getZ();
+	    }
+	    scratch.counters.endPath();
+	}
+	
+	/**
+	 * Writes colors of pixels [x0, x1) of row @param y, traced through their
+	 * centers like tracePixel, into @param colors, three per pixel. The first
+	 * hits are found a @param packet of neighboring pixels at a time; the
+	 * rays they spawn are incoherent, so they are traced one at a time
+	 */
+	private void traceRow(int y, int x0, int x1, PacketTracer.Packet packet, PrimitiveTracer.Scratch scratch, 
+	        double[] colors) {
+	    double py = y + 0.5;
+	    double veiwY = (1 - 2 * (py * invHeight)) * tanFov;
+	    for(int x = x0; x < x1; x += PacketTracer.LANES) {
+	        int count = Math.min(PacketTracer.LANES, x1 - x);
+	        for(int lane = 0; lane < count; lane++) {
+	            double px = x + lane + 0.5;
+	            double veiwX = (2 * (px * invWidth) - 1) * tanFov * aspectRatio;
+	            double mag = Math.sqrt((veiwX*veiwX)+(veiwY*veiwY)+1);
+	            packet.dx[lane] = veiwX/mag;
+	            packet.dy[lane] = veiwY/mag;
+	            packet.dz[lane] = -1/mag;
+	        }
+	        packetTracer.nearest(cameraX, cameraY, cameraZ, packet, count, scratch.counters);
+	        for(int lane = 0; lane < count; lane++) {
+	            scratch.dependencies = dependencies != null ? dependencies.tileAt(x + lane, y) : null;
+	            scratch.counters.reachedDepth(0);
+	            primitiveTracer.shade(packet.hits[lane], packet.tnear[lane], cameraX, cameraY, cameraZ, 
+	                    packet.dx[lane], packet.dy[lane], packet.dz[lane], 0, scratch);
+	            scratch.counters.endPath();
+	            int i = (x + lane - x0) * 3;
+	            colors[i] = scratch.colors[0];
+	            colors[i + 1] = scratch.colors[1];
+	            colors[i + 2] = scratch.colors[2];
+	        }
+	    }
+	}
+	
+	/**
+	 * Writes packed 8-bit @param rgb into preview pixels [x0, x1) x [y0, y1)
+	 */
+	private void fillPreview(int x0, int y0, int x1, int y1, int rgb) {
+	    for(int y = y0; y < y1; y++) {
+	        int row = y * viewWidth;
+	        for(int x = x0; x < x1; x++) {
+	            preview[row + x] = rgb;
+	        }
+	    }
+	}
+}
@@ -0,0 +1,205 @@
+package raytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ResultCache Class - encoded images by the hash of what they were
+ * rendered from, kept in memory and in a directory on disk, each bounded
+ * in bytes and evicting the least recently used images first. Images
+ * evicted from memory stay on disk, and images read from disk are kept
+ * in memory again. A disk file is named by its key and written under a
+ * temporary name first, so a cache directory left by a killed process
+ * holds only whole images; the directory is indexed again on start,
+ * least recently used first by modification time, which reads touch
+ */
+public class ResultCache {
+	/** Length of keys, hexadecimal SHA-256 digests; other files in the directory are left alone */
+	private static final int KEY_LENGTH = 64;
+
+	private final File directory;
+	private final long memoryLimit;
+	private final long diskLimit;
+
+	/** Images in memory and sizes of the images on disk, guarded by this, least recently used first */
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryBytes;
+	private long diskBytes;
+
+	/** Keys whose images are being written to disk, outside the lock; guarded by this */
+	private final Set<String> writing = new HashSet<>();
+
+	/** Lookups answered from memory, from disk, and not at all; guarded by this */
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Creates cache holding up to @param memoryLimit bytes of images in
+	 * memory and @param diskLimit bytes in @param directory, which is
+	 * created if needed and whose images are kept. A null directory
+	 * keeps images in memory only
+	 */
+	public ResultCache(File directory, long memoryLimit, long diskLimit) throws IOException {
+		this.directory = directory;
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = directory != null ? diskLimit : 0;
+		if(directory == null) {
+			return;
+		}
+		Files.createDirectories(directory.toPath());
+		File[] files = directory.listFiles((dir, name) -> isKey(name));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for(File file : files) {
+			disk.put(file.getName(), file.length());
+			diskBytes += file.length();
+		}
+		evictDisk();
+	}
+
+	/** @return true if @param name is a key, lowercase hexadecimal of KEY_LENGTH digits */
+	private static boolean isKey(String name) {
+		if(name.length() != KEY_LENGTH) {
+			return false;
+		}
+		for(int i = 0; i < name.length(); i++) {
+			if(Character.digit(name.charAt(i), 16) < 0 || Character.isUpperCase(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return image stored under @param key, a hexadecimal SHA-256
+	 * digest, or null if it is in neither memory nor on disk. A file is
+	 * read without holding the lock, so other lookups and puts go on meanwhile
+	 */
+	public byte[] get(String key) {
+		synchronized(this) {
+			byte[] image = memory.get(key);
+			if(image != null) {
+				memoryHits++;
+				return image;
+			}
+			if(disk.get(key) == null) {
+				misses++;
+				return null;
+			}
+		}
+		File file = new File(directory, key);
+		byte[] image;
+		try {
+			image = Files.readAllBytes(file.toPath());
+			file.setLastModified(System.currentTimeMillis());
+		} catch (IOException e) { // evicted meanwhile or removed by someone else, forget it
+			synchronized(this) {
+				Long size = disk.remove(key);
+				if(size != null) {
+					diskBytes -= size;
+				}
+				misses++;
+			}
+			return null;
+		}
+		synchronized(this) {
+			diskHits++;
+			putMemory(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Stores @param image under @param key, a hexadecimal SHA-256 digest,
+	 * in memory and on disk, evicting least recently used images beyond the limits.
+	 * The file is written without holding the lock, so lookups and puts of
+	 * other images go on meanwhile; an image already being written by
+	 * another thread is not written again
+	 */
+	public void put(String key, byte[] image) throws IOException {
+		if(!isKey(key)) {
+			throw new IllegalArgumentException("Cache keys are lowercase SHA-256 digests: " + key);
+		}
+		synchronized(this) {
+			putMemory(key, image);
+			if(image.length > diskLimit || disk.containsKey(key) || !writing.add(key)) {
+				return;
+			}
+		}
+		try {
+			File temporary = new File(directory, key + ".tmp");
+			Files.write(temporary.toPath(), image);
+			Files.move(temporary.toPath(), new File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			synchronized(this) {
+				writing.remove(key);
+			}
+		}
+		synchronized(this) {
+			disk.put(key, (long) image.length);
+			diskBytes += image.length;
+			evictDisk();
+		}
+	}
+
+	/** Keeps @param image of @param key in memory if it fits, evicting others */
+	private void putMemory(String key, byte[] image) {
+		if(image.length > memoryLimit) {
+			return;
+		}
+		byte[] replaced = memory.put(key, image);
+		memoryBytes += image.length - (replaced != null ? replaced.length : 0);
+		Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+		while(memoryBytes > memoryLimit) {
+			memoryBytes -= eldest.next().getValue().length;
+			eldest.remove();
+		}
+	}
+
+	/** Deletes least recently used files until the images on disk fit its limit */
+	private void evictDisk() {
+		Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+		while(diskBytes > diskLimit) {
+			Map.Entry<String, Long> entry = eldest.next();
+			new File(directory, entry.getKey()).delete();
+			diskBytes -= entry.getValue();
+			eldest.remove();
+		}
+	}
+
+	/** @return number of lookups answered from memory */
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	/** @return number of lookups answered from disk */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	/** @return number of lookups of images not cached */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** @return bytes of images held in memory */
+	public synchronized long getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	/** @return bytes of images held on disk */
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+}
@@ -0,0 +1,131 @@
+package raytracer;
+
+/**
+ * Scene Class - dimensions, ray depth, field of view, background color,
+ * anti-aliasing and objects of a scene as read from its description file
+ */
+public class Scene {
+	private int viewWidth;
+	private int viewHeight;
+	private int maxRayDepth;
+	private double fov;
+	private Vector backgroundColor;
+	private Object[] objects;
+	
+	/** Anti-aliasing; one sample through each pixel center unless set */
+	private int minSamples = 1;
+	private int maxSamples = 1;
+	private double aaThreshold = AdaptiveSampler.DEFAULT_THRESHOLD;
+	
+	/** Point rays are traced from, looking down -z */
+	private Vector camera = new Vector(0);
+	
+	/** Frames of a sequence, and how its properties change over them; null if the scene is still */
+	private int frames = 1;
+	private Animation animation;
+	
+	/**
+	 * Creates scene with properties respective to passed parameters
+	 */
+	public Scene(int width, int height, int maxRayDepth, double fov, Vector backgroundColor, Object[] objects) {
+		this.viewWidth = width;
+		this.viewHeight = height;
+		this.maxRayDepth = maxRayDepth;
+		this.fov = fov;
+		this.backgroundColor = backgroundColor;
+		this.objects = objects;
+	}
+	
+	/** @return width of window and viewport */
+	public int getWidth() {
+		return viewWidth;
+	}
+	
+	/** @return height of window and viewport */
+	public int getHeight() {
+		return viewHeight;
+	}
+	
+	/** @return maximum number of times single ray is reflected/refracted */
+	public int getMaxRayDepth() {
+		return maxRayDepth;
+	}
+	
+	/** @return field of view in degrees */
+	public double getFov() {
+		return fov;
+	}
+	
+	/** @return background color of scene */
+	public Vector getBackgroundColor() {
+		return backgroundColor;
+	}
+	
+	/** @return objects of scene */
+	public Object[] getObjects() {
+		return objects;
+	}
+	
+	/**
+	 * Sets samples traced first through every pixel to @param minSamples,
+	 * adding samples up to @param maxSamples where luminance error or
+	 * contrast is above @param threshold
+	 */
+	public void setSampling(int minSamples, int maxSamples, double threshold) {
+		this.minSamples = minSamples;
+		this.maxSamples = maxSamples;
+		this.aaThreshold = threshold;
+	}
+	
+	/** @return number of samples traced first through every pixel */
+	public int getMinSamples() {
+		return minSamples;
+	}
+	
+	/** @return largest number of samples traced through a pixel */
+	public int getMaxSamples() {
+		return maxSamples;
+	}
+	
+	/** @return luminance error and contrast above which pixels get more samples */
+	public double getAaThreshold() {
+		return aaThreshold;
+	}
+	
+	/** Sets @param camera point rays are traced from */
+	public void setCamera(Vector camera) {
+		this.camera = camera;
+	}
+	
+	/** @return point rays are traced from */
+	public Vector getCamera() {
+		return camera;
+	}
+	
+	/**
+	 * Makes scene a sequence of @param frames frames, whose properties
+	 * change as @param animation says, or a still if animation is null
+	 */
+	public void setAnimation(int frames, Animation animation) {
+		this.frames = frames;
+		this.animation = animation;
+	}
+	
+	/** @return how properties of the scene change from frame to frame, null if it is still */
+	public Animation getAnimation() {
+		return animation;
+	}
+	
+	/** @return number of frames of sequence, 1 for a still */
+	public int getFrames() {
+		return frames;
+	}
+	
+	/**
+	 * @return scene as it is in @param frame of its sequence, sharing
+	 * every object the animation does not change
+	 */
+	public Scene getFrame(int frame) {
+		return animation != null ? animation.apply(this, frame) : this;
+	}
+}
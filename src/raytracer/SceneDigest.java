@@ -0,0 +1,272 @@
+package raytracer;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * SceneDigest Class - hashes a scene description by what it describes
+ * rather than how it is written. The digest is taken over the entries as
+ * a SceneListener receives them, so whitespace, the order of keys and the
+ * spelling of numbers do not change it, and over the contents of the mesh
+ * files entries read rather than their paths, so editing a mesh does.
+ * Scenes with the same digest render the same image with the same options
+ */
+public class SceneDigest implements SceneListener {
+	/** Tags written before the values of each kind of entry */
+	private static final int SCENE = 1, SAMPLING = 2, CAMERA = 3, FRAMES = 4, KEYFRAME = 5, LIGHT = 6,
+			SPHERE = 7, PLANE = 8, MESH = 9, GROUP = 10, INSTANCE = 11;
+
+	private final MessageDigest digest;
+	private final DataOutputStream out;
+	private final File baseDir;
+
+	/**
+	 * Creates digest of entries whose relative mesh files are resolved
+	 * against @param baseDir, or the working directory if it is null
+	 */
+	public SceneDigest(File baseDir) {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		this.out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Hashes JSON scene description in @param reader, whose relative mesh
+	 * files are resolved against @param baseDir, which may be null.
+	 * Throws IllegalArgumentException if it is not a list of entries
+	 * @return digest of the scene as a hexadecimal string
+	 */
+	public static String of(Reader reader, File baseDir) throws IOException, ParseException {
+		SceneDigest digest = new SceneDigest(baseDir);
+		try {
+			if(!SceneLoader.parseJson(reader, digest)) {
+				throw new IllegalArgumentException("Scene description is not a list of entries");
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return digest.toHex();
+	}
+
+	/**
+	 * Hashes scene description file @param file, JSON or BinaryScene,
+	 * whose relative mesh files are resolved against its directory
+	 * @return digest of the scene as a hexadecimal string
+	 */
+	public static String of(File file) throws IOException, ParseException {
+		if(BinaryScene.isBinary(file)) {
+			SceneDigest digest = new SceneDigest(null);
+			try {
+				BinaryScene.read(file, digest);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			return digest.toHex();
+		}
+		try (Reader reader = new FileReader(file)) {
+			return of(reader, file.getAbsoluteFile().getParentFile());
+		}
+	}
+
+	/** @return hexadecimal SHA-256 digest of @param text, e.g. of a scene's digest and render options */
+	public static String hash(String text) {
+		try {
+			return hex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** @return digest of the entries received so far as a hexadecimal string; ends the digest */
+	public String toHex() {
+		return hex(digest.digest());
+	}
+
+	/** @return @param bytes as lowercase hexadecimal digits */
+	static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	@Override
+	public void scene(int width, int height, int maxRayDepth, double fov, Vector backgroundColor) {
+		try {
+			out.writeByte(SCENE);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(maxRayDepth);
+			out.writeDouble(fov);
+			writeVector(backgroundColor);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void sampling(int minSamples, int maxSamples, double threshold) {
+		try {
+			out.writeByte(SAMPLING);
+			out.writeInt(minSamples);
+			out.writeInt(maxSamples);
+			out.writeDouble(threshold);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void camera(Vector position) {
+		try {
+			out.writeByte(CAMERA);
+			writeVector(position);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void frames(int frames) {
+		try {
+			out.writeByte(FRAMES);
+			out.writeInt(frames);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void keyframe(int frame, int object, int property, Vector value) {
+		try {
+			out.writeByte(KEYFRAME);
+			out.writeInt(frame);
+			out.writeInt(object);
+			out.writeInt(property);
+			writeVector(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void light(Vector center, double radius, Vector emissionColor) {
+		try {
+			out.writeByte(LIGHT);
+			writeVector(center);
+			out.writeDouble(radius);
+			writeVector(emissionColor);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void sphere(Vector center, double radius, Vector color, double transparency, double reflectivity,
+			double idxOfRefrac) {
+		try {
+			out.writeByte(SPHERE);
+			writeVector(center);
+			out.writeDouble(radius);
+			writeVector(color);
+			out.writeDouble(transparency);
+			out.writeDouble(reflectivity);
+			out.writeDouble(idxOfRefrac);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void plane(Vector center, Vector normal, double width, double height, Vector color, double reflectivity) {
+		try {
+			out.writeByte(PLANE);
+			writeVector(center);
+			writeVector(normal);
+			out.writeDouble(width);
+			out.writeDouble(height);
+			writeVector(color);
+			out.writeDouble(reflectivity);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void mesh(String file, Vector center, double scale, Vector color, double transparency, double reflectivity,
+			double idxOfRefrac) {
+		try {
+			out.writeByte(MESH);
+			File resolved = SceneLoader.resolve(baseDir, file);
+			if(resolved.isFile()) {
+				byte[] contents = Files.readAllBytes(resolved.toPath());
+				out.writeInt(contents.length);
+				out.write(contents);
+			} else { // fails to load the same way wherever it is missing
+				out.writeInt(-1);
+				out.writeUTF(file);
+			}
+			writeVector(center);
+			out.writeDouble(scale);
+			writeVector(color);
+			out.writeDouble(transparency);
+			out.writeDouble(reflectivity);
+			out.writeDouble(idxOfRefrac);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void group(String name) {
+		try {
+			out.writeByte(GROUP);
+			out.writeBoolean(name != null);
+			if(name != null) {
+				out.writeUTF(name);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void instance(String group, Vector translate, Vector rotate, double scale) {
+		try {
+			out.writeByte(INSTANCE);
+			out.writeUTF(group);
+			writeVector(translate);
+			writeVector(rotate);
+			out.writeDouble(scale);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Writes components of @param vector, or a marker if it is null */
+	private void writeVector(Vector vector) throws IOException {
+		out.writeBoolean(vector != null);
+		if(vector != null) {
+			out.writeDouble(vector.getX());
+			out.writeDouble(vector.getY());
+			out.writeDouble(vector.getZ());
+		}
+	}
+}
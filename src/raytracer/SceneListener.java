@@ -0,0 +1,59 @@
+package raytracer;
+
+/**
+ * SceneListener Interface - receives the entries of a scene description
+ * one at a time, in the order they appear in the file, as they are read.
+ * Colors are passed as ratios in [0, 1] or above, not as 0-255 values
+ */
+public interface SceneListener {
+	/** Called for the "scene" entry with dimensions, ray depth, field of view and background color */
+	void scene(int width, int height, int maxRayDepth, double fov, Vector backgroundColor);
+
+	/**
+	 * Called after the "scene" entry if it sets anti-aliasing: @param minSamples
+	 * samples per pixel first, more up to @param maxSamples where luminance error
+	 * or contrast is above @param threshold
+	 */
+	void sampling(int minSamples, int maxSamples, double threshold);
+
+	/** Called after the "scene" entry if it places the camera at @param position */
+	void camera(Vector position);
+
+	/** Called after the "scene" entry if it makes the scene a sequence of @param frames frames */
+	void frames(int frames);
+
+	/**
+	 * Called for each property set by a "keyframe" entry: @param property,
+	 * one of those of Animation, of @param object, the index of an object
+	 * placed in the scene or Animation.SCENE, is @param value in @param frame
+	 */
+	void keyframe(int frame, int object, int property, Vector value);
+
+	/** Called for each "light" entry */
+	void light(Vector center, double radius, Vector emissionColor);
+
+	/** Called for each "sphere" entry */
+	void sphere(Vector center, double radius, Vector color, double transparency, double reflectivity, double idxOfRefrac);
+
+	/** Called for each "plane" entry */
+	void plane(Vector center, Vector normal, double width, double height, Vector color, double reflectivity);
+
+	/**
+	 * Called for each "mesh" entry, whose triangles are read from OBJ @param file,
+	 * scaled by @param scale and moved by @param center
+	 */
+	void mesh(String file, Vector center, double scale, Vector color, double transparency, double reflectivity, double idxOfRefrac);
+
+	/**
+	 * Called before entries that belong to group @param name, and with
+	 * null before entries that are placed in the scene itself
+	 */
+	void group(String name);
+
+	/**
+	 * Called for each "instance" entry, placing @param group scaled by
+	 * @param scale, rotated by @param rotate degrees about x, y and z and
+	 * moved by @param translate
+	 */
+	void instance(String group, Vector translate, Vector rotate, double scale);
+}
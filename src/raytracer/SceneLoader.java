@@ -0,0 +1,604 @@
+package raytracer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * SceneLoader Class - reads scene description files into scenes.
+ * JSON files are parsed as a stream of tokens: each entry of the list is
+ * collected into a fixed set of number slots and handed on as soon as it
+ * ends, so no JSON tree is built and memory does not grow with the size
+ * of the file. Files in the BinaryScene format are memory-mapped instead
+ */
+public class SceneLoader {
+
+	private SceneLoader() {}
+
+	/**
+	 * Reads scene description file at @param filePath, either JSON or BinaryScene
+	 * @return scene read, or a scene without objects if the file cannot be read
+	 */
+	public static Scene load(String filePath) {
+		File file = new File(filePath);
+		try {
+			SceneBuilder builder = new SceneBuilder(file.getAbsoluteFile().getParentFile());
+			if(BinaryScene.isBinary(file)) {
+				BinaryScene.read(file, builder);
+				return builder.getScene();
+			}
+			try (FileReader reader = new FileReader(file)) {
+				return loadJson(reader, builder);
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.err.println("Please pass in non-empty scene description file.");
+		return new SceneBuilder(null).getScene();
+	}
+
+	/**
+	 * Reads scene description file at @param filePath, either JSON or
+	 * BinaryScene, into the BinaryScene format, e.g. to send it to other
+	 * processes. Mesh files are referenced by their absolute paths
+	 * @return bytes of the scene in the BinaryScene format
+	 */
+	public static byte[] toBinary(String filePath) throws IOException, ParseException {
+		File file = new File(filePath);
+		if(BinaryScene.isBinary(file)) {
+			return Files.readAllBytes(file.toPath());
+		}
+		File binary = File.createTempFile("scene", ".rscn");
+		try (FileReader reader = new FileReader(file)) {
+			convert(reader, file.getAbsoluteFile().getParentFile(), binary);
+			return Files.readAllBytes(binary.toPath());
+		} finally {
+			binary.delete();
+		}
+	}
+
+	/**
+	 * Reads scene from @param bytes in the BinaryScene format
+	 * @return scene read
+	 */
+	public static Scene load(byte[] bytes) throws IOException {
+		SceneBuilder builder = new SceneBuilder(null);
+		BinaryScene.read(bytes, builder);
+		return builder.getScene();
+	}
+
+	/**
+	 * Reads JSON scene description from @param reader; mesh files are
+	 * looked up relative to the working directory
+	 * @return scene read, without objects if the description cannot be parsed
+	 */
+	public static Scene loadJson(Reader reader) {
+		return loadJson(reader, new SceneBuilder(null));
+	}
+
+	/**
+	 * Reads JSON scene description from @param reader like loadJson, but
+	 * throws ParseException or IllegalArgumentException if it cannot be
+	 * read rather than returning a scene without objects
+	 * @return scene read
+	 */
+	public static Scene readJson(Reader reader) throws IOException, ParseException {
+		SceneBuilder builder = new SceneBuilder(null);
+		if(!parseJson(reader, builder)) {
+			throw new IllegalArgumentException("Scene description is not a list of entries");
+		}
+		return builder.getScene();
+	}
+
+	private static Scene loadJson(Reader reader, SceneBuilder builder) {
+		try {
+			if(!parseJson(reader, builder)) {
+				System.err.println("Please pass in non-empty scene description file.");
+			}
+			return builder.getScene();
+		} catch (IOException | ParseException | IllegalArgumentException e) {
+			e.printStackTrace();
+			System.err.println("Please pass in non-empty scene description file.");
+			builder.clearObjects();
+		}
+		return builder.getScene();
+	}
+
+	/**
+	 * Streams entries of JSON scene description in @param reader to @param listener
+	 * @return false if the description is not a list of entries
+	 */
+	public static boolean parseJson(Reader reader, SceneListener listener) throws IOException, ParseException {
+		EntryHandler handler = new EntryHandler(listener);
+		new JSONParser().parse(reader, handler);
+		return handler.sawList;
+	}
+
+	/**
+	 * Converts JSON scene description in @param reader to BinaryScene @param output
+	 * without holding its objects in memory. Relative mesh files are resolved
+	 * against @param baseDir, so the output can be read from any directory
+	 */
+	public static void convert(Reader reader, File baseDir, File output) throws IOException, ParseException {
+		try (BinaryScene.Writer writer = new BinaryScene.Writer(output, baseDir)) {
+			parseJson(reader, writer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/** Fields of an entry that hold numbers; vectors and colors take three slots */
+	private static final String[] FIELDS = { "width", "height", "max_ray_depth", "field_of_view",
+			"background_color", "center", "radius", "emission_color", "color", "transparency",
+			"reflectivity", "index_of_refraction", "normal", "scale", "translate", "rotate",
+			"min_samples", "max_samples", "aa_threshold", "camera", "frames", "frame", "object" };
+	private static final int WIDTH = 0, HEIGHT = 1, MAX_RAY_DEPTH = 2, FIELD_OF_VIEW = 3,
+			BACKGROUND_COLOR = 4, CENTER = 5, RADIUS = 6, EMISSION_COLOR = 7, COLOR = 8,
+			TRANSPARENCY = 9, REFLECTIVITY = 10, INDEX_OF_REFRACTION = 11, NORMAL = 12, SCALE = 13,
+			TRANSLATE = 14, ROTATE = 15, MIN_SAMPLES = 16, MAX_SAMPLES = 17, AA_THRESHOLD = 18,
+			CAMERA = 19, FRAMES = 20, FRAME = 21, OBJECT = 22;
+
+	private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+	static {
+		for(int i = 0; i < FIELDS.length; i++) {
+			FIELD_INDEX.put(FIELDS[i], i);
+		}
+	}
+
+	/** Field indices of entry keys that hold strings */
+	private static final int TYPE = -2, FILE = -3, GROUP = -4, INSTANCE_OF = -5;
+	private static final Map<String, Integer> STRING_FIELDS = new HashMap<>();
+	static {
+		STRING_FIELDS.put("type", TYPE);
+		STRING_FIELDS.put("file", FILE);
+		STRING_FIELDS.put("group", GROUP);
+		STRING_FIELDS.put("instance_of", INSTANCE_OF);
+	}
+
+	/** @return slot of vector or color component named @param key, or -1 */
+	private static int component(String key) {
+		switch(key) {
+		case "x":
+		case "r":
+			return 0;
+		case "y":
+		case "g":
+			return 1;
+		case "z":
+		case "b":
+			return 2;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Collects numbers of the entry being parsed into slots and passes
+	 * the entry to the listener when its closing brace is read
+	 */
+	private static class EntryHandler implements ContentHandler {
+		private final SceneListener listener;
+		private final double[] values = new double[FIELDS.length * 3];
+		private final boolean[] present = new boolean[FIELDS.length * 3];
+		private String type;
+		private String file;
+		private String group;
+		private String instanceOf;
+		/** Group entries are currently passed to the listener for */
+		private String currentGroup;
+		private int objects, arrays;
+		private int field = -1, slot = -1;
+		private boolean sawList;
+
+		EntryHandler(SceneListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void startJSON() {}
+
+		@Override
+		public void endJSON() {}
+
+		@Override
+		public boolean startArray() {
+			arrays++;
+			sawList |= arrays == 1 && objects == 0;
+			return true;
+		}
+
+		@Override
+		public boolean endArray() {
+			arrays--;
+			return true;
+		}
+
+		@Override
+		public boolean startObject() {
+			objects++;
+			if(objects == 1 && arrays == 1) {
+				type = null;
+				file = null;
+				group = null;
+				instanceOf = null;
+				Arrays.fill(present, false);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObject() {
+			if(objects == 1 && arrays == 1) {
+				endEntry();
+			}
+			objects--;
+			return true;
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) {
+			if(arrays != 1) {
+				return true;
+			}
+			if(objects == 1) {
+				Integer index = FIELD_INDEX.get(key);
+				if(index == null) {
+					index = STRING_FIELDS.get(key);
+				}
+				field = index != null ? index : -1;
+				slot = field >= 0 ? field * 3 : -1;
+			} else if(objects == 2 && field >= 0) {
+				int component = component(key);
+				slot = component >= 0 ? field * 3 + component : -1;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() {
+			if(arrays == 1 && objects == 1) {
+				field = -1;
+			}
+			slot = -1;
+			return true;
+		}
+
+		@Override
+		public boolean primitive(java.lang.Object value) {
+			if(arrays != 1 || objects == 0) {
+				return true;
+			}
+			if(objects == 1 && field == TYPE) {
+				type = String.valueOf(value);
+			} else if(objects == 1 && field < -1 && value instanceof String) {
+				if(field == FILE) {
+					file = (String) value;
+				} else if(field == GROUP) {
+					group = (String) value;
+				} else if(field == INSTANCE_OF) {
+					instanceOf = (String) value;
+				}
+			} else if(slot >= 0 && value instanceof Number) {
+				values[slot] = ((Number) value).doubleValue();
+				present[slot] = true;
+			}
+			return true;
+		}
+
+		/** Passes the entry just read to the listener */
+		private void endEntry() {
+			if(!"scene".equals(type) && !Objects.equals(group, currentGroup)) {
+				currentGroup = group;
+				listener.group(group);
+			}
+			if("scene".equals(type)) {
+				listener.scene((int) get(WIDTH), (int) get(HEIGHT), (int) get(MAX_RAY_DEPTH),
+						get(FIELD_OF_VIEW), color(BACKGROUND_COLOR));
+				if(present[MIN_SAMPLES * 3] || present[MAX_SAMPLES * 3] || present[AA_THRESHOLD * 3]) {
+					// only a minimum samples every pixel evenly, only a maximum starts from one sample
+					int minSamples = (int) getOr(MIN_SAMPLES, 1);
+					int maxSamples = (int) getOr(MAX_SAMPLES, minSamples);
+					double threshold = getOr(AA_THRESHOLD, AdaptiveSampler.DEFAULT_THRESHOLD);
+					AdaptiveSampler.checkSampling(minSamples, maxSamples, threshold);
+					listener.sampling(minSamples, maxSamples, threshold);
+				}
+				if(present[CAMERA * 3]) {
+					listener.camera(vector(CAMERA));
+				}
+				if(present[FRAMES * 3]) {
+					listener.frames((int) get(FRAMES));
+				}
+			} else if("light".equals(type)) {
+				listener.light(vector(CENTER), get(RADIUS), color(EMISSION_COLOR));
+			} else if("sphere".equals(type)) {
+				listener.sphere(vector(CENTER), get(RADIUS), color(COLOR),
+						get(TRANSPARENCY), get(REFLECTIVITY), get(INDEX_OF_REFRACTION));
+			} else if("plane".equals(type)) {
+				listener.plane(vector(CENTER), vector(NORMAL), get(WIDTH), get(HEIGHT),
+						color(COLOR), get(REFLECTIVITY));
+			} else if("mesh".equals(type)) {
+				if(file == null) {
+					throw new IllegalArgumentException("Scene object \"mesh\" is missing file.");
+				}
+				listener.mesh(file, optionalVector(CENTER), getOr(SCALE, 1), color(COLOR),
+						get(TRANSPARENCY), get(REFLECTIVITY), get(INDEX_OF_REFRACTION));
+			} else if("instance".equals(type)) {
+				if(instanceOf == null) {
+					throw new IllegalArgumentException("Scene object \"instance\" is missing instance_of.");
+				}
+				listener.instance(instanceOf, optionalVector(TRANSLATE), optionalVector(ROTATE), getOr(SCALE, 1));
+			} else if("keyframe".equals(type)) {
+				keyframe();
+			} else {
+				System.err.println("Scene object type incorrectly specified.");
+			}
+		}
+
+		/**
+		 * Passes every animated property the "keyframe" entry sets to the
+		 * listener; without an object, properties are those of the scene
+		 */
+		private void keyframe() {
+			int frame = (int) get(FRAME);
+			int object = (int) getOr(OBJECT, Animation.SCENE);
+			for(int field = 0; field < FIELDS.length; field++) {
+				int property = Animation.property(FIELDS[field]);
+				if(property < 0 || !present[field * 3]) {
+					continue;
+				}
+				Vector value;
+				if(field == COLOR || field == EMISSION_COLOR || field == BACKGROUND_COLOR) {
+					value = color(field);
+				} else if(field == CENTER || field == TRANSLATE || field == ROTATE || field == CAMERA) {
+					value = vector(field);
+				} else {
+					value = new Vector(get(field));
+				}
+				listener.keyframe(frame, object, property, value);
+			}
+		}
+
+		/** @return component @param component of field */
+		private double get(int field, int component) {
+			int i = field * 3 + component;
+			if(!present[i]) {
+				throw new IllegalArgumentException("Scene object \"" + type + "\" is missing " + FIELDS[field] + ".");
+			}
+			return values[i];
+		}
+
+		/** @return number in @param field */
+		private double get(int field) {
+			return get(field, 0);
+		}
+
+		/** @return number in @param field, or @param fallback if it is not given */
+		private double getOr(int field, double fallback) {
+			return present[field * 3] ? values[field * 3] : fallback;
+		}
+
+		/** @return vector with x, y, z of @param field, or 0, 0, 0 if it is not given */
+		private Vector optionalVector(int field) {
+			return present[field * 3] ? vector(field) : new Vector(0);
+		}
+
+		/** @return vector with x, y, z of @param field */
+		private Vector vector(int field) {
+			return new Vector(get(field, 0), get(field, 1), get(field, 2));
+		}
+
+		/** @return color with r, g, b of @param field as ratios */
+		private Vector color(int field) {
+			return new Vector(colorRatio(get(field, 0)), colorRatio(get(field, 1)), colorRatio(get(field, 2)));
+		}
+	}
+
+	/** @return @param file, resolved against @param baseDir if it is relative and baseDir is given */
+	static File resolve(File baseDir, String file) {
+		File resolved = new File(file);
+		if(!resolved.isAbsolute() && baseDir != null) {
+			resolved = new File(baseDir, file);
+		}
+		return resolved;
+	}
+
+	/** @return 0-255 color component as ratio */
+	private static double colorRatio(double number) {
+		if(number > 0) {
+			return number/255;
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Creates objects for the entries it is passed and collects them
+	 * into a scene. Without a "scene" entry the viewport is empty.
+	 * Objects of a group are collected until the group is first
+	 * instanced, when its hierarchy is built; groups that are never
+	 * instanced are not part of the scene
+	 */
+	private static class SceneBuilder implements SceneListener {
+		/** Directory relative mesh files are looked up in, or null for the working directory */
+		private final File baseDir;
+		private int width, height, maxRayDepth;
+		private double fov = 75;
+		private Vector backgroundColor;
+		private int minSamples = 1, maxSamples = 1;
+		private double aaThreshold = AdaptiveSampler.DEFAULT_THRESHOLD;
+		private Vector camera = new Vector(0);
+		private int frames;
+		private Animation animation;
+		private ArrayList<Object> objects = new ArrayList<>();
+
+		/** Objects of groups not instanced yet, and groups already instanced */
+		private Map<String, ArrayList<Object>> openGroups = new HashMap<>();
+		private Map<String, Group> groups = new HashMap<>();
+
+		/** Group entries are added to, null for the scene itself */
+		private String groupName;
+
+		/** List entries are added to, null if they are dropped */
+		private ArrayList<Object> target = objects;
+
+		SceneBuilder(File baseDir) {
+			this.baseDir = baseDir;
+		}
+
+		@Override
+		public void scene(int width, int height, int maxRayDepth, double fov, Vector backgroundColor) {
+			this.width = width;
+			this.height = height;
+			this.maxRayDepth = maxRayDepth;
+			this.fov = fov;
+			this.backgroundColor = backgroundColor;
+		}
+
+		@Override
+		public void sampling(int minSamples, int maxSamples, double threshold) {
+			this.minSamples = minSamples;
+			this.maxSamples = maxSamples;
+			this.aaThreshold = threshold;
+		}
+
+		@Override
+		public void camera(Vector position) {
+			this.camera = position;
+		}
+
+		@Override
+		public void frames(int frames) {
+			if(frames < 1) {
+				throw new IllegalArgumentException("A sequence must have at least one frame.");
+			}
+			this.frames = frames;
+		}
+
+		@Override
+		public void keyframe(int frame, int object, int property, Vector value) {
+			if(animation == null) {
+				animation = new Animation();
+			}
+			animation.addKeyframe(frame, object, property, value);
+		}
+
+		@Override
+		public void light(Vector center, double radius, Vector emissionColor) {
+			if(groupName != null) {
+				System.err.println("Lights cannot be placed in group " + groupName + ".");
+				return;
+			}
+			objects.add(new Sphere(center, radius, new Vector(0), 0, 0, 1, emissionColor));
+		}
+
+		@Override
+		public void sphere(Vector center, double radius, Vector color, double transparency, double reflectivity, double idxOfRefrac) {
+			add(new Sphere(center, radius, color, transparency, reflectivity, idxOfRefrac));
+		}
+
+		@Override
+		public void plane(Vector center, Vector normal, double width, double height, Vector color, double reflectivity) {
+			add(new Plane(center, normal, width, height, color, reflectivity));
+		}
+
+		/**
+		 * Reads mesh from OBJ @param file, scaling its vertices by @param scale
+		 * and moving them by @param center. A mesh that cannot be read is left out
+		 */
+		@Override
+		public void mesh(String file, Vector center, double scale, Vector color, double transparency, double reflectivity, double idxOfRefrac) {
+			ObjLoader obj;
+			try {
+				obj = ObjLoader.load(resolve(baseDir, file));
+			} catch (IOException e) {
+				System.err.println("Could not read mesh " + file + ": " + e.getMessage());
+				return;
+			}
+			float[] vertices = obj.getVertices();
+			for(int i = 0; i < vertices.length; i += 3) {
+				vertices[i] = (float) (vertices[i] * scale + center.getX());
+				vertices[i + 1] = (float) (vertices[i + 1] * scale + center.getY());
+				vertices[i + 2] = (float) (vertices[i + 2] * scale + center.getZ());
+			}
+			add(new Mesh(vertices, obj.getTriangles(), color, transparency, reflectivity, idxOfRefrac));
+		}
+
+		@Override
+		public void group(String name) {
+			groupName = name;
+			if(name == null) {
+				target = objects;
+			} else if(groups.containsKey(name)) {
+				System.err.println("Group " + name + " is already instanced; objects added to it later are left out.");
+				target = null;
+			} else {
+				target = openGroups.computeIfAbsent(name, key -> new ArrayList<>());
+			}
+		}
+
+		/**
+		 * Places instance of @param group, building the group's hierarchy
+		 * if this is its first instance
+		 */
+		@Override
+		public void instance(String group, Vector translate, Vector rotate, double scale) {
+			if(group.equals(groupName)) {
+				System.err.println("Group " + group + " cannot hold an instance of itself.");
+				return;
+			}
+			Group instanced = groups.get(group);
+			if(instanced == null) {
+				ArrayList<Object> members = openGroups.remove(group);
+				if(members == null) {
+					System.err.println("Instance of unknown group " + group + " is left out.");
+					return;
+				}
+				instanced = new Group(members.toArray(new Object[0]));
+				groups.put(group, instanced);
+			}
+			add(new Instance(instanced, new Transform(translate, rotate, scale)));
+		}
+
+		/** Adds @param object to the scene or to the group entries are added to */
+		private void add(Object object) {
+			if(target != null) {
+				target.add(object);
+			}
+		}
+
+		void clearObjects() {
+			objects.clear();
+			openGroups.clear();
+			groups.clear();
+			animation = null;
+		}
+
+		Scene getScene() {
+			Scene scene = new Scene(width, height, maxRayDepth, fov, backgroundColor, objects.toArray(new Object[0]));
+			scene.setSampling(minSamples, maxSamples, aaThreshold);
+			scene.setCamera(camera);
+			if(animation != null) {
+				animation.check(scene.getObjects());
+			}
+			// without a frame count, a sequence ends with its last keyframe
+			int sequenceFrames = frames > 0 ? frames : animation != null ? animation.getLastFrame() + 1 : 1;
+			scene.setAnimation(sequenceFrames, animation);
+			return scene;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package raytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SceneWatcher Class - renders a scene description file and renders it
+ * again whenever the file changes. The scene loaded after a change is
+ * compared with the one before, object by object in order, and only the
+ * tiles whose recorded TileDependencies touch what changed are traced
+ * again, so editing one object's material re-traces the part of the
+ * image it shows up in. Changes to the viewport, camera, ray depth,
+ * sampling or to which objects are lights render the whole image again.
+ * Objects are matched by their place in the file, so inserting one
+ * before others counts as a change to every object after it
+ */
+public class SceneWatcher {
+	/** Time in milliseconds file must be left alone before it is loaded again */
+	private static final long SETTLE_MILLIS = 100;
+
+	private final File file;
+	private final Renderer.Kernel kernel;
+	private final double cullThreshold;
+	private final int threads;
+	private Renderer renderer;
+	private Scene scene;
+
+	/** Called after every render of the scene */
+	private Runnable rendered = () -> {};
+
+	/**
+	 * Creates watcher of scene description file @param file, rendered on
+	 * @param threads threads with @param kernel and @param cullThreshold.
+	 * The iterative kernel is kept, any other renders with the primitive
+	 * kernel as only those two record dependencies
+	 */
+	public SceneWatcher(File file, int threads, Renderer.Kernel kernel, double cullThreshold) {
+		this.file = file;
+		this.threads = threads;
+		this.kernel = kernel == Renderer.Kernel.ITERATIVE ? kernel : Renderer.Kernel.PRIMITIVE;
+		this.cullThreshold = cullThreshold;
+	}
+
+	/** Sets @param rendered called after every render, e.g. to write or show the image */
+	public void setRendered(Runnable rendered) {
+		this.rendered = rendered;
+	}
+
+	/** @return renderer of the scene, replaced when the viewport changes */
+	public Renderer getRenderer() {
+		return renderer;
+	}
+
+	/** Loads and renders the scene for the first time */
+	public void start() {
+		scene = SceneLoader.load(file.getPath());
+		renderer = createRenderer(scene);
+		long start = System.nanoTime();
+		renderer.drawScene();
+		System.err.printf("Rendered in %.0f ms.%n", (System.nanoTime() - start) / 1e6);
+		rendered.run();
+	}
+
+	/**
+	 * Renders the scene again every time its file changes, until the
+	 * thread is interrupted. A file that fails to load is reported and
+	 * the image kept until the next change
+	 */
+	public void watch() throws IOException {
+		if(renderer == null) {
+			start();
+		}
+		Path path = file.getAbsoluteFile().toPath();
+		try (WatchService service = FileSystems.getDefault().newWatchService()) {
+			path.getParent().register(service, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+			while(true) {
+				WatchKey key = service.take();
+				boolean changed = false;
+				do {
+					for(WatchEvent<?> event : key.pollEvents()) {
+						changed |= path.getFileName().equals(event.context());
+					}
+					key.reset();
+					// editors write files in several steps, so wait until they are done
+				} while((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+				if(changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Loads the scene again and traces what changed since it was last rendered */
+	public void reload() {
+		Scene next;
+		try {
+			next = SceneLoader.load(file.getPath());
+		} catch (RuntimeException e) {
+			System.err.println("Could not load " + file + ": " + e.getMessage());
+			return;
+		}
+		long start = System.nanoTime();
+		BitSet dirty = changedTiles(scene, next);
+		scene = next;
+		if(dirty == null) {
+			if(next.getWidth() != renderer.getWidth() || next.getHeight() != renderer.getHeight()) {
+				renderer = createRenderer(next);
+			} else {
+				renderer.setScene(next);
+				renderer.setDependencies(new TileDependencies(next.getWidth(), next.getHeight(), next.getObjects()));
+			}
+			renderer.drawScene();
+			System.err.printf("Rendered in %.0f ms.%n", (System.nanoTime() - start) / 1e6);
+		} else {
+			renderer.setScene(next);
+			if(!dirty.isEmpty()) {
+				renderer.redraw(dirty);
+			}
+			System.err.printf("Re-traced %d of %d tiles in %.0f ms.%n", dirty.cardinality(),
+					renderer.getDependencies().getTileCount(), (System.nanoTime() - start) / 1e6);
+		}
+		rendered.run();
+	}
+
+	/**
+	 * @return tiles of the image of @param before that must be traced again
+	 * to give the image of @param after, or null if all of it must be
+	 */
+	private BitSet changedTiles(Scene before, Scene after) {
+		if(before.getWidth() != after.getWidth() || before.getHeight() != after.getHeight()
+				|| before.getMaxRayDepth() != after.getMaxRayDepth() || before.getFov() != after.getFov()
+				|| before.getMinSamples() != after.getMinSamples() || before.getMaxSamples() != after.getMaxSamples()
+				|| before.getAaThreshold() != after.getAaThreshold()
+				|| !Object.same(before.getCamera(), after.getCamera())) {
+			return null;
+		}
+		Object[] oldObjects = before.getObjects();
+		Object[] newObjects = after.getObjects();
+		TileDependencies dependencies = renderer.getDependencies();
+		BitSet dirty = new BitSet(dependencies.getTileCount());
+		if(!Object.same(before.getBackgroundColor(), after.getBackgroundColor())) {
+			dependencies.addBackgroundTiles(dirty);
+		}
+		for(int i = 0; i < Math.max(oldObjects.length, newObjects.length); i++) {
+			Object oldObject = i < oldObjects.length ? oldObjects[i] : null;
+			Object newObject = i < newObjects.length ? newObjects[i] : null;
+			if(oldObject != null && newObject != null && oldObject.isLight() != newObject.isLight()) {
+				// every diffuse surface is shaded by every light
+				return null;
+			}
+			if((oldObject != null && oldObject.isLight() && newObject == null)
+					|| (newObject != null && newObject.isLight() && oldObject == null)) {
+				return null;
+			}
+			if(oldObject == null || newObject == null || !oldObject.sameGeometry(newObject)) {
+				dependencies.addGeometryTiles(i, oldObject != null ? oldObject.getBoundingBox() : null,
+						newObject != null ? newObject.getBoundingBox() : null, dirty);
+			} else if(!oldObject.sameMaterial(newObject)) {
+				dependencies.addShadingTiles(i, dirty);
+			}
+		}
+		return dirty;
+	}
+
+	/** @return renderer of @param scene recording its dependencies */
+	private Renderer createRenderer(Scene scene) {
+		Renderer renderer = new Renderer(scene, threads);
+		renderer.setKernel(kernel);
+		renderer.setCullThreshold(cullThreshold);
+		renderer.setDependencies(new TileDependencies(scene.getWidth(), scene.getHeight(), scene.getObjects()));
+		return renderer;
+	}
+}
@@ -0,0 +1,153 @@
+package raytracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * SequenceRenderer Class - renders the frames of an animated scene to
+ * numbered image files in one process. The scene is loaded once; every
+ * frame shares the objects its keyframes leave alone, so meshes, groups
+ * and their hierarchies are built once for the whole sequence. A few
+ * frames are traced at once, and the tiles of all of them are rendered
+ * on one shared pool of render threads, so the tiles of the next frame
+ * fill the threads the last tiles of a frame leave idle without more
+ * threads than cores. Frames are written to disk on a thread of their own
+ * while later frames are traced
+ */
+public class SequenceRenderer {
+	/** Default number of frames traced at once */
+	public static final int DEFAULT_FRAMES_IN_FLIGHT = 2;
+
+	private final Scene scene;
+	private final int threads;
+	private Renderer.Kernel kernel = Renderer.Kernel.PRIMITIVE;
+	private double cullThreshold = PrimitiveTracer.DEFAULT_CULL_THRESHOLD;
+	private int framesInFlight = DEFAULT_FRAMES_IN_FLIGHT;
+
+	/**
+	 * Creates renderer of the frames of @param scene, traced on
+	 * @param threads threads shared by the frames traced at once
+	 */
+	public SequenceRenderer(Scene scene, int threads) {
+		this.scene = scene;
+		this.threads = threads;
+	}
+
+	/** Sets implementation of trace frames are traced with */
+	public void setKernel(Renderer.Kernel kernel) {
+		this.kernel = kernel;
+	}
+
+	/** Sets weight at or below which the iterative kernel stops tracing */
+	public void setCullThreshold(double cullThreshold) {
+		this.cullThreshold = cullThreshold;
+	}
+
+	/** Sets number of frames traced at once */
+	public void setFramesInFlight(int framesInFlight) {
+		this.framesInFlight = Math.max(1, framesInFlight);
+	}
+
+	/**
+	 * @return file frame @param frame is written to: @param pattern formatted
+	 * with the frame number, e.g. "frame%04d.png", or if it holds no format
+	 * the frame number is put before its extension
+	 */
+	public static File frameFile(String pattern, int frame) {
+		if(pattern.contains("%")) {
+			return new File(String.format(pattern, frame));
+		}
+		int dot = pattern.lastIndexOf('.');
+		if(dot <= pattern.lastIndexOf(File.separatorChar)) {
+			dot = pattern.length();
+		}
+		return new File(pattern.substring(0, dot) + String.format("%04d", frame) + pattern.substring(dot));
+	}
+
+	/**
+	 * Renders every frame of the scene to the files @param pattern names,
+	 * see frameFile, and returns once all are written
+	 */
+	public void render(String pattern) throws IOException {
+		render(0, scene.getFrames(), pattern);
+	}
+
+	/**
+	 * Renders frames [first, last) of the scene to the files @param pattern
+	 * names and returns once all are written. Frames traced but not yet
+	 * written are limited, so memory stays bounded if the disk is slow.
+	 * Throws InterruptedIOException if interrupted before all are written
+	 */
+	public void render(int first, int last, String pattern) throws IOException {
+		TileRenderer tiles = new TileRenderer(threads);
+		ExecutorService tracing = Executors.newFixedThreadPool(framesInFlight, runnable -> new Thread(runnable, "sequence-frame"));
+		ExecutorService writing = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sequence-writer"));
+		Semaphore unwritten = new Semaphore(framesInFlight + 1);
+		List<Future<Future<?>>> frames = new ArrayList<>();
+		try {
+			for(int frame = first; frame < last; frame++) {
+				unwritten.acquire();
+				int number = frame;
+				frames.add(tracing.submit(() -> {
+					FrameBuffer image;
+					try {
+						image = traceFrame(number, tiles);
+					} catch (RuntimeException | Error e) {
+						unwritten.release();
+						throw e;
+					}
+					return writing.submit(() -> {
+						try {
+							ImageWriter.write(image, frameFile(pattern, number));
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						} finally {
+							unwritten.release();
+						}
+					});
+				}));
+				// collect frames already written, so a failure stops the sequence early
+				while(!frames.isEmpty() && frames.get(0).isDone() && frames.get(0).get().isDone()) {
+					frames.remove(0).get().get();
+				}
+			}
+			for(Future<Future<?>> frame : frames) {
+				frame.get().get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Sequence interrupted before every frame was written.");
+			interrupted.initCause(e);
+			throw interrupted;
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new RuntimeException("Could not render sequence.", e.getCause());
+		} finally {
+			tracing.shutdownNow();
+			writing.shutdown();
+			tiles.close();
+		}
+	}
+
+	/** @return colors of @param frame of the scene, rendered in tiles on @param tiles */
+	private FrameBuffer traceFrame(int frame, TileRenderer tiles) {
+		try (Renderer renderer = new Renderer(scene.getFrame(frame), threads)) {
+			renderer.setTileRenderer(tiles);
+			renderer.setKernel(kernel);
+			renderer.setCullThreshold(cullThreshold);
+			renderer.drawScene();
+			return renderer.getImage();
+		}
+	}
+}
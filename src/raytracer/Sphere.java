@@ -38,30 +38,43 @@ public class Sphere extends Object{
 	}
 	
 	/** 
-	 * Overrides intersect method of Object class
-	 * Returns true if ray intersects surface of Sphere 
-	 * @param ray
+	 * Overrides hitDistance method of Object class
+	 * Returns distance to nearest point where ray hits surface of Sphere
+	 * in front of its origin, or NaN if it misses
 	 */
 	@Override
-	public boolean intersect(Ray ray ) {
-	    Vector centerToRay = center.subtract(ray.getOrigin());
-	    double tCenter = centerToRay.dot(ray.getDirection());
+	public double hitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+	    double lx = center.getX() - ox;
+	    double ly = center.getY() - oy;
+	    double lz = center.getZ() - oz;
+	    double tCenter = lx*dx + ly*dy + lz*dz;
 	    if(tCenter < 0)    
-	        return false;
-	    double d2 = centerToRay.dot(centerToRay) - tCenter*tCenter;
+	        return Double.NaN;
+	    double d2 = (lx*lx + ly*ly + lz*lz) - tCenter*tCenter;
 	    if (d2 > radius*radius)
-	        return false;
+	        return Double.NaN;
 	    double tDiff = Math.sqrt(radius*radius - d2);
 	    double t0 = tCenter - tDiff;
 	    double t1 = tCenter + tDiff;
-	    double tnear = Double.MAX_VALUE;
 	    if(t0 < 0)
             t0 = t1;
-        if(t0 < tnear) 
-            tnear = t0;
-        ray.setTNear(tnear);
-	    
-	    return true;
+	    return t0;
+	}
+	
+	/**
+	 * Overrides occludes method of Object class, rejecting rays that pass
+	 * the sphere or only reach it beyond maxDistance before solving for the hit
+	 */
+	@Override
+	public boolean occludes(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+	    double lx = center.getX() - ox;
+	    double ly = center.getY() - oy;
+	    double lz = center.getZ() - oz;
+	    double tCenter = lx*dx + ly*dy + lz*dz;
+	    if(tCenter < 0 || tCenter - radius >= maxDistance)
+	        return false;
+	    double t = hitDistance(ox, oy, oz, dx, dy, dz);
+	    return t < maxDistance;
 	}
 	
 	/**
@@ -74,6 +87,55 @@ public class Sphere extends Object{
 	    return normalAtHit;
 	}
 	
+	/**
+	 * Writes normal at point p into @param normal without allocating
+	 */
+	@Override
+	public void getNormal(double px, double py, double pz, double[] normal) {
+	    double x = px - center.getX();
+	    double y = py - center.getY();
+	    double z = pz - center.getZ();
+	    double mag = Math.sqrt((x*x)+(y*y)+(z*z));
+	    normal[0] = x/mag;
+	    normal[1] = y/mag;
+	    normal[2] = z/mag;
+	}
+	
+	/**
+	 * Returns distance of point p to the surface of sphere
+	 */
+	@Override
+	public double surfaceDistance(double px, double py, double pz) {
+	    double x = px - center.getX();
+	    double y = py - center.getY();
+	    double z = pz - center.getZ();
+	    return Math.abs(Math.sqrt((x*x)+(y*y)+(z*z)) - radius);
+	}
+	/**
+	 * Returns box enclosing sphere, padded slightly so that rounding in 
+	 * the intersection test never places a hit outside of it
+	 */
+	@Override
+	public BoundingBox getBoundingBox() {
+	    double pad = 1e-7 * (radius + Math.max(Math.abs(center.getX()), 
+	            Math.max(Math.abs(center.getY()), Math.abs(center.getZ())))) + 1e-9;
+	    return new BoundingBox(center, new Vector(radius + pad));
+	}
+	
+	/**
+	 * Overrides method in Object class
+	 * @return true if @param other is a sphere of the same center and radius
+	 */
+	@Override
+	public boolean sameGeometry(Object other) {
+	    return super.sameGeometry(other) && radius == ((Sphere) other).radius;
+	}
+	
+	/** @return radius of sphere */
+	public double getRadius() {
+	    return radius;
+	}
+	
 	@Override
 	public boolean isPlane() { return false; }
 	
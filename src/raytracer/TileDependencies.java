@@ -0,0 +1,219 @@
+package raytracer;
+
+import java.util.BitSet;
+
+/**
+ * TileDependencies Class - what the pixels of each tile of an image were
+ * traced from, recorded while they are traced so that a changed scene
+ * only needs the tiles it affects traced again. For every tile it keeps
+ * the objects rays hit, the lights that shaded hit points, whether a ray
+ * left the scene for the background, and a box enclosing every ray
+ * segment traced, from its origin to its hit, to the light for shadow
+ * rays, or to where it leaves the scene's bounds. A change to how an
+ * object is shaded affects only the tiles that hit or were lit by it;
+ * a change to its shape or place may also affect any tile whose rays
+ * passed through its old or new bounds.
+ * Tiles are TileRenderer.TILE_SIZE squares aligned to the image, so
+ * the render threads each record into the tiles they trace
+ */
+public class TileDependencies {
+	/** Dependencies of one tile, written by one thread at a time */
+	public static class Tile {
+		/** Objects hit by a ray of tile, and lights that shaded hit points */
+		private final BitSet objects = new BitSet();
+
+		/** True if a ray of tile left the scene for the background */
+		private boolean background;
+
+		/** True if a ray left the scene and the scene's bounds are not finite */
+		private boolean unbounded;
+
+		/** Box enclosing every ray segment traced for tile */
+		private double minX, minY, minZ, maxX, maxY, maxZ;
+
+		/** Scene bounds escaping rays are cut off at, null if not finite */
+		private final BoundingBox world;
+
+		private Tile(BoundingBox world) {
+			this.world = world;
+			clear();
+		}
+
+		private void clear() {
+			objects.clear();
+			background = false;
+			unbounded = false;
+			minX = minY = minZ = Double.POSITIVE_INFINITY;
+			maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+		}
+
+		/** Records ray with origin o and direction d that hit @param object at distance t */
+		void hit(int object, double ox, double oy, double oz, double dx, double dy, double dz, double t) {
+			objects.set(object);
+			include(ox, oy, oz);
+			include(ox + dx * t, oy + dy * t, oz + dz * t);
+		}
+
+		/** Records ray with origin o and direction d that hit nothing */
+		void escape(double ox, double oy, double oz, double dx, double dy, double dz) {
+			background = true;
+			if(world == null) {
+				unbounded = true;
+				return;
+			}
+			// nothing lies beyond where the ray leaves the scene's bounds
+			double exit = Math.min(exitDistance(ox, dx, 0), Math.min(exitDistance(oy, dy, 1), exitDistance(oz, dz, 2)));
+			include(ox, oy, oz);
+			if(exit > 0 && exit < Double.POSITIVE_INFINITY) {
+				include(ox + dx * exit, oy + dy * exit, oz + dz * exit);
+			}
+		}
+
+		/** @return distance along @param axis from o to the far side of the scene's bounds */
+		private double exitDistance(double o, double d, int axis) {
+			if(d > 0) {
+				return (world.getMax(axis) - o) / d;
+			} else if(d < 0) {
+				return (world.getMin(axis) - o) / d;
+			}
+			return Double.POSITIVE_INFINITY;
+		}
+
+		/** Records shadow ray from point s to @param light at l */
+		void light(int light, double sx, double sy, double sz, double lx, double ly, double lz) {
+			objects.set(light);
+			include(sx, sy, sz);
+			include(lx, ly, lz);
+		}
+
+		private void include(double x, double y, double z) {
+			if(Double.isNaN(x + y + z)) {
+				unbounded = true;
+				return;
+			}
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+
+		/** @return true if some ray segment of tile may pass through @param box */
+		private boolean mayCross(BoundingBox box) {
+			return unbounded || (box.getMin(0) <= maxX && box.getMax(0) >= minX
+					&& box.getMin(1) <= maxY && box.getMax(1) >= minY
+					&& box.getMin(2) <= maxZ && box.getMax(2) >= minZ);
+		}
+	}
+
+	private final int width;
+	private final int height;
+	private final int columns;
+	private final Tile[] tiles;
+	private final BoundingBox world;
+
+	/**
+	 * Creates empty dependencies of the tiles of a width x height image
+	 * of a scene of @param objects
+	 */
+	public TileDependencies(int width, int height, Object[] objects) {
+		BoundingBox bounds = null;
+		for(Object object : objects) {
+			BoundingBox box = object.getBoundingBox();
+			bounds = bounds == null ? box : bounds.union(box);
+		}
+		this.world = bounds != null && bounds.isFinite() ? bounds : null;
+		this.width = width;
+		this.height = height;
+		this.columns = (width + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+		int rows = (height + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+		this.tiles = new Tile[columns * rows];
+		for(int i = 0; i < tiles.length; i++) {
+			tiles[i] = new Tile(world);
+		}
+	}
+
+	/** @return number of tiles */
+	public int getTileCount() {
+		return tiles.length;
+	}
+
+	/** @return index of tile holding pixel (x, y) */
+	public int tileIndex(int x, int y) {
+		return (y / TileRenderer.TILE_SIZE) * columns + x / TileRenderer.TILE_SIZE;
+	}
+
+	/** @return dependencies of tile holding pixel (x, y) */
+	public Tile tileAt(int x, int y) {
+		return tiles[tileIndex(x, y)];
+	}
+
+	/** @return left, top, right and bottom pixel bounds of @param tile */
+	public int[] tileBounds(int tile) {
+		int x0 = (tile % columns) * TileRenderer.TILE_SIZE;
+		int y0 = (tile / columns) * TileRenderer.TILE_SIZE;
+		return new int[] { x0, y0, Math.min(width, x0 + TileRenderer.TILE_SIZE),
+				Math.min(height, y0 + TileRenderer.TILE_SIZE) };
+	}
+
+	/** Forgets dependencies of every tile */
+	public void clear() {
+		for(Tile tile : tiles) {
+			tile.clear();
+		}
+	}
+
+	/** Forgets dependencies of the tiles in @param dirty */
+	public void clear(BitSet dirty) {
+		for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			tiles[i].clear();
+		}
+	}
+
+	/** Adds to @param dirty the tiles whose rays left the scene for the background */
+	public void addBackgroundTiles(BitSet dirty) {
+		for(int i = 0; i < tiles.length; i++) {
+			if(tiles[i].background) {
+				dirty.set(i);
+			}
+		}
+	}
+
+	/** Adds to @param dirty the tiles that hit or were lit by @param object */
+	public void addShadingTiles(int object, BitSet dirty) {
+		for(int i = 0; i < tiles.length; i++) {
+			if(tiles[i].objects.get(object)) {
+				dirty.set(i);
+			}
+		}
+	}
+
+	/**
+	 * Adds to @param dirty the tiles a change of shape or place of @param object
+	 * may affect: those that hit or were lit by it, and those whose rays passed
+	 * through its @param before or @param after bounds. Either box is null if
+	 * the object did not exist before or does not exist after the change
+	 */
+	public void addGeometryTiles(int object, BoundingBox before, BoundingBox after, BitSet dirty) {
+		// rays that left the scene were cut off at its bounds, so they may meet objects placed beyond them
+		boolean outside = after != null && (world == null || !contains(world, after));
+		for(int i = 0; i < tiles.length; i++) {
+			Tile tile = tiles[i];
+			if((object >= 0 && tile.objects.get(object)) || (before != null && tile.mayCross(before))
+					|| (after != null && tile.mayCross(after)) || (outside && tile.background)) {
+				dirty.set(i);
+			}
+		}
+	}
+
+	/** @return true if @param outer encloses @param inner */
+	private static boolean contains(BoundingBox outer, BoundingBox inner) {
+		for(int axis = 0; axis < 3; axis++) {
+			if(inner.getMin(axis) < outer.getMin(axis) || inner.getMax(axis) > outer.getMax(axis)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
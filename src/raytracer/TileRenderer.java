@@ -0,0 +1,122 @@
+package raytracer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TileRenderer Class - splits the viewport into square tiles and renders
+ * them on a work-stealing ForkJoin pool. Every tile is rendered by
+ * exactly one thread, which writes its pixels straight into the image.
+ * The pool is started by the first render and kept for the ones after
+ * it, so state its threads keep, e.g. thread-local scratch buffers and
+ * caches of the trace kernels, carries over from render to render
+ */
+public class TileRenderer implements AutoCloseable {
+	/** Default width and height of a tile in pixels */
+	public static final int TILE_SIZE = 32;
+
+	/**
+	 * Renders pixels in [x0, x1) x [y0, y1) of the viewport.
+	 * Implementations must only write pixels of the tile they are handed
+	 */
+	public interface Worker {
+		void renderTile(int x0, int y0, int x1, int y1);
+	}
+
+	private int threads;
+	private int tileSize;
+
+	/** Threads tiles are rendered on, null until the first render or after close */
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates renderer running on @param threads threads with default tile size
+	 */
+	public TileRenderer(int threads) {
+		this(threads, TILE_SIZE);
+	}
+
+	/**
+	 * Creates renderer running on @param threads threads with tiles
+	 * of @param tileSize x tileSize pixels
+	 */
+	public TileRenderer(int threads, int tileSize) {
+		if(threads < 1 || tileSize < 1) {
+			throw new IllegalArgumentException("Thread count and tile size must be positive.");
+		}
+		this.threads = threads;
+		this.tileSize = tileSize;
+	}
+
+	/** @return number of threads tiles are rendered on */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Renders a width x height viewport tile by tile with @param worker
+	 * and returns once every tile is done
+	 */
+	public void render(int width, int height, Worker worker) {
+		int tilesX = (width + tileSize - 1) / tileSize;
+		int tilesY = (height + tileSize - 1) / tileSize;
+		if(tilesX == 0 || tilesY == 0) {
+			return;
+		}
+		getPool().invoke(new TileTask(worker, width, height, tilesX, 0, tilesX * tilesY));
+	}
+
+	/**
+	 * @return pool tiles are rendered on, started if there is none. Renders
+	 * may run at once from several threads; their tiles then share the pool
+	 */
+	private synchronized ForkJoinPool getPool() {
+		if(pool == null) {
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/** Stops the threads tiles are rendered on; a later render starts new ones */
+	@Override
+	public synchronized void close() {
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Renders the range of tiles [first, last), splitting it in halves so
+	 * idle threads can steal the other half
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private Worker worker;
+		private int width, height, tilesX;
+		private int first, last;
+
+		TileTask(Worker worker, int width, int height, int tilesX, int first, int last) {
+			this.worker = worker;
+			this.width = width;
+			this.height = height;
+			this.tilesX = tilesX;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if(last - first > 1) {
+				int mid = (first + last) >>> 1;
+				invokeAll(new TileTask(worker, width, height, tilesX, first, mid),
+						new TileTask(worker, width, height, tilesX, mid, last));
+				return;
+			}
+			int x0 = (first % tilesX) * tileSize;
+			int y0 = (first / tilesX) * tileSize;
+			worker.renderTile(x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+		}
+	}
+}
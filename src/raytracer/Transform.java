@@ -0,0 +1,88 @@
+package raytracer;
+
+/**
+ * Transform Class - places an instance of a group in the scene. Points
+ * of the group are scaled by a uniform scale, rotated about the x, y and
+ * then z axis and moved by a translation. As the scale is uniform,
+ * directions only need the rotation and keep their length, so distances
+ * along a ray scale by the same factor in every direction
+ */
+public class Transform {
+	/** Rotation as a row major 3 x 3 matrix */
+	final double[] rotation = new double[9];
+
+	final double scale;
+	final double tx, ty, tz;
+
+	/** Rotation in degrees about x, y and z the matrix was made from */
+	private final Vector rotate;
+
+	/**
+	 * Creates transform moving by @param translate, rotating by the x, y, z
+	 * components of @param rotate in degrees and scaling by @param scale
+	 */
+	public Transform(Vector translate, Vector rotate, double scale) {
+		if(!(scale > 0) || Double.isInfinite(scale)) {
+			throw new IllegalArgumentException("Instance scale must be positive.");
+		}
+		this.scale = scale;
+		this.tx = translate.getX();
+		this.ty = translate.getY();
+		this.tz = translate.getZ();
+		this.rotate = rotate;
+
+		double cx = Math.cos(Math.toRadians(rotate.getX())), sx = Math.sin(Math.toRadians(rotate.getX()));
+		double cy = Math.cos(Math.toRadians(rotate.getY())), sy = Math.sin(Math.toRadians(rotate.getY()));
+		double cz = Math.cos(Math.toRadians(rotate.getZ())), sz = Math.sin(Math.toRadians(rotate.getZ()));
+		// Rz * Ry * Rx
+		rotation[0] = cz * cy;
+		rotation[1] = cz * sy * sx - sz * cx;
+		rotation[2] = cz * sy * cx + sz * sx;
+		rotation[3] = sz * cy;
+		rotation[4] = sz * sy * sx + cz * cx;
+		rotation[5] = sz * sy * cx - cz * sx;
+		rotation[6] = -sy;
+		rotation[7] = cy * sx;
+		rotation[8] = cy * cx;
+	}
+
+	/** @return translation of transform */
+	public Vector getTranslate() {
+		return new Vector(tx, ty, tz);
+	}
+
+	/** @return rotation of transform in degrees about x, y and z */
+	public Vector getRotate() {
+		return rotate;
+	}
+
+	/** @return uniform scale of transform */
+	public double getScale() {
+		return scale;
+	}
+
+	/** @return box enclosing @param box once it is transformed */
+	public BoundingBox transformBox(BoundingBox box) {
+		double[] r = rotation;
+		double minX = tx, minY = ty, minZ = tz, maxX = tx, maxY = ty, maxZ = tz;
+		// each output component is a sum over input axes; take the smaller and larger end of every term
+		for(int axis = 0; axis < 3; axis++) {
+			double lo = box.getMin(axis) * scale, hi = box.getMax(axis) * scale;
+			double a = r[axis] * lo, b = r[axis] * hi;
+			minX += Math.min(a, b);
+			maxX += Math.max(a, b);
+			a = r[3 + axis] * lo;
+			b = r[3 + axis] * hi;
+			minY += Math.min(a, b);
+			maxY += Math.max(a, b);
+			a = r[6 + axis] * lo;
+			b = r[6 + axis] * hi;
+			minZ += Math.min(a, b);
+			maxZ += Math.max(a, b);
+		}
+		// rounding of the rotated coordinates stays within the pad
+		double pad = 1e-9 * (Math.abs(minX) + Math.abs(minY) + Math.abs(minZ)
+				+ Math.abs(maxX) + Math.abs(maxY) + Math.abs(maxZ));
+		return new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ).expand(pad);
+	}
+}
@@ -0,0 +1,191 @@
+package raytracer;
+
+import java.util.Arrays;
+
+/**
+ * WavefrontTracer Class - traces a batch of primary rays, such as those
+ * of a tile, one bounce at a time instead of one ray tree at a time.
+ * The rays of a bounce are intersected together, then shaded together,
+ * and the reflected and refracted rays the shading spawns are queued as
+ * the next bounce, weighted as in PrimitiveTracer.traceIterative and
+ * culled at the same threshold. Before a bounce is intersected its rays
+ * are sorted by the octant of their direction and then by their origin
+ * along a Morton curve through the scene's box, so rays that walk the
+ * same nodes of the hierarchy in the same order are traced one after
+ * another. Colors are those of traceIterative up to the rounding of the
+ * order a path's contributions are summed in
+ */
+public class WavefrontTracer {
+	/** Rays of the bounces of one thread's batch, reused from batch to batch */
+	static class Queue {
+		/** Rays of the bounce being built, RAY_FIELDS doubles each, their depths and paths */
+		double[] rays = new double[0];
+		int[] depths = new int[0];
+		int[] paths = new int[0];
+		/** Rays of the bounce being traced, in the order they are traced */
+		double[] sorted = new double[0];
+		int[] sortedDepths = new int[0];
+		int[] sortedPaths = new int[0];
+		/** Object each ray of the bounce hits, or -1, and its distance */
+		int[] hits = new int[0];
+		double[] tnears = new double[0];
+		/** Sort keys of the bounce's rays, with the ray index in the low bits */
+		long[] keys = new long[0];
+		/** Deepest bounce of every path */
+		int[] pathDepths = new int[0];
+
+		/** Makes room for @param count rays in the bounce being built */
+		void ensureRays(int count) {
+			if(depths.length < count) {
+				int capacity = Math.max(count, depths.length * 2);
+				rays = Arrays.copyOf(rays, capacity * PrimitiveTracer.RAY_FIELDS);
+				depths = Arrays.copyOf(depths, capacity);
+				paths = Arrays.copyOf(paths, capacity);
+			}
+		}
+
+		/** Makes room for @param count rays in the bounce being traced */
+		void ensureSorted(int count) {
+			if(sortedDepths.length < count) {
+				int capacity = Math.max(count, sortedDepths.length * 2);
+				sorted = new double[capacity * PrimitiveTracer.RAY_FIELDS];
+				sortedDepths = new int[capacity];
+				sortedPaths = new int[capacity];
+				hits = new int[capacity];
+				tnears = new double[capacity];
+				keys = new long[capacity];
+			}
+		}
+	}
+
+	/** Bits of each coordinate of an origin on the Morton curve */
+	private static final int CELL_BITS = 9;
+
+	private final PrimitiveTracer tracer;
+	private final CompiledScene scene;
+
+	/** Box of the scene origins are placed on the Morton curve in, min and inverse extent */
+	private final double minX, minY, minZ;
+	private final double scaleX, scaleY, scaleZ;
+
+	private final ThreadLocal<Queue> queue = ThreadLocal.withInitial(Queue::new);
+
+	/**
+	 * Creates tracer shading with @param tracer through @param bvh, which
+	 * must be the hierarchy tracer was created with
+	 */
+	public WavefrontTracer(PrimitiveTracer tracer, BVH bvh) {
+		this.tracer = tracer;
+		this.scene = bvh.getCompiled();
+		BVHNodes nodes = bvh.getNodes();
+		double[] box = nodes.nodesUsed > 0 ? nodes.nodeBounds : new double[] {0, 0, 0, 1, 1, 1};
+		int cells = 1 << CELL_BITS;
+		minX = box[0];
+		minY = box[1];
+		minZ = box[2];
+		scaleX = cells / Math.max(box[3] - box[0], Double.MIN_NORMAL);
+		scaleY = cells / Math.max(box[4] - box[1], Double.MIN_NORMAL);
+		scaleZ = cells / Math.max(box[5] - box[2], Double.MIN_NORMAL);
+	}
+
+	/**
+	 * Traces @param count rays from origin o in directions[i * 3 .. i * 3 + 2]
+	 * and stores the color of ray i in colors[i * 3 .. i * 3 + 2]. Rays and
+	 * intersection tests are counted in the counters of @param s, which
+	 * must be the calling thread's scratch space of the tracer; its
+	 * dependencies are not recorded
+	 */
+	public void trace(double ox, double oy, double oz, double[] directions, int count, double[] colors,
+			PrimitiveTracer.Scratch s) {
+		Queue q = queue.get();
+		RenderMetrics.Counters counters = s.counters;
+		TileDependencies.Tile dependencies = s.dependencies;
+		s.dependencies = null;
+		if(q.pathDepths.length < count) {
+			q.pathDepths = new int[count];
+		}
+		Arrays.fill(q.pathDepths, 0, count, 0);
+		Arrays.fill(colors, 0, count * 3, 0);
+
+		// primary rays leave the camera in scanline order, which is coherent already
+		q.ensureSorted(count);
+		for(int i = 0; i < count; i++) {
+			PrimitiveTracer.push(q.sorted, q.sortedDepths, i, ox, oy, oz,
+					directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2], 1, 1, 1, 0);
+			q.sortedPaths[i] = i;
+		}
+		int rays = count;
+		while(rays > 0) {
+			intersect(q, rays, s);
+			q.ensureRays(rays * 2);
+			int spawned = 0;
+			for(int i = 0; i < rays; i++) {
+				int path = q.sortedPaths[i];
+				int depth = q.sortedDepths[i];
+				if(depth > q.pathDepths[path]) {
+					q.pathDepths[path] = depth;
+				}
+				spawned = tracer.shadeWeighted(q.hits[i], q.tnears[i], q.sorted, i * PrimitiveTracer.RAY_FIELDS, depth,
+						colors, path * 3, q.rays, q.depths, q.paths, path, spawned, s);
+			}
+			rays = spawned;
+			sort(q, rays);
+		}
+		for(int i = 0; i < count; i++) {
+			counters.reachedDepth(q.pathDepths[i]);
+			counters.endPath();
+		}
+		s.dependencies = dependencies;
+	}
+
+	/** Finds the nearest hits of the first @param count rays of the bounce being traced */
+	private void intersect(Queue q, int count, PrimitiveTracer.Scratch s) {
+		double[] rays = q.sorted;
+		for(int i = 0; i < count; i++) {
+			int k = i * PrimitiveTracer.RAY_FIELDS;
+			q.hits[i] = scene.nearest(rays[k], rays[k + 1], rays[k + 2], rays[k + 3], rays[k + 4], rays[k + 5],
+					s.stack, s.tnear, s.counters);
+			q.tnears[i] = s.tnear[0];
+		}
+	}
+
+	/**
+	 * Moves the first @param count rays of the bounce built into the bounce
+	 * traced, ordered by direction octant, then by origin along the Morton curve
+	 */
+	private void sort(Queue q, int count) {
+		q.ensureSorted(count);
+		double[] rays = q.rays;
+		for(int i = 0; i < count; i++) {
+			int k = i * PrimitiveTracer.RAY_FIELDS;
+			int octant = (rays[k + 3] < 0 ? 4 : 0) | (rays[k + 4] < 0 ? 2 : 0) | (rays[k + 5] < 0 ? 1 : 0);
+			long cell = morton(cell(rays[k], minX, scaleX), cell(rays[k + 1], minY, scaleY), cell(rays[k + 2], minZ, scaleZ));
+			q.keys[i] = ((long) octant << (3 * CELL_BITS) | cell) << 32 | i;
+		}
+		Arrays.sort(q.keys, 0, count);
+		for(int j = 0; j < count; j++) {
+			int i = (int) q.keys[j];
+			System.arraycopy(rays, i * PrimitiveTracer.RAY_FIELDS, q.sorted, j * PrimitiveTracer.RAY_FIELDS,
+					PrimitiveTracer.RAY_FIELDS);
+			q.sortedDepths[j] = q.depths[i];
+			q.sortedPaths[j] = q.paths[i];
+		}
+	}
+
+	/** @return cell of coordinate @param p along an axis of the scene's box, clamped to the box */
+	private static int cell(double p, double min, double scale) {
+		int cell = (int) ((p - min) * scale);
+		return Math.max(0, Math.min((1 << CELL_BITS) - 1, cell));
+	}
+
+	/** @return Morton code interleaving the bits of cells x, y and z */
+	private static long morton(int x, int y, int z) {
+		long code = 0;
+		for(int bit = 0; bit < CELL_BITS; bit++) {
+			code |= (long) ((x >> bit) & 1) << (3 * bit + 2)
+					| (long) ((y >> bit) & 1) << (3 * bit + 1)
+					| (long) ((z >> bit) & 1) << (3 * bit);
+		}
+		return code;
+	}
+}
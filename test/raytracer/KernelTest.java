@@ -0,0 +1,75 @@
+package raytracer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the trace kernels render scene.json to the same image: the
+ * kernels that trace every ray give identical images, the kernels that
+ * cull match them when nothing is culled, and rendering on more threads,
+ * with their own scratch and occluder caches, changes nothing
+ */
+public class KernelTest {
+	private static final int THREADS = 4;
+
+	private static Scene scene;
+
+	/** Images rendered on one thread, by kernel */
+	private static final Map<Renderer.Kernel, int[]> images = new EnumMap<>(Renderer.Kernel.class);
+
+	@BeforeAll
+	public static void loadScene() throws IOException, ParseException {
+		try (Reader reader = new InputStreamReader(KernelTest.class.getResourceAsStream("scene.json"),
+				StandardCharsets.UTF_8)) {
+			scene = SceneLoader.readJson(reader);
+		}
+	}
+
+	/** @return 8-bit RGB pixels of the scene rendered with @param kernel on @param threads threads */
+	private static int[] render(Renderer.Kernel kernel, int threads) {
+		try (Renderer renderer = new Renderer(scene, threads)) {
+			renderer.setKernel(kernel);
+			// only the iterative and wavefront kernels cull
+			renderer.setCullThreshold(0);
+			renderer.drawScene();
+			return renderer.getImage().toPackedRGB();
+		}
+	}
+
+	/** @return image of the scene rendered with @param kernel on one thread, rendered once per run */
+	private static synchronized int[] image(Renderer.Kernel kernel) {
+		return images.computeIfAbsent(kernel, key -> render(key, 1));
+	}
+
+	@Test
+	public void primitiveAndPacketKernelsMatchObjectKernel() {
+		int[] expected = image(Renderer.Kernel.OBJECT);
+		assertArrayEquals(expected, image(Renderer.Kernel.PRIMITIVE), "primitive");
+		assertArrayEquals(expected, image(Renderer.Kernel.PACKET), "packet");
+	}
+
+	@Test
+	public void cullingKernelsMatchObjectKernelWithoutCulling() {
+		int[] expected = image(Renderer.Kernel.OBJECT);
+		assertArrayEquals(expected, image(Renderer.Kernel.ITERATIVE), "iterative");
+		assertArrayEquals(expected, image(Renderer.Kernel.WAVEFRONT), "wavefront");
+	}
+
+	@Test
+	public void threadsDoNotChangeTheImage() {
+		for(Renderer.Kernel kernel : new Renderer.Kernel[] { Renderer.Kernel.OBJECT, Renderer.Kernel.PRIMITIVE,
+				Renderer.Kernel.PACKET, Renderer.Kernel.ITERATIVE, Renderer.Kernel.WAVEFRONT }) {
+			assertArrayEquals(image(kernel), render(kernel, THREADS), kernel + " on " + THREADS + " threads");
+		}
+	}
+}
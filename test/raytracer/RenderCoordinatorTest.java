@@ -0,0 +1,151 @@
+package raytracer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of RenderCoordinator against workers that speak its protocol by
+ * hand, so a test decides when each tile is sent back
+ */
+public class RenderCoordinatorTest {
+	private static final int SIZE = 8;
+	private static final int TILE_SIZE = 4;
+
+	/** Worker side of a connection to the coordinator */
+	private static class FakeWorker implements AutoCloseable {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		/** Tiles leased and not sent back yet */
+		private final Set<Integer> held = new HashSet<>();
+
+		/** Connects to @param server as a worker with @param threads threads */
+		FakeWorker(ServerSocket server, int threads) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			assertEquals(RenderCoordinator.PROTOCOL_VERSION, in.readInt());
+			in.readInt();
+			in.readDouble();
+			in.readFully(new byte[in.readInt()]);
+			out.writeInt(RenderCoordinator.PROTOCOL_VERSION);
+			out.writeInt(threads);
+			out.flush();
+		}
+
+		/** @return tile of the next lease, failing if the worker already holds it */
+		int lease() throws IOException {
+			assertEquals(RenderCoordinator.LEASE, in.readInt());
+			int tile = in.readInt();
+			for(int i = 0; i < 4; i++) {
+				in.readInt();
+			}
+			assertFalse(held.contains(tile), "Tile " + tile + " leased to the worker holding it");
+			held.add(tile);
+			return tile;
+		}
+
+		/** Sends @param tile back with every pixel's channels set to its number */
+		void send(int tile) throws IOException {
+			held.remove(tile);
+			out.writeInt(RenderCoordinator.RESULT);
+			out.writeInt(tile);
+			for(int i = 0; i < TILE_SIZE * TILE_SIZE * FrameBuffer.CHANNELS; i++) {
+				out.writeFloat(tile);
+			}
+			out.flush();
+		}
+
+		/** Reads the message telling the worker the render is done */
+		void done() throws IOException {
+			assertEquals(RenderCoordinator.DONE, in.readInt());
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/** @return empty scene of SIZE x SIZE pixels in the BinaryScene format */
+	private static byte[] scene() throws IOException {
+		File file = File.createTempFile("scene", ".rscn");
+		try {
+			try (BinaryScene.Writer writer = new BinaryScene.Writer(file)) {
+				writer.scene(SIZE, SIZE, 1, 75, new Vector(0));
+			}
+			return Files.readAllBytes(file.toPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Worker B hangs holding tiles 1 and 2, A takes tile 1 over, then B
+	 * dies. Tile 1 must stay leased to A rather than be queued and leased
+	 * to A again, and A sending a tile twice must not cost the render A
+	 */
+	@Test
+	public void takenOverTileIsNotLeasedAgainWhenHungWorkerDies() throws Exception {
+		RenderCoordinator coordinator = new RenderCoordinator(scene());
+		coordinator.setTileSize(TILE_SIZE);
+		coordinator.setLeaseTimeout(0);
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			CompletableFuture<FrameBuffer> render = CompletableFuture.supplyAsync(() -> {
+				try {
+					return coordinator.render(server);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+				try (FakeWorker b = new FakeWorker(server, 1)) {
+					assertEquals(0, b.lease());
+					assertEquals(1, b.lease());
+					b.send(0);
+					assertEquals(2, b.lease());
+					try (FakeWorker a = new FakeWorker(server, 1)) {
+						// the queued tile first, then the tile leased longest ago
+						assertEquals(3, a.lease());
+						assertEquals(1, a.lease());
+						b.close();
+						while(coordinator.getReleasedTiles() == 0) {
+							Thread.sleep(10);
+						}
+						assertEquals(1, coordinator.getReleasedTiles());
+						a.send(3);
+						assertEquals(2, a.lease());
+						a.send(2);
+						a.send(2);
+						a.send(1);
+						a.done();
+					}
+				}
+				FrameBuffer image = render.join();
+				for(int y = 0; y < SIZE; y++) {
+					for(int x = 0; x < SIZE; x++) {
+						assertEquals(y / TILE_SIZE * 2 + x / TILE_SIZE, image.get(x, y, 0), 0);
+					}
+				}
+			});
+		}
+	}
+}